@@ -0,0 +1,85 @@
+package robotrace;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures Camera.update in each camera mode that follows a robot. The race
+ * is simulated for a while in the setup, so the robots are spread over the
+ * track and ranked on the leaderboard the camera reads them from.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CameraBenchmark {
+
+    /**
+     * Number of 16 ms steps simulated before the camera is measured, a
+     * minute of the race.
+     */
+    private static final int SIMULATED_STEPS = 3750;
+
+    /**
+     * Camera mode: helicopter, motorcycle or first person.
+     */
+    @Param({"1", "2", "3"})
+    public int cameraMode;
+
+    /**
+     * Number of robots in the race.
+     */
+    @Param({"4", "1000"})
+    public int robots;
+
+    private final GlobalState gs = new GlobalState();
+    private final Camera camera = new Camera();
+    private List<Robot> robotList;
+    private Leaderboard leaderboard;
+
+    @Setup
+    public void setUp() {
+        gs.camMode = cameraMode;
+        RaceSimulation simulation = new RaceSimulation(
+                RaceSimulation.spreadOverLanes(robots, RaceTrack.NUMBER_OF_LANES), 42);
+        for (int i = 0; i < SIMULATED_STEPS; i++) {
+            simulation.step(16);
+        }
+
+        RaceTrack raceTrack = RobotRace.createRaceTracks()[1];
+        MaterialState materialState = new MaterialState();
+        Robot[] robotArray = new Robot[robots];
+        leaderboard = new Leaderboard(robots);
+
+        for (int i = 0; i < robots; i++) {
+            robotArray[i] = new Robot(Material.values()[i % Material.values().length],
+                    new Vector(0, 0, 0), (i % 4) + 1, i, materialState);
+            raceTrack.getLanePoint(simulation.getLane(i), simulation.getPosOnTrack(i), robotArray[i].position);
+            raceTrack.getLaneTangent(simulation.getLane(i), simulation.getPosOnTrack(i), robotArray[i].direction);
+            leaderboard.set(i, simulation.getTotalDistanceTravelled(i));
+        }
+
+        leaderboard.reorder();
+        robotList = Arrays.asList(robotArray);
+    }
+
+    @Benchmark
+    public Vec3 update() {
+        camera.update(gs, robotList, leaderboard);
+        return camera.eye;
+    }
+}
@@ -0,0 +1,95 @@
+package robotrace;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-frame update of the robots: taking their state from a
+ * snapshot, placing them on the track and computing the animated skeleton,
+ * as the stick figure mode does on the CPU. The simulation is stepped once
+ * per invocation so the animation values change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RobotBenchmark {
+
+    /**
+     * Simulated time in ms per frame, about 60 frames per second.
+     */
+    private static final int MS_PER_FRAME = 16;
+
+    /**
+     * Number of robots in the race.
+     */
+    @Param({"4", "1000"})
+    public int robots;
+
+    private RaceSimulation simulation;
+    private RaceSnapshot snapshot;
+    private RaceSnapshot spare;
+    private RaceTrack raceTrack;
+    private Robot[] robotArray;
+    private StickFigureBatch batch;
+
+    @Setup
+    public void setUp() {
+        simulation = new RaceSimulation(RaceSimulation.spreadOverLanes(robots, RaceTrack.NUMBER_OF_LANES), 42);
+        snapshot = RaceSnapshot.initial(simulation);
+        spare = new RaceSnapshot(RaceSnapshot.lanesOf(simulation));
+        raceTrack = RobotRace.createRaceTracks()[1];
+        batch = new StickFigureBatch(robots);
+
+        MaterialState materialState = new MaterialState();
+        robotArray = new Robot[robots];
+        for (int i = 0; i < robots; i++) {
+            robotArray[i] = new Robot(Material.values()[i % Material.values().length],
+                    new Vector(0, 0, 0), (i % 4) + 1, i, materialState);
+        }
+    }
+
+    /**
+     * Presents the next tick and places every robot on the track, like
+     * setView and drawScene do.
+     */
+    @Benchmark
+    public int presentAndPlace() {
+        simulation.step(MS_PER_FRAME);
+        RaceSnapshot next = spare.follow(snapshot, simulation);
+        spare = snapshot;
+        snapshot = next;
+
+        for (Robot rob : robotArray) {
+            rob.present(snapshot, 0.5);
+            raceTrack.getLanePoint(rob.getLane(), rob.getPosOnTrack(), rob.position);
+            raceTrack.getLaneTangent(rob.getLane(), rob.getPosOnTrack(), rob.direction);
+        }
+        return robotArray.length;
+    }
+
+    /**
+     * Computes the animated skeleton of every robot into the stick figure
+     * batch.
+     */
+    @Benchmark
+    public int stickFigures() {
+        batch.clear();
+        for (Robot rob : robotArray) {
+            rob.addStickFigure(batch, rob.getTAnim());
+        }
+        return batch.getBoneCount();
+    }
+}
@@ -0,0 +1,80 @@
+package robotrace;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the height function of the terrain and the generation of the
+ * terrain and track meshes that the shader renderer uploads at start up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TerrainBenchmark {
+
+    /**
+     * Number of points per side of the grid over which the height is
+     * evaluated, the grid covers the terrain from -20 to 20.
+     */
+    private static final int GRID = 100;
+
+    /**
+     * Number of the track of which the mesh is generated.
+     */
+    @Param({"1"})
+    public int track;
+
+    private Terrain terrain;
+    private RaceTrack raceTrack;
+
+    @Setup
+    public void setUp() {
+        terrain = new Terrain();
+        raceTrack = RobotRace.createRaceTracks()[track];
+    }
+
+    /**
+     * Evaluates the height on a grid of GRID by GRID points.
+     */
+    @Benchmark
+    public double heightGrid() {
+        double sum = 0;
+        for (int i = 0; i < GRID; i++) {
+            double x = -20 + 40d * i / GRID;
+            for (int j = 0; j < GRID; j++) {
+                sum += terrain.heightAt(x, -20 + 40d * j / GRID);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int terrainMesh() {
+        MeshBuilder builder = new MeshBuilder();
+        terrain.emitSurface(builder);
+        return builder.getVertexCount();
+    }
+
+    @Benchmark
+    public int trackMesh() {
+        MeshBuilder builder = new MeshBuilder();
+        for (int segment = 0; segment < RaceTrack.SEGMENTS; segment++) {
+            raceTrack.emitTop(builder, segment);
+            raceTrack.emitSides(builder, segment);
+        }
+        return builder.getVertexCount();
+    }
+}
@@ -0,0 +1,73 @@
+package robotrace;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the lane point and tangent queries on each of the five tracks,
+ * which are made for every robot in every frame, into a reused Vec3. Every
+ * call moves t along the track, so all Bezier segments are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackBenchmark {
+
+    /**
+     * Step in t between two calls, not a divisor of 1 so t takes many values.
+     */
+    private static final double T_STEP = 0.000731;
+
+    /**
+     * Number of the track, as selected with the track keys.
+     */
+    @Param({"0", "1", "2", "3", "4"})
+    public int track;
+
+    private final Vec3 result = new Vec3();
+    private RaceTrack raceTrack;
+    private double t;
+    private int lane = 1;
+
+    @Setup
+    public void setUp() {
+        raceTrack = RobotRace.createRaceTracks()[track];
+    }
+
+    /**
+     * Moves to the next position on the track and lane, lanes are numbered
+     * from 1 like the lanes of the robots.
+     */
+    private void advance() {
+        t += T_STEP;
+        if (t >= 1) {
+            t -= 1;
+            lane = lane % RaceTrack.NUMBER_OF_LANES + 1;
+        }
+    }
+
+    @Benchmark
+    public Vec3 lanePoint() {
+        advance();
+        return raceTrack.getLanePoint(lane, t, result);
+    }
+
+    @Benchmark
+    public Vec3 laneTangent() {
+        advance();
+        return raceTrack.getLaneTangent(lane, t, result);
+    }
+}
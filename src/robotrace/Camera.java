@@ -4,24 +4,32 @@ import java.util.List;
 import java.util.Random;
 
 /**
- * Implementation of a camera with a position and orientation.
+ * Implementation of a camera with a position and orientation. The eye, center
+ * and up vectors are updated in place, so updating the camera every frame
+ * does not allocate.
  */
 class Camera {
 
     /**
      * The position of the camera.
      */
-    public Vector eye = new Vector(3f, 6f, 5f);
+    public final Vec3 eye = new Vec3(3f, 6f, 5f);
 
     /**
      * The point to which the camera is looking.
      */
-    public Vector center = Vector.O;
+    public final Vec3 center = new Vec3();
 
     /**
      * The up vector.
      */
-    public Vector up = Vector.Z;
+    public final Vec3 up = new Vec3(0, 0, 1);
+
+    /**
+     * Horizontal vector perpendicular to or along the direction of the robot
+     * in focus, reused by the modes that follow a robot.
+     */
+    private final Vec3 offset = new Vec3();
 
     /**
      * Which mode the auto camera mode selected.
@@ -53,9 +61,10 @@ class Camera {
 
     /**
      * Updates the camera viewpoint and direction based on the selected camera
-     * mode.
+     * mode. The robots in focus are indexed by their index in the simulation,
+     * the leaderboard ranks them.
      */
-    public void update(GlobalState gs, List<Robot> focus) {
+    public void update(GlobalState gs, List<Robot> focus, Leaderboard leaderboard) {
 
         switch (gs.camMode) {
 
@@ -66,17 +75,17 @@ class Camera {
 
             // Motor cycle mode    
             case 2:
-                setMotorCycleMode(gs, focus);
+                setMotorCycleMode(gs, focus, leaderboard);
                 break;
 
             // First person mode    
             case 3:
-                setFirstPersonMode(gs, focus);
+                setFirstPersonMode(gs, focus, leaderboard);
                 break;
 
             // Auto mode    
             case 4:
-                setAutoMode(gs, focus);
+                setAutoMode(gs, focus, leaderboard);
                 break;
 
             // Default mode    
@@ -106,10 +115,10 @@ class Camera {
     private void setDefaultMode(GlobalState gs) {
         double invertedPhi = Math.PI / 2 - gs.phi;
 
-        this.eye = RobotRace.sphericalToCoords(gs.theta, invertedPhi, gs.vDist);
+        RobotRace.sphericalToCoords(gs.theta, invertedPhi, gs.vDist, eye);
 
-        this.center = gs.cnt;
-        this.up = Vector.Z;
+        center.set(gs.cnt);
+        up.set(0, 0, 1);
     }
 
     /**
@@ -119,65 +128,57 @@ class Camera {
      * robots.
      */
     private void setHelicopterMode(GlobalState gs, List<Robot> focus) {
-        this.center = focus.get(0).position;
-        this.eye = focus.get(0).position.add(new Vector(0, 0, 15));
-        this.up = focus.get(0).direction;
+        Robot robot = focus.get(0);
+
+        center.set(robot.position);
+        eye.set(robot.position).add(0, 0, 15);
+        up.set(robot.direction);
     }
 
     /**
      * Computes eye, center, and up, based on the motorcycle mode. The camera
      * should focus on the robot. First it takes the robot that has traveled
-     * the most. Then it calculates a vector perpendicular to the robot's 
-     * tangent and then scales that vector so that the camera is perpendicular
-     * to the furthest robot at a constant distance from the track.
+     * the most from the leaderboard. Then it calculates a vector perpendicular
+     * to the robot's tangent and then scales that vector so that the camera is
+     * perpendicular to the furthest robot at a constant distance from the
+     * track.
      */
-    private void setMotorCycleMode(GlobalState gs, List<Robot> focus) {
+    private void setMotorCycleMode(GlobalState gs, List<Robot> focus, Leaderboard leaderboard) {
         
-        Robot mostTravelled = null;
+        Robot mostTravelled = focus.get(leaderboard.getLeader());
 
-        for (Robot rob : focus) {
-            if (mostTravelled == null || mostTravelled.getTotalDistanceTravelled() < rob.getTotalDistanceTravelled()) {
-                mostTravelled = rob;
-            }
-        }
-
-        Vector perpToRobot = mostTravelled.direction.cross(Vector.Z).normalized();
+        // The direction crossed with (0, 0, 1).
+        Vec3 perpToRobot = offset.set(mostTravelled.direction.y, -mostTravelled.direction.x, 0).normalize();
 
-        this.eye = mostTravelled.position.add(perpToRobot.scale(8 + focus.indexOf(mostTravelled)*-1.75d));
-        this.eye.z = mostTravelled.position.z + 1.5d;
+        eye.set(mostTravelled.position).addScaled(perpToRobot, 8 + (mostTravelled.getLane() - 1) * -1.75d);
+        eye.z = mostTravelled.position.z + 1.5d;
 
-        this.center = mostTravelled.position.add(new Vector(0, 0, 1.1d));
-        this.up = Vector.Z;
+        center.set(mostTravelled.position).add(0, 0, 1.1d);
+        up.set(0, 0, 1);
     }
 
     /**
      * Computes eye, center, and up, based on the first person mode. The camera
      * should view from the perspective of the robot. Takes a position slightly
-     * in front of the focus robot. Focus robot is found by selecting the robot
-     * that has traveled the least far.
+     * in front of the focus robot. Focus robot is the robot that has traveled
+     * the least far according to the leaderboard.
      */
-    private void setFirstPersonMode(GlobalState gs, List<Robot> focus) {
-        Robot leastTravelled = null;
-
-        for (Robot rob : focus) {
-            if (leastTravelled == null || leastTravelled.getTotalDistanceTravelled() > rob.getTotalDistanceTravelled()) {
-                leastTravelled = rob;
-            }
-        }
+    private void setFirstPersonMode(GlobalState gs, List<Robot> focus, Leaderboard leaderboard) {
+        Robot leastTravelled = focus.get(leaderboard.getLast());
 
-        this.center = leastTravelled.direction.normalized().add(leastTravelled.position).add(new Vector(0, 0, 1.75));
-        this.up = Vector.Z;
-        this.eye = leastTravelled.position;
-        this.eye.z += 1.75;
+        Vec3 forward = offset.set(leastTravelled.direction).normalize();
 
-        this.eye = this.eye.add(leastTravelled.direction.normalized().scale(.5d));
+        center.set(leastTravelled.position).add(forward.x, forward.y, forward.z + 1.75);
+        up.set(0, 0, 1);
+        eye.set(leastTravelled.position).addScaled(forward, .5d);
+        eye.z += 1.75;
     }
 
     /**
      * Computes eye, center, and up, based on the auto mode. The above modes are
      * alternated. Changes camera mode randomly every 3 seconds.
      */
-    private void setAutoMode(GlobalState gs, List<Robot> focus) {
+    private void setAutoMode(GlobalState gs, List<Robot> focus, Leaderboard leaderboard) {
         msSinceLastCameraSwitch += System.currentTimeMillis() - timeOfLastMethodCall;
 
         if (msSinceLastCameraSwitch > 3000) {
@@ -190,10 +191,10 @@ class Camera {
                 this.setHelicopterMode(gs, focus);
                 break;
             case 2:
-                this.setMotorCycleMode(gs, focus);
+                this.setMotorCycleMode(gs, focus, leaderboard);
                 break;
             case 3:
-                this.setFirstPersonMode(gs, focus);
+                this.setFirstPersonMode(gs, focus, leaderboard);
                 break;
         }
 
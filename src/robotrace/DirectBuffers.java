@@ -0,0 +1,22 @@
+package robotrace;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Allocates the direct buffers that are handed to OpenGL. They are in native
+ * byte order, so OpenGL can read them without converting the values.
+ */
+class DirectBuffers {
+
+    private DirectBuffers() {
+    }
+
+    /**
+     * Allocates a direct float buffer in native byte order.
+     */
+    static FloatBuffer allocate(int floats) {
+        return ByteBuffer.allocateDirect(floats * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -0,0 +1,427 @@
+package robotrace;
+
+import com.jogamp.opengl.util.gl2.GLUT;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import javax.media.opengl.GL2;
+
+/**
+ * Measures how long each stage of a frame takes on the CPU. Every stage is
+ * surrounded by begin and end, which record the duration with System.nanoTime
+ * into a histogram of that stage. All histograms and buffers are allocated up
+ * front, so measuring a frame and drawing the overlay never allocate.
+ *
+ * Two histograms are kept per stage: one over the whole run, which is written
+ * to a CSV file at the end, and one over the last second, of which the
+ * percentiles are shown in the overlay.
+ *
+ * Render passes are surrounded by beginPass and endPass instead, which also
+ * measure the time the GPU spends on the pass with a GpuTimer, if GPU timing
+ * is enabled. The GPU times are shown and written next to the CPU times.
+ *
+ * If the profiler is not enabled all of this does nothing.
+ */
+class FrameProfiler {
+
+    /**
+     * The stages of a frame. FRAME covers setView and drawScene together,
+     * SCENE the filling of the render queue, the stages after it the render
+     * passes drawn by the queue.
+     */
+    static final int FRAME = 0;
+    static final int CAMERA = 1;
+    static final int PRESENT = 2;
+    static final int SCENE = 3;
+    static final int ROBOTS = 4;
+    static final int STICK_FIGURES = 5;
+    static final int IMPOSTORS = 6;
+    static final int TRACK = 7;
+    static final int TERRAIN = 8;
+    static final int TREES = 9;
+    static final int WATER = 10;
+    static final int STAGES = 11;
+
+    /**
+     * Names of the stages, used in the overlay and the CSV file.
+     */
+    static final String[] STAGE_NAMES = {
+        "frame", "camera", "present", "scene", "robots", "stick figures", "impostors", "track", "terrain",
+        "trees", "water"
+    };
+
+    /**
+     * Percentiles shown in the overlay and written to the CSV file.
+     */
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    /**
+     * Percentiles of the GPU times shown in the overlay.
+     */
+    private static final double[] GPU_PERCENTILES = {50, 99};
+
+    /**
+     * Interval in ns after which the overlay is updated.
+     */
+    private static final long OVERLAY_INTERVAL = 1000000000L;
+
+    /**
+     * Height of a line of overlay text in pixels.
+     */
+    private static final int LINE_HEIGHT = 15;
+
+    /**
+     * Histograms over the whole run.
+     */
+    private final Histogram[] total = new Histogram[STAGES];
+
+    /**
+     * Histograms since the overlay was last updated.
+     */
+    private final Histogram[] recent = new Histogram[STAGES];
+
+    /**
+     * Time at which each stage began.
+     */
+    private final long[] startTimes = new long[STAGES];
+
+    /**
+     * Percentiles in ns shown in the overlay, per stage.
+     */
+    private final long[][] shownPercentiles = new long[STAGES][PERCENTILES.length];
+
+    /**
+     * GPU percentiles in ns shown in the overlay, per stage.
+     */
+    private final long[][] shownGpuPercentiles = new long[STAGES][GPU_PERCENTILES.length];
+
+    /**
+     * Timer of the GPU time of the render passes.
+     */
+    private final GpuTimer gpu = new GpuTimer();
+
+    /**
+     * Whether the GPU time of the render passes is measured.
+     */
+    private final boolean gpuEnabled;
+
+    /**
+     * Time at which the overlay was last updated.
+     */
+    private long lastOverlayUpdate = System.nanoTime();
+
+    /**
+     * Buffer in which a line of overlay text is formatted.
+     */
+    private final char[] line = new char[80];
+
+    /**
+     * Whether stages are measured.
+     */
+    private final boolean enabled;
+
+    /**
+     * Whether the percentiles are drawn on screen.
+     */
+    private final boolean overlay;
+
+    /**
+     * File to which the histograms are written at exit, or null.
+     */
+    private final String csvFile;
+
+    /**
+     * Creates the profiler. If csvFile is not null the statistics of all
+     * stages are written to it when the application exits.
+     */
+    public FrameProfiler(boolean enabled, boolean gpuEnabled, boolean overlay, String csvFile) {
+        for (int i = 0; i < STAGES; i++) {
+            total[i] = new Histogram();
+            recent[i] = new Histogram();
+        }
+
+        this.enabled = enabled;
+        this.gpuEnabled = enabled && gpuEnabled;
+        this.overlay = enabled && overlay;
+        this.csvFile = csvFile;
+
+        if (enabled && csvFile != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    writeCsv();
+                }
+            }, "Frame profiler CSV"));
+        }
+    }
+
+    /**
+     * Creates the GPU timer queries if GPU timing is enabled. Should be called
+     * from initialize.
+     */
+    public void initialize(GL2 gl) {
+        if (gpuEnabled) {
+            gpu.initialize(gl);
+        }
+    }
+
+    /**
+     * Marks the beginning of a stage.
+     */
+    public void begin(int stage) {
+        if (!enabled) {
+            return;
+        }
+        startTimes[stage] = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of a stage and records its duration.
+     */
+    public void end(int stage) {
+        if (!enabled) {
+            return;
+        }
+        long duration = System.nanoTime() - startTimes[stage];
+
+        total[stage].record(duration);
+        recent[stage].record(duration);
+    }
+
+    /**
+     * Marks the beginning of a render pass, both on the CPU and on the GPU.
+     */
+    public void beginPass(GL2 gl, int stage) {
+        begin(stage);
+        if (gpuEnabled) {
+            gpu.begin(gl, stage);
+        }
+    }
+
+    /**
+     * Marks the end of a render pass, both on the CPU and on the GPU.
+     */
+    public void endPass(GL2 gl, int stage) {
+        if (gpuEnabled) {
+            gpu.end(gl, stage);
+        }
+        end(stage);
+    }
+
+    /**
+     * Marks the end of the frame, and reads back the GPU times of an earlier
+     * frame.
+     */
+    public void endFrame(GL2 gl) {
+        end(FRAME);
+        if (gpuEnabled) {
+            gpu.endFrame(gl);
+        }
+    }
+
+    /**
+     * Returns the histogram of the stage over the whole run.
+     */
+    public Histogram getHistogram(int stage) {
+        return total[stage];
+    }
+
+    /**
+     * Draws the percentiles of all stages in the top left corner of the
+     * window, if the overlay is enabled, followed by the number of objects
+     * culled by the frustum in this frame. The percentiles are updated once
+     * per second. Should be called at the end of the frame.
+     */
+    public void drawOverlay(GL2 gl, GLUT glut, int width, int height, Frustum frustum) {
+        if (!overlay) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (now - lastOverlayUpdate >= OVERLAY_INTERVAL) {
+            for (int stage = 0; stage < STAGES; stage++) {
+                for (int p = 0; p < PERCENTILES.length; p++) {
+                    shownPercentiles[stage][p] = recent[stage].getPercentile(PERCENTILES[p]);
+                }
+                recent[stage].reset();
+
+                for (int p = 0; p < GPU_PERCENTILES.length; p++) {
+                    shownGpuPercentiles[stage][p] = gpu.getRecentHistogram(stage).getPercentile(GPU_PERCENTILES[p]);
+                }
+            }
+            gpu.resetRecent();
+            lastOverlayUpdate = now;
+        }
+
+        gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT | GL2.GL_TRANSFORM_BIT);
+        gl.glDisable(GL2.GL_LIGHTING);
+        gl.glDisable(GL2.GL_DEPTH_TEST);
+        gl.glDisable(GL2.GL_TEXTURE_1D);
+        gl.glDisable(GL2.GL_TEXTURE_2D);
+
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glOrtho(0, width, 0, height, -1, 1);
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+
+        gl.glColor3f(0f, 0f, 0f);
+
+        int y = height - LINE_HEIGHT;
+        drawLine(gl, glut, y, gpu.isSupported()
+                ? "stage          p50 ms  p90 ms  p99 ms  GPU p50 GPU p99"
+                : "stage          p50 ms  p90 ms  p99 ms", 0);
+
+        for (int stage = 0; stage < STAGES; stage++) {
+            y -= LINE_HEIGHT;
+
+            int length = append(STAGE_NAMES[stage], 0);
+            while (length < 13) {
+                line[length++] = ' ';
+            }
+
+            for (int p = 0; p < PERCENTILES.length; p++) {
+                length = appendMillis(shownPercentiles[stage][p], length);
+            }
+
+            if (gpu.isSupported() && gpu.getHistogram(stage).getCount() > 0) {
+                line[length++] = ' ';
+                for (int p = 0; p < GPU_PERCENTILES.length; p++) {
+                    length = appendMillis(shownGpuPercentiles[stage][p], length);
+                }
+            }
+
+            drawLine(gl, glut, y, null, length);
+        }
+
+        y -= LINE_HEIGHT;
+        for (int category = 0; category < Frustum.CATEGORIES; category++) {
+            y -= LINE_HEIGHT;
+
+            int length = append("culled ", 0);
+            length = append(Frustum.CATEGORY_NAMES[category], length);
+            while (length < 23) {
+                line[length++] = ' ';
+            }
+            length = appendInt(frustum.getCulled(category), length);
+            length = append(" of ", length);
+            length = appendInt(frustum.getTested(category), length);
+
+            drawLine(gl, glut, y, null, length);
+        }
+
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glPopAttrib();
+    }
+
+    /**
+     * Draws the text, or the first length characters of the line buffer if
+     * the text is null, at the given height.
+     */
+    private void drawLine(GL2 gl, GLUT glut, int y, String text, int length) {
+        gl.glRasterPos2i(5, y);
+
+        if (text != null) {
+            for (int i = 0; i < text.length(); i++) {
+                glut.glutBitmapCharacter(GLUT.BITMAP_8_BY_13, text.charAt(i));
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                glut.glutBitmapCharacter(GLUT.BITMAP_8_BY_13, line[i]);
+            }
+        }
+    }
+
+    /**
+     * Copies the text into the line buffer at the given position and returns
+     * the position after it.
+     */
+    private int append(String text, int position) {
+        for (int i = 0; i < text.length(); i++) {
+            line[position++] = text.charAt(i);
+        }
+        return position;
+    }
+
+    /**
+     * Formats the non-negative number into the line buffer and returns the
+     * position after it.
+     */
+    private int appendInt(int value, int position) {
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            line[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Formats the duration as milliseconds with three decimals, right aligned
+     * in a field of eight characters, into the line buffer.
+     */
+    private int appendMillis(long nanos, int position) {
+        long micros = Math.min(nanos / 1000, 9999999L);
+        int end = position + 8;
+
+        for (int i = end - 1; i >= position; i--) {
+            if (i == end - 4) {
+                line[i] = '.';
+            } else if (micros > 0 || i >= end - 5) {
+                line[i] = (char) ('0' + micros % 10);
+                micros /= 10;
+            } else {
+                line[i] = ' ';
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Writes the count, mean, percentiles and maximum in ms of every stage
+     * over the whole run to the CSV file.
+     */
+    void writeCsv() {
+        try (PrintWriter out = new PrintWriter(new FileWriter(csvFile))) {
+            out.print("stage,count,mean_ms");
+            for (double percentile : PERCENTILES) {
+                out.print(",p" + (int) percentile + "_ms");
+            }
+            out.print(",max_ms,gpu_count,gpu_mean_ms");
+            for (double percentile : PERCENTILES) {
+                out.print(",gpu_p" + (int) percentile + "_ms");
+            }
+            out.println(",gpu_max_ms");
+
+            for (int stage = 0; stage < STAGES; stage++) {
+                out.print(STAGE_NAMES[stage]);
+                printCsvColumns(out, total[stage]);
+                printCsvColumns(out, gpu.getHistogram(stage));
+                out.println();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write " + csvFile + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints the count, mean, percentiles and maximum of the histogram as CSV
+     * columns, each preceded by a comma.
+     */
+    private static void printCsvColumns(PrintWriter out, Histogram histogram) {
+        out.print("," + histogram.getCount() + "," + histogram.getMean() / 1e6);
+        for (double percentile : PERCENTILES) {
+            out.print("," + histogram.getPercentile(percentile) / 1e6);
+        }
+        out.print("," + histogram.getMax() / 1e6);
+    }
+}
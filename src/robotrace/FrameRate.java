@@ -0,0 +1,134 @@
+package robotrace;
+
+import com.jogamp.opengl.util.Animator;
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Frame;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GLAnimatorControl;
+import javax.media.opengl.GLAutoDrawable;
+import javax.swing.SwingUtilities;
+
+/**
+ * Selects how often the scene is drawn. By default Base drives the panel with
+ * an FPSAnimator at Base.FPS frames per second. The FPSAnimator schedules
+ * frames with a period of whole milliseconds, so it can not go beyond 1000
+ * frames per second.
+ *
+ * In the uncapped modes the FPSAnimator of Base is replaced by an Animator
+ * that draws the next frame as soon as the previous one is done. With vsync
+ * the buffer swap waits for the display, so the frame rate adapts to the
+ * refresh rate of the display, without vsync the frame rate is only limited
+ * by the renderer.
+ */
+class FrameRate {
+
+    /**
+     * Highest frame rate the FPSAnimator of Base can run at.
+     */
+    static final int MAX_CAPPED_FPS = 1000;
+
+    private FrameRate() {
+    }
+
+    /**
+     * Sets the frame rate of the animator of Base. Should be called before
+     * Base.run, which creates the animator.
+     */
+    static void configure(LaunchOptions options) {
+        if (options.fps > 0) {
+            Base.FPS = options.fps;
+        }
+    }
+
+    /**
+     * Returns whether the animator of Base should be replaced by an uncapped
+     * animator.
+     */
+    static boolean isUncapped(LaunchOptions options) {
+        return options.fps == 0;
+    }
+
+    /**
+     * Sets the swap interval of the current context: one to wait for the
+     * display in vsync mode, zero otherwise. Only used in the uncapped modes,
+     * the capped mode keeps the default of the platform. Should be called from
+     * initialize.
+     */
+    static void applySwapInterval(GL2 gl, LaunchOptions options) {
+        if (isUncapped(options)) {
+            gl.setSwapInterval(options.vsync ? 1 : 0);
+        }
+    }
+
+    /**
+     * Replaces the FPSAnimator that Base.run started on the OpenGL panel by an
+     * animator that runs as fast as possible, which is stopped when the window
+     * is closed like Base stops the FPSAnimator. Should be called after
+     * Base.run.
+     */
+    static void uncap() {
+        SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                Frame window = null;
+                GLAutoDrawable drawable = null;
+
+                for (Frame frame : Frame.getFrames()) {
+                    drawable = findDrawable(frame);
+
+                    if (drawable != null) {
+                        window = frame;
+                        break;
+                    }
+                }
+
+                if (drawable == null) {
+                    System.err.println("OpenGL panel not found, frame rate stays capped");
+                    return;
+                }
+
+                GLAnimatorControl capped = drawable.getAnimator();
+                if (capped != null) {
+                    capped.stop();
+                    capped.remove(drawable);
+                }
+
+                final Animator animator = new Animator(drawable);
+                animator.setRunAsFastAsPossible(true);
+                animator.setPrintExceptions(true);
+
+                window.addWindowListener(new WindowAdapter() {
+                    @Override
+                    public void windowClosing(WindowEvent e) {
+                        animator.stop();
+                    }
+                });
+
+                animator.start();
+            }
+        });
+    }
+
+    /**
+     * Searches the component and its children for an OpenGL drawable.
+     */
+    private static GLAutoDrawable findDrawable(Component component) {
+        if (component instanceof GLAutoDrawable) {
+            return (GLAutoDrawable) component;
+        }
+
+        if (component instanceof Container) {
+            for (Component child : ((Container) component).getComponents()) {
+                GLAutoDrawable drawable = findDrawable(child);
+
+                if (drawable != null) {
+                    return drawable;
+                }
+            }
+        }
+        return null;
+    }
+}
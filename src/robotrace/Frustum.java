@@ -0,0 +1,168 @@
+package robotrace;
+
+/**
+ * The view frustum of a frame, as six planes in world coordinates, used to
+ * skip objects that are completely outside the view. The planes are
+ * extracted from the product of the projection and modelview matrices, so
+ * they follow whatever setView configured.
+ *
+ * Every test counts the object as visible or culled in its category, the
+ * counts of the current frame are shown in the profiler overlay.
+ */
+class Frustum {
+
+    /**
+     * Categories of culled objects.
+     */
+    static final int ROBOTS = 0;
+    static final int TREES = 1;
+    static final int TERRAIN_TILES = 2;
+    static final int TRACK_SEGMENTS = 3;
+    static final int CATEGORIES = 4;
+
+    /**
+     * Names of the categories, used in the overlay.
+     */
+    static final String[] CATEGORY_NAMES = {"robots", "trees", "terrain tiles", "track segments"};
+
+    /**
+     * Coefficients a, b, c and d of the planes left, right, bottom, top, near
+     * and far, normalized so that a x + b y + c z + d is the signed distance
+     * of a point to the plane, positive inside the frustum.
+     */
+    private final double[] planes = new double[6 * 4];
+
+    /**
+     * Product of the projection and modelview matrices.
+     */
+    private final double[] clip = new double[16];
+
+    /**
+     * Number of objects tested and number of them that were visible, per
+     * category, since the last resetCounts.
+     */
+    private final int[] tested = new int[CATEGORIES];
+    private final int[] visible = new int[CATEGORIES];
+
+    /**
+     * Whether planes have been set. Until then every object is visible.
+     */
+    private boolean valid;
+
+    /**
+     * Sets the frustum from the projection and modelview matrices, both in
+     * the column-major order in which OpenGL returns them.
+     */
+    public void set(float[] projection, float[] modelView) {
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                double sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += projection[k * 4 + row] * modelView[column * 4 + k];
+                }
+                clip[column * 4 + row] = sum;
+            }
+        }
+
+        // Each plane is the last row of the clip matrix plus or minus one of
+        // the other rows.
+        for (int plane = 0; plane < 6; plane++) {
+            int row = plane / 2;
+            double sign = plane % 2 == 0 ? 1 : -1;
+
+            double a = clip[3] + sign * clip[row];
+            double b = clip[7] + sign * clip[4 + row];
+            double c = clip[11] + sign * clip[8 + row];
+            double d = clip[15] + sign * clip[12 + row];
+            double length = Math.sqrt(a * a + b * b + c * c);
+
+            planes[plane * 4] = a / length;
+            planes[plane * 4 + 1] = b / length;
+            planes[plane * 4 + 2] = c / length;
+            planes[plane * 4 + 3] = d / length;
+        }
+
+        valid = true;
+    }
+
+    /**
+     * Returns whether the sphere is at least partly inside the frustum, and
+     * counts it in the category.
+     */
+    public boolean isSphereVisible(int category, double x, double y, double z, double radius) {
+        boolean inside = true;
+
+        if (valid) {
+            for (int plane = 0; plane < 6 && inside; plane++) {
+                int p = plane * 4;
+                inside = planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] > -radius;
+            }
+        }
+
+        return count(category, inside);
+    }
+
+    /**
+     * Returns whether the axis aligned box is at least partly inside the
+     * frustum, and counts it in the category. The box is only culled if its
+     * corner furthest along the normal of some plane is outside that plane,
+     * so a box near a corner of the frustum may be kept although it is not
+     * visible.
+     */
+    public boolean isBoxVisible(int category, double minX, double minY, double minZ,
+            double maxX, double maxY, double maxZ) {
+        boolean inside = true;
+
+        if (valid) {
+            for (int plane = 0; plane < 6 && inside; plane++) {
+                int p = plane * 4;
+                double x = planes[p] >= 0 ? maxX : minX;
+                double y = planes[p + 1] >= 0 ? maxY : minY;
+                double z = planes[p + 2] >= 0 ? maxZ : minZ;
+
+                inside = planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] >= 0;
+            }
+        }
+
+        return count(category, inside);
+    }
+
+    /**
+     * Counts a tested object of the category and returns whether it is
+     * visible.
+     */
+    private boolean count(int category, boolean inside) {
+        tested[category]++;
+        if (inside) {
+            visible[category]++;
+        }
+        return inside;
+    }
+
+    /**
+     * Returns the number of objects of the category tested since the last
+     * resetCounts.
+     */
+    public int getTested(int category) {
+        return tested[category];
+    }
+
+    /**
+     * Returns the number of objects of the category that were culled since
+     * the last resetCounts.
+     */
+    public int getCulled(int category) {
+        return tested[category] - visible[category];
+    }
+
+    /**
+     * Sets the counts of all categories to zero, should be called at the
+     * start of every frame.
+     */
+    public void resetCounts() {
+        for (int i = 0; i < CATEGORIES; i++) {
+            tested[i] = 0;
+            visible[i] = 0;
+        }
+    }
+}
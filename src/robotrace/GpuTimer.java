@@ -0,0 +1,190 @@
+package robotrace;
+
+import javax.media.opengl.GL2;
+
+/**
+ * Measures how long the GPU spends on each render pass with asynchronous
+ * GL_TIME_ELAPSED queries. Waiting for the result of a query right away would
+ * stall the CPU until the GPU has finished the frame, so the queries of a
+ * frame are only read back FRAMES_IN_FLIGHT frames later, when the GPU has
+ * long finished them.
+ *
+ * The passes are identified by the stage numbers of FrameProfiler. Passes
+ * must not overlap, only one time elapsed query can be active at a time.
+ *
+ * Timer queries need GL_EXT_timer_query or GL_ARB_timer_query, without either
+ * the timer does nothing.
+ */
+class GpuTimer {
+
+    /**
+     * Number of frames after which the queries of a frame are read back.
+     */
+    private static final int FRAMES_IN_FLIGHT = 4;
+
+    /**
+     * Value of GL_TIME_ELAPSED, which GL2 only defines as GL_TIME_ELAPSED_EXT.
+     */
+    private static final int GL_TIME_ELAPSED = GL2.GL_TIME_ELAPSED_EXT;
+
+    /**
+     * Histogram of the GPU time of each pass over the whole run.
+     */
+    private final Histogram[] total = new Histogram[FrameProfiler.STAGES];
+
+    /**
+     * Histogram of the GPU time of each pass since resetRecent.
+     */
+    private final Histogram[] recent = new Histogram[FrameProfiler.STAGES];
+
+    /**
+     * Query object of every pass in every frame in flight, indexed by frame
+     * slot times number of stages plus stage.
+     */
+    private final int[] queries = new int[FRAMES_IN_FLIGHT * FrameProfiler.STAGES];
+
+    /**
+     * Whether the query of a pass was issued in the frame of the slot.
+     */
+    private final boolean[] issued = new boolean[FRAMES_IN_FLIGHT * FrameProfiler.STAGES];
+
+    /**
+     * Buffers for reading back query results.
+     */
+    private final int[] available = new int[1];
+    private final long[] elapsed = new long[1];
+
+    /**
+     * Slot of the current frame.
+     */
+    private int slot;
+
+    /**
+     * Whether the queries are supported and created.
+     */
+    private boolean supported;
+
+    /**
+     * Whether the ARB version of the timer query functions is used instead
+     * of the EXT version.
+     */
+    private boolean useArb;
+
+    public GpuTimer() {
+        for (int i = 0; i < FrameProfiler.STAGES; i++) {
+            total[i] = new Histogram();
+            recent[i] = new Histogram();
+        }
+    }
+
+    /**
+     * Creates the query objects if timer queries are supported by the
+     * context. Should be called from initialize.
+     */
+    public void initialize(GL2 gl) {
+        if (supported) {
+            return;
+        }
+
+        if (gl.isExtensionAvailable("GL_EXT_timer_query")) {
+            useArb = false;
+        } else if (gl.isGL3() && gl.isExtensionAvailable("GL_ARB_timer_query")) {
+            useArb = true;
+        } else {
+            System.err.println("Timer queries not supported, GPU timings disabled");
+            return;
+        }
+
+        gl.glGenQueries(queries.length, queries, 0);
+        supported = true;
+    }
+
+    /**
+     * Returns whether the GPU times are measured.
+     */
+    public boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Starts the query of the pass in the current frame.
+     */
+    public void begin(GL2 gl, int stage) {
+        if (supported) {
+            gl.glBeginQuery(GL_TIME_ELAPSED, queries[slot * FrameProfiler.STAGES + stage]);
+        }
+    }
+
+    /**
+     * Ends the query of the pass in the current frame.
+     */
+    public void end(GL2 gl, int stage) {
+        if (supported) {
+            gl.glEndQuery(GL_TIME_ELAPSED);
+            issued[slot * FrameProfiler.STAGES + stage] = true;
+        }
+    }
+
+    /**
+     * Moves on to the next frame. The queries of the oldest frame in flight
+     * are read back into the histograms, after which its slot is reused for
+     * the next frame. Should be called once at the end of every frame.
+     */
+    public void endFrame(GL2 gl) {
+        if (!supported) {
+            return;
+        }
+
+        slot = (slot + 1) % FRAMES_IN_FLIGHT;
+
+        for (int stage = 0; stage < FrameProfiler.STAGES; stage++) {
+            int index = slot * FrameProfiler.STAGES + stage;
+
+            if (!issued[index]) {
+                continue;
+            }
+            issued[index] = false;
+
+            gl.glGetQueryObjectiv(queries[index], GL2.GL_QUERY_RESULT_AVAILABLE, available, 0);
+
+            // Still not done after several frames, skip it rather than stall.
+            if (available[0] == 0) {
+                continue;
+            }
+
+            if (useArb) {
+                gl.getGL3().glGetQueryObjectui64v(queries[index], GL2.GL_QUERY_RESULT, elapsed, 0);
+            } else {
+                gl.glGetQueryObjectui64vEXT(queries[index], GL2.GL_QUERY_RESULT, elapsed, 0);
+            }
+
+            total[stage].record(elapsed[0]);
+            recent[stage].record(elapsed[0]);
+        }
+    }
+
+    /**
+     * Returns the histogram of the GPU time of the pass in ns over the whole
+     * run.
+     */
+    public Histogram getHistogram(int stage) {
+        return total[stage];
+    }
+
+    /**
+     * Returns the histogram of the GPU time of the pass in ns since the last
+     * resetRecent.
+     */
+    public Histogram getRecentHistogram(int stage) {
+        return recent[stage];
+    }
+
+    /**
+     * Removes the values from the recent histograms.
+     */
+    public void resetRecent() {
+        for (Histogram histogram : recent) {
+            histogram.reset();
+        }
+    }
+}
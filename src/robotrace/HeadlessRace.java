@@ -0,0 +1,98 @@
+package robotrace;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the race without a window or an OpenGL context. The simulation is
+ * stepped in the same ticks as in the interactive race, but as fast as the
+ * CPU allows, for a given simulated duration. The standings at the end and
+ * the number of simulated seconds per wall clock second are printed.
+ *
+ * The same seed and number of robots give the same standings as the
+ * interactive race after the same simulated time.
+ *
+ * With --record the race is also recorded, which makes it possible to record
+ * a long race in a fraction of its duration and watch it with --replay.
+ */
+class HeadlessRace {
+
+    /**
+     * Number of leading robots that are printed in the standings.
+     */
+    private static final int STANDINGS_SHOWN = 10;
+
+    private HeadlessRace() {
+    }
+
+    /**
+     * Runs the race with the robots, threads, seed, track and duration of the
+     * options.
+     */
+    static void run(LaunchOptions options) {
+        RaceSimulation simulation = new RaceSimulation(
+                RaceSimulation.spreadOverLanes(options.robotCount, RaceTrack.NUMBER_OF_LANES), options.seed);
+        ForkJoinPool pool = new ForkJoinPool(options.threads);
+        RaceTrack track = RobotRace.createRaceTracks()[options.track];
+
+        long ticks = (long) options.headlessSeconds * 1000 / TickThread.TICK_MS;
+
+        System.out.printf("Simulating %d robots for %d s on track %d with %d threads, seed %d%n",
+                options.robotCount, options.headlessSeconds, options.track, options.threads, options.seed);
+
+        ReplayWriter recorder = null;
+        if (options.recordFile != null) {
+            try {
+                recorder = ReplayWriter.create(options.recordFile, simulation, options.seed);
+                recorder.record(simulation);
+            } catch (IOException e) {
+                System.err.println("Could not record to " + options.recordFile + ": " + e.getMessage());
+            }
+        }
+
+        long start = System.nanoTime();
+        for (long i = 0; i < ticks; i++) {
+            simulation.step(TickThread.TICK_MS, pool);
+            if (recorder != null) {
+                recorder.record(simulation);
+            }
+        }
+        double wallSeconds = (System.nanoTime() - start) / 1e9;
+
+        pool.shutdown();
+
+        if (recorder != null) {
+            recorder.finish();
+            System.out.printf("Recorded %d ticks in %d bytes to %s%n",
+                    recorder.getTicks(), recorder.getBytesWritten(), options.recordFile);
+        }
+
+        printStandings(simulation, track);
+
+        System.out.printf("%d ticks in %.3f s wall time: %.1f ticks/s, %.1f simulated s per wall s%n",
+                ticks, wallSeconds, ticks / wallSeconds, options.headlessSeconds / wallSeconds);
+    }
+
+    /**
+     * Prints the leading robots ordered by the distance they traveled, with
+     * their lane and their position on the track.
+     */
+    private static void printStandings(RaceSimulation simulation, RaceTrack track) {
+        Leaderboard leaderboard = new Leaderboard(simulation.getRobotCount());
+        for (int i = 0; i < leaderboard.size(); i++) {
+            leaderboard.set(i, simulation.getTotalDistanceTravelled(i));
+        }
+        leaderboard.reorder();
+
+        System.out.printf("%6s %8s %6s %10s %28s%n", "rank", "robot", "lane", "laps", "position");
+
+        for (int rank = 0; rank < Math.min(STANDINGS_SHOWN, leaderboard.size()); rank++) {
+            int robot = leaderboard.getRobotAt(rank);
+            Vector position = track.getLanePoint(simulation.getLane(robot), simulation.getPosOnTrack(robot));
+
+            System.out.printf("%6d %8d %6d %10.4f %28s%n", rank + 1, robot, simulation.getLane(robot),
+                    simulation.getTotalDistanceTravelled(robot),
+                    String.format("(%.2f, %.2f, %.2f)", position.x, position.y, position.z));
+        }
+    }
+}
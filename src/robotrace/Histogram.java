@@ -0,0 +1,161 @@
+package robotrace;
+
+/**
+ * Histogram of durations in ns with a fixed set of buckets, allocated once.
+ * Recording a value and querying a percentile never allocate.
+ *
+ * Durations below 1024 ns share the first bucket. Above that every power of
+ * two is divided into SUB_BUCKETS buckets of equal width, so a percentile is
+ * accurate to within 1 / SUB_BUCKETS of its value. Durations of more than
+ * about 8 s share the last bucket.
+ */
+class Histogram {
+
+    /**
+     * Number of buckets each power of two is divided into.
+     */
+    private static final int SUB_BUCKETS = 8;
+
+    /**
+     * Log2 of SUB_BUCKETS.
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /**
+     * Log2 of the smallest duration that does not fall in the first bucket.
+     */
+    private static final int MIN_EXPONENT = 10;
+
+    /**
+     * Log2 of the smallest duration that falls in the last bucket.
+     */
+    private static final int MAX_EXPONENT = 33;
+
+    /**
+     * Total number of buckets.
+     */
+    static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS + 2;
+
+    /**
+     * Number of values in each bucket.
+     */
+    private final long[] counts = new long[BUCKETS];
+
+    /**
+     * Number of recorded values.
+     */
+    private long count;
+
+    /**
+     * Sum of the recorded values.
+     */
+    private long sum;
+
+    /**
+     * Largest recorded value.
+     */
+    private long max;
+
+    /**
+     * Records a duration in ns.
+     */
+    public void record(long nanos) {
+        counts[bucketOf(nanos)]++;
+        count++;
+        sum += nanos;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the mean of the recorded values in ns, 0 if there are none.
+     */
+    public long getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Returns the largest recorded value in ns.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns the value in ns below which the given percentage of the
+     * recorded values lies, as the upper bound of the bucket in which that
+     * percentile falls. Never more than the largest recorded value.
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts[bucket];
+
+            if (seen >= rank) {
+                return Math.min(max, upperBoundOf(bucket));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = 0;
+        }
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /**
+     * Returns the bucket in which the duration falls.
+     */
+    static int bucketOf(long nanos) {
+        if (nanos < (1L << MIN_EXPONENT)) {
+            return 0;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return 1 + (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the smallest duration that no longer falls in the bucket.
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket == 0) {
+            return 1L << MIN_EXPONENT;
+        }
+        if (bucket == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+
+        int exponent = MIN_EXPONENT + (bucket - 1) / SUB_BUCKETS;
+        int subBucket = (bucket - 1) % SUB_BUCKETS;
+
+        return (1L << exponent) + ((subBucket + 1L) << (exponent - SUB_BUCKET_BITS));
+    }
+}
@@ -0,0 +1,47 @@
+package robotrace;
+
+import javax.media.opengl.GL2;
+
+/**
+ * Passes the vertices straight on to OpenGL in immediate mode.
+ */
+class ImmediateSink implements VertexSink {
+
+    /**
+     * The context to which the calls are passed, set by use.
+     */
+    private GL2 gl;
+
+    /**
+     * Sets the context to which the calls are passed and returns this sink.
+     */
+    public ImmediateSink use(GL2 gl) {
+        this.gl = gl;
+        return this;
+    }
+
+    @Override
+    public void begin(int mode) {
+        gl.glBegin(mode);
+    }
+
+    @Override
+    public void normal(double x, double y, double z) {
+        gl.glNormal3d(x, y, z);
+    }
+
+    @Override
+    public void texCoord(double s, double t) {
+        gl.glTexCoord2d(s, t);
+    }
+
+    @Override
+    public void vertex(double x, double y, double z) {
+        gl.glVertex3d(x, y, z);
+    }
+
+    @Override
+    public void end() {
+        gl.glEnd();
+    }
+}
@@ -0,0 +1,379 @@
+package robotrace;
+
+import java.util.Random;
+
+/**
+ * Options with which the robot race is started, parsed from the command line
+ * arguments. Every option is given as "--name value", except for flags which
+ * are given as "--name".
+ *
+ * Supported options:
+ * --robots n: the number of robots in the race, 4 by default.
+ * --threads n: the number of threads used to step the simulation, the number
+ * of available processors by default.
+ * --seed n: the seed of the race, a random seed by default. The same seed
+ * always gives the same race.
+ * --track n: the track on which the race starts, from 0 to 4, 0 by default.
+ * --camera n: the camera mode at the start, from 0 (overview) to 4 (auto), 0
+ * by default.
+ * --benchmark n: draw n frames of the race offscreen, without a window, and
+ * print the frame time percentiles. See RenderBenchmark.
+ * --headless s: simulate the race for s seconds without opening a window, as
+ * fast as possible, then print the standings and the simulation throughput.
+ * --fps n|max|vsync: the frame rate, Base.FPS by default. A number caps the
+ * frame rate at n frames per second, at most 1000. With max frames are drawn
+ * as fast as possible, with vsync as fast as the display refreshes.
+ * --renderer fixed|gl33: the renderer of the terrain and the race track,
+ * fixed by default. With gl33 they are drawn from vertex buffers with GLSL
+ * shaders, if the context supports OpenGL 3.3. See ShaderRenderer.
+ * --record file: record the race to a replay file, see ReplayWriter.
+ * --replay file: play a race recorded with --record back instead of
+ * simulating one. The arrow keys right and left jump 10 s forward and back,
+ * page up and page down 60 s forward and back, home and end to the start and
+ * the end.
+ * --replay-start s: start the replay s seconds into the race, 0 by default.
+ * --telemetry destination: export the state of every robot after every tick,
+ * to "udp:port" or "udp:host:port" as datagrams, or to "file:path". See
+ * TelemetrySink.
+ * --texture-cache dir|off: the directory in which the decoded textures and
+ * their mipmaps are cached, texture-cache by default. With off the textures
+ * are decoded at every start. See TextureCache.
+ * --compress-textures: compress the textures to DXT1 or DXT5 if the driver
+ * supports S3TC.
+ * --standings: show the leading robots, the last robot and their gap to the
+ * leader in the top right corner of the window. See StandingsOverlay.
+ * --profile: measure the time of each stage of a frame.
+ * --overlay: measure the stages and show their percentiles on screen.
+ * --gpu-timers: measure the stages and also the GPU time of the render
+ * passes with timer queries.
+ * --profile-csv file: measure the stages and write their statistics to the
+ * file when the application exits.
+ * --stats: print the frame rate, the number of issued and skipped material
+ * calls and the simulation throughput once per second.
+ */
+class LaunchOptions {
+
+    /**
+     * Number of robots in the race.
+     */
+    int robotCount = 4;
+
+    /**
+     * Number of threads used to step the simulation.
+     */
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Seed from which the random streams of all robots are derived.
+     */
+    long seed = new Random().nextLong();
+
+    /**
+     * Number of the track on which the race starts.
+     */
+    int track;
+
+    /**
+     * Camera mode at the start of the race.
+     */
+    int cameraMode;
+
+    /**
+     * Number of frames drawn by the offscreen render benchmark, 0 to open the
+     * window.
+     */
+    int benchmarkFrames;
+
+    /**
+     * Simulated duration in seconds of a race without a window, 0 to open the
+     * window.
+     */
+    int headlessSeconds;
+
+    /**
+     * Frame rate cap, 0 if the frame rate is not capped.
+     */
+    int fps = Base.FPS;
+
+    /**
+     * Whether an uncapped frame rate waits for the display to refresh.
+     */
+    boolean vsync;
+
+    /**
+     * Whether the terrain and race track are drawn with the OpenGL 3.3
+     * shader renderer instead of the fixed-function pipeline.
+     */
+    boolean shaderRenderer;
+
+    /**
+     * File to which the race is recorded, or null.
+     */
+    String recordFile;
+
+    /**
+     * Replay file that is played back instead of simulating a race, or null.
+     */
+    String replayFile;
+
+    /**
+     * Time in seconds into the race at which the replay starts.
+     */
+    int replayStartSeconds;
+
+    /**
+     * Destination of the telemetry export, or null.
+     */
+    String telemetry;
+
+    /**
+     * Directory in which decoded textures are cached, or null.
+     */
+    String textureCache = "texture-cache";
+
+    /**
+     * Whether the textures are compressed.
+     */
+    boolean compressTextures;
+
+    /**
+     * Whether the standings are shown on screen.
+     */
+    boolean standings;
+
+    /**
+     * Whether the stages of a frame are measured.
+     */
+    boolean profile;
+
+    /**
+     * Whether the GPU time of the render passes is measured.
+     */
+    boolean gpuTimers;
+
+    /**
+     * Whether the frame stage percentiles are shown on screen.
+     */
+    boolean overlay;
+
+    /**
+     * File to which the frame stage statistics are written at exit, or null.
+     */
+    String profileCsv;
+
+    /**
+     * Whether statistics are printed while the race runs.
+     */
+    boolean stats;
+
+    /**
+     * Parses the command line arguments. Throws an IllegalArgumentException
+     * if an option is unknown or its value is invalid.
+     */
+    static LaunchOptions parse(String[] args) {
+        LaunchOptions options = new LaunchOptions();
+
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+
+            switch (option) {
+                case "--robots":
+                    options.robotCount = parsePositiveInt(option, value(args, ++i, option));
+                    break;
+
+                case "--threads":
+                    options.threads = parsePositiveInt(option, value(args, ++i, option));
+                    break;
+
+                case "--seed":
+                    options.seed = parseLong(option, value(args, ++i, option));
+                    break;
+
+                case "--track":
+                    options.track = parseInt(option, value(args, ++i, option));
+                    if (options.track < 0 || options.track > 4) {
+                        throw new IllegalArgumentException("--track should be from 0 to 4");
+                    }
+                    break;
+
+                case "--camera":
+                    options.cameraMode = parseInt(option, value(args, ++i, option));
+                    if (options.cameraMode < 0 || options.cameraMode > 4) {
+                        throw new IllegalArgumentException("--camera should be from 0 to 4");
+                    }
+                    break;
+
+                case "--benchmark":
+                    options.benchmarkFrames = parsePositiveInt(option, value(args, ++i, option));
+                    break;
+
+                case "--headless":
+                    options.headlessSeconds = parsePositiveInt(option, value(args, ++i, option));
+                    break;
+
+                case "--fps":
+                    parseFps(options, value(args, ++i, option));
+                    break;
+
+                case "--renderer":
+                    parseRenderer(options, value(args, ++i, option));
+                    break;
+
+                case "--record":
+                    options.recordFile = value(args, ++i, option);
+                    break;
+
+                case "--replay":
+                    options.replayFile = value(args, ++i, option);
+                    break;
+
+                case "--replay-start":
+                    options.replayStartSeconds = parseInt(option, value(args, ++i, option));
+                    if (options.replayStartSeconds < 0) {
+                        throw new IllegalArgumentException("--replay-start should be at least 0");
+                    }
+                    break;
+
+                case "--telemetry":
+                    options.telemetry = value(args, ++i, option);
+                    break;
+
+                case "--texture-cache":
+                    options.textureCache = value(args, ++i, option);
+                    if (options.textureCache.equals("off")) {
+                        options.textureCache = null;
+                    }
+                    break;
+
+                case "--compress-textures":
+                    options.compressTextures = true;
+                    break;
+
+                case "--standings":
+                    options.standings = true;
+                    break;
+
+                case "--profile":
+                    options.profile = true;
+                    break;
+
+                case "--overlay":
+                    options.profile = true;
+                    options.overlay = true;
+                    break;
+
+                case "--gpu-timers":
+                    options.profile = true;
+                    options.gpuTimers = true;
+                    break;
+
+                case "--profile-csv":
+                    options.profile = true;
+                    options.profileCsv = value(args, ++i, option);
+                    break;
+
+                case "--stats":
+                    options.stats = true;
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+
+        if (options.replayFile != null
+                && (options.recordFile != null || options.telemetry != null || options.headlessSeconds > 0)) {
+            throw new IllegalArgumentException("--replay cannot be combined with --record, --telemetry or --headless");
+        }
+
+        return options;
+    }
+
+    /**
+     * Returns the value of the option at index i, or throws an exception if
+     * the value is missing.
+     */
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + option);
+        }
+        return args[i];
+    }
+
+    /**
+     * Parses the value of the frame rate option.
+     */
+    private static void parseFps(LaunchOptions options, String value) {
+        switch (value) {
+            case "max":
+                options.fps = 0;
+                options.vsync = false;
+                break;
+
+            case "vsync":
+                options.fps = 0;
+                options.vsync = true;
+                break;
+
+            default:
+                options.fps = parsePositiveInt("--fps", value);
+                if (options.fps > FrameRate.MAX_CAPPED_FPS) {
+                    throw new IllegalArgumentException("--fps should be at most "
+                            + FrameRate.MAX_CAPPED_FPS + ", use --fps max for an uncapped frame rate");
+                }
+        }
+    }
+
+    /**
+     * Parses the value of the renderer option.
+     */
+    private static void parseRenderer(LaunchOptions options, String value) {
+        switch (value) {
+            case "fixed":
+                options.shaderRenderer = false;
+                break;
+
+            case "gl33":
+                options.shaderRenderer = true;
+                break;
+
+            default:
+                throw new IllegalArgumentException("--renderer should be fixed or gl33");
+        }
+    }
+
+    /**
+     * Parses the value of an option that should be a long.
+     */
+    private static long parseLong(String option, String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+        }
+    }
+
+    /**
+     * Parses the value of an option that should be an integer.
+     */
+    private static int parseInt(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + option + ": " + value);
+        }
+    }
+
+    /**
+     * Parses the value of an option that should be a positive integer.
+     */
+    private static int parsePositiveInt(String option, String value) {
+        int result = parseInt(option, value);
+
+        if (result < 1) {
+            throw new IllegalArgumentException(option + " should be at least 1");
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,231 @@
+package robotrace;
+
+/**
+ * Ranking of the robots on the total distance they traveled, the robot that
+ * traveled furthest first and robots with equal distances in order of their
+ * index. The distances are set every frame with set, after which reorder
+ * brings the ranking up to date.
+ *
+ * The ranking is kept as an array of robots in order of rank and an array
+ * with the rank of every robot, so the leader, the last robot, the rank of a
+ * robot and the robot just ahead of it are all looked up in constant time.
+ * Between two frames robots only overtake a few others, so reorder repairs
+ * the previous order with an insertion sort, which takes time linear in the
+ * number of robots plus the number of overtakes. When the order changed a
+ * lot, for example after seeking in a replay, the insertion sort gives up
+ * and the robots are merge sorted instead.
+ *
+ * All arrays are allocated up front, so reordering never allocates.
+ */
+class Leaderboard {
+
+    /**
+     * Number of moves per robot after which the insertion sort gives up in
+     * favor of a merge sort.
+     */
+    private static final int MAX_MOVES_PER_ROBOT = 4;
+
+    /**
+     * Total distance traveled of every robot, in laps.
+     */
+    private final double[] distances;
+
+    /**
+     * Robots in order of rank, the leader first.
+     */
+    private final int[] order;
+
+    /**
+     * Rank of every robot, 0 for the leader.
+     */
+    private final int[] ranks;
+
+    /**
+     * Buffer used by the merge sort.
+     */
+    private final int[] scratch;
+
+    /**
+     * Number of robots moved by the insertion sort and number of merge sorts
+     * since the leaderboard was created.
+     */
+    private long moves;
+    private long fullSorts;
+
+    /**
+     * Creates the leaderboard of the given number of robots, ranked in order
+     * of their index until the first reorder.
+     */
+    public Leaderboard(int robotCount) {
+        distances = new double[robotCount];
+        order = new int[robotCount];
+        ranks = new int[robotCount];
+        scratch = new int[robotCount];
+
+        for (int i = 0; i < robotCount; i++) {
+            order[i] = i;
+            ranks[i] = i;
+        }
+    }
+
+    /**
+     * Sets the total distance traveled of the robot. The ranking is only
+     * updated by reorder.
+     */
+    public void set(int robot, double distance) {
+        distances[robot] = distance;
+    }
+
+    /**
+     * Brings the ranking up to date with the distances set since the last
+     * reorder.
+     */
+    public void reorder() {
+        int n = order.length;
+        long budget = (long) MAX_MOVES_PER_ROBOT * n;
+        long moved = 0;
+
+        for (int i = 1; i < n; i++) {
+            int robot = order[i];
+            int j = i;
+
+            while (j > 0 && isAhead(robot, order[j - 1])) {
+                order[j] = order[j - 1];
+                ranks[order[j]] = j;
+                j--;
+            }
+
+            order[j] = robot;
+            ranks[robot] = j;
+            moved += i - j;
+
+            if (moved > budget) {
+                mergeSort();
+                break;
+            }
+        }
+
+        moves += moved;
+    }
+
+    /**
+     * Sorts all robots with a bottom-up merge sort and recomputes their ranks.
+     */
+    private void mergeSort() {
+        int n = order.length;
+        int[] from = order;
+        int[] to = scratch;
+
+        for (int width = 1; width < n; width *= 2) {
+            for (int start = 0; start < n; start += 2 * width) {
+                int middle = Math.min(start + width, n);
+                int end = Math.min(start + 2 * width, n);
+                int a = start;
+                int b = middle;
+
+                for (int k = start; k < end; k++) {
+                    if (a < middle && (b >= end || !isAhead(from[b], from[a]))) {
+                        to[k] = from[a++];
+                    } else {
+                        to[k] = from[b++];
+                    }
+                }
+            }
+
+            int[] swap = from;
+            from = to;
+            to = swap;
+        }
+
+        if (from != order) {
+            System.arraycopy(from, 0, order, 0, n);
+        }
+
+        for (int rank = 0; rank < n; rank++) {
+            ranks[order[rank]] = rank;
+        }
+
+        fullSorts++;
+    }
+
+    /**
+     * Returns whether robot a is ranked before robot b.
+     */
+    private boolean isAhead(int a, int b) {
+        return distances[a] > distances[b] || distances[a] == distances[b] && a < b;
+    }
+
+    /**
+     * Returns the number of robots.
+     */
+    public int size() {
+        return order.length;
+    }
+
+    /**
+     * Returns the robot that traveled furthest.
+     */
+    public int getLeader() {
+        return order[0];
+    }
+
+    /**
+     * Returns the robot that traveled least far.
+     */
+    public int getLast() {
+        return order[order.length - 1];
+    }
+
+    /**
+     * Returns the rank of the robot, 0 for the leader.
+     */
+    public int getRank(int robot) {
+        return ranks[robot];
+    }
+
+    /**
+     * Returns the robot at the given rank, 0 for the leader.
+     */
+    public int getRobotAt(int rank) {
+        return order[rank];
+    }
+
+    /**
+     * Returns the robot ranked just ahead of the given robot, or -1 if it is
+     * the leader.
+     */
+    public int getAhead(int robot) {
+        int rank = ranks[robot];
+        return rank > 0 ? order[rank - 1] : -1;
+    }
+
+    /**
+     * Returns the total distance traveled of the robot, in laps, as last set.
+     */
+    public double getDistance(int robot) {
+        return distances[robot];
+    }
+
+    /**
+     * Returns the distance in laps between the leader and the robot.
+     */
+    public double getGapToLeader(int robot) {
+        return distances[order[0]] - distances[robot];
+    }
+
+    /**
+     * Returns the number of robots moved by the insertion sort since the
+     * leaderboard was created.
+     */
+    public long getMoves() {
+        return moves;
+    }
+
+    /**
+     * Returns the number of times all robots were merge sorted since the
+     * leaderboard was created.
+     */
+    public long getFullSorts() {
+        return fullSorts;
+    }
+}
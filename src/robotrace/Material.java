@@ -1,5 +1,7 @@
 package robotrace;
 
+import java.nio.FloatBuffer;
+
 /**
  * Materials that can be used for the robots.
  */
@@ -49,6 +51,12 @@ public enum Material {
      */
     float shininess;
 
+    /**
+     * The specular RGBA reflectance in a direct buffer, allocated once so it
+     * can be passed to OpenGL without copying.
+     */
+    final FloatBuffer specularBuffer;
+
     /**
      * Constructs a new material with diffuse and specular properties.
      */
@@ -56,5 +64,6 @@ public enum Material {
         this.diffuse = diffuse;
         this.specular = specular;
         this.shininess = shininess;
+        this.specularBuffer = MaterialState.directBuffer(specular);
     }
 }
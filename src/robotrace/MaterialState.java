@@ -0,0 +1,189 @@
+package robotrace;
+
+import java.nio.FloatBuffer;
+import javax.media.opengl.GL;
+import javax.media.opengl.GL2;
+import javax.media.opengl.fixedfunc.GLLightingFunc;
+
+/**
+ * Remembers the color, specular material and 2D texture state that is
+ * currently set in OpenGL, and only passes changes on to OpenGL. Calls that
+ * would set the state to the value it already has are skipped and counted.
+ *
+ * The tracker only knows about state set through it. Whenever other code may
+ * have changed the color, the material or the bound texture, invalidate
+ * should be called so the next calls are passed on again.
+ */
+class MaterialState {
+
+    /**
+     * Specular reflectance used for objects without specular reflection.
+     */
+    static final FloatBuffer NO_SPECULAR = directBuffer(new float[]{0f, 0f, 0f, 1f});
+
+    /**
+     * The current color, only valid if colorKnown is true.
+     */
+    private float red, green, blue;
+
+    /**
+     * Whether the current color is known.
+     */
+    private boolean colorKnown;
+
+    /**
+     * The current specular reflectance and shininess, only valid if
+     * specularKnown is true.
+     */
+    private final float[] specular = new float[4];
+    private float shininess;
+
+    /**
+     * Whether the current specular reflectance and shininess are known.
+     */
+    private boolean specularKnown;
+
+    /**
+     * The currently bound 2D texture, only valid if textureKnown is true.
+     */
+    private int texture;
+
+    /**
+     * Whether the currently bound 2D texture is known.
+     */
+    private boolean textureKnown;
+
+    /**
+     * Number of calls passed on to OpenGL since the last resetCounters.
+     */
+    private long issuedCalls;
+
+    /**
+     * Number of calls skipped since the last resetCounters.
+     */
+    private long skippedCalls;
+
+    /**
+     * Sets the current color, unless it already is this color.
+     */
+    public void color(GL2 gl, float red, float green, float blue) {
+        if (colorKnown && this.red == red && this.green == green && this.blue == blue) {
+            skippedCalls++;
+            return;
+        }
+
+        gl.glColor3f(red, green, blue);
+        issuedCalls++;
+
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+        colorKnown = true;
+    }
+
+    /**
+     * Sets the current color to the first three values of the array.
+     */
+    public void color(GL2 gl, float[] rgb) {
+        color(gl, rgb[0], rgb[1], rgb[2]);
+    }
+
+    /**
+     * Sets the specular reflectance of the front faces to the RGBA values in
+     * the buffer and the shininess of both faces, unless these values are
+     * already set.
+     */
+    public void specular(GL2 gl, FloatBuffer rgba, float shininess) {
+        if (specularKnown && this.shininess == shininess
+                && specular[0] == rgba.get(0) && specular[1] == rgba.get(1)
+                && specular[2] == rgba.get(2) && specular[3] == rgba.get(3)) {
+            skippedCalls += 2;
+            return;
+        }
+
+        gl.glMaterialfv(GL.GL_FRONT, GLLightingFunc.GL_SPECULAR, rgba);
+        gl.glMaterialf(GL.GL_FRONT_AND_BACK, GLLightingFunc.GL_SHININESS, shininess);
+        issuedCalls += 2;
+
+        for (int i = 0; i < 4; i++) {
+            specular[i] = rgba.get(i);
+        }
+        this.shininess = shininess;
+        specularKnown = true;
+    }
+
+    /**
+     * Sets the color, specular reflectance and shininess of the material.
+     */
+    public void material(GL2 gl, Material material) {
+        color(gl, material.diffuse);
+        specular(gl, material.specularBuffer, material.shininess);
+    }
+
+    /**
+     * Sets the specular reflectance and shininess to zero, so that the next
+     * object is drawn without any specular reflection.
+     */
+    public void noSpecular(GL2 gl) {
+        specular(gl, NO_SPECULAR, 0f);
+    }
+
+    /**
+     * Binds the 2D texture, unless it already is bound.
+     */
+    public void texture(GL2 gl, int texture) {
+        if (textureKnown && this.texture == texture) {
+            skippedCalls++;
+            return;
+        }
+
+        gl.glBindTexture(GL.GL_TEXTURE_2D, texture);
+        issuedCalls++;
+
+        this.texture = texture;
+        textureKnown = true;
+    }
+
+    /**
+     * Forgets the current state, so that the next calls are passed on to
+     * OpenGL again.
+     */
+    public void invalidate() {
+        colorKnown = false;
+        specularKnown = false;
+        textureKnown = false;
+    }
+
+    /**
+     * Returns the number of calls passed on to OpenGL since the last reset of
+     * the counters.
+     */
+    public long getIssuedCalls() {
+        return issuedCalls;
+    }
+
+    /**
+     * Returns the number of calls skipped since the last reset of the
+     * counters.
+     */
+    public long getSkippedCalls() {
+        return skippedCalls;
+    }
+
+    /**
+     * Sets both counters to zero.
+     */
+    public void resetCounters() {
+        issuedCalls = 0;
+        skippedCalls = 0;
+    }
+
+    /**
+     * Copies the values into a new direct float buffer in native byte order.
+     */
+    static FloatBuffer directBuffer(float[] values) {
+        FloatBuffer buffer = DirectBuffers.allocate(values.length);
+        buffer.put(values).flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,203 @@
+package robotrace;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A matrix stack on the CPU that mimics the fixed-function matrix stack of
+ * OpenGL. The matrices are stored as column major 4x4 float matrices in one
+ * preallocated array, so none of the operations allocate memory. The current
+ * matrix can be passed to OpenGL directly using getMatrices and getOffset, or
+ * copied into a buffer, for instance to build an instance buffer.
+ *
+ * Unlike the fixed-function stack it can be used without an OpenGL context.
+ */
+class MatrixStack {
+
+    /**
+     * Column major 4x4 matrices, one for each level of the matrix stack.
+     */
+    private final float[] matrices;
+
+    /**
+     * Offset in the matrices array of the current matrix.
+     */
+    private int top;
+
+    /**
+     * Creates a matrix stack that can hold the given number of matrices. The
+     * current matrix is initialized to the identity matrix.
+     */
+    public MatrixStack(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth has to be at least 1");
+        }
+        matrices = new float[depth * 16];
+        loadIdentity();
+    }
+
+    /**
+     * Returns the array in which the matrices are stored. The current matrix
+     * starts at getOffset.
+     */
+    public float[] getMatrices() {
+        return matrices;
+    }
+
+    /**
+     * Returns the offset of the current matrix in getMatrices.
+     */
+    public int getOffset() {
+        return top;
+    }
+
+    /**
+     * Resets the stack to a single identity matrix.
+     */
+    public void loadIdentity() {
+        top = 0;
+
+        for (int i = 0; i < 16; i++) {
+            matrices[i] = (i % 5 == 0) ? 1 : 0;
+        }
+    }
+
+    /**
+     * Pushes a copy of the current matrix on the stack.
+     */
+    public void pushMatrix() {
+        if (top + 16 >= matrices.length) {
+            throw new IllegalStateException("Matrix stack overflow");
+        }
+        System.arraycopy(matrices, top, matrices, top + 16, 16);
+        top += 16;
+    }
+
+    /**
+     * Restores the matrix that was current before the last pushMatrix.
+     */
+    public void popMatrix() {
+        if (top == 0) {
+            throw new IllegalStateException("Matrix stack underflow");
+        }
+        top -= 16;
+    }
+
+    /**
+     * Multiplies the current matrix with a translation matrix.
+     */
+    public void translate(double x, double y, double z) {
+        float[] m = matrices;
+        int o = top;
+
+        m[o + 12] += m[o] * x + m[o + 4] * y + m[o + 8] * z;
+        m[o + 13] += m[o + 1] * x + m[o + 5] * y + m[o + 9] * z;
+        m[o + 14] += m[o + 2] * x + m[o + 6] * y + m[o + 10] * z;
+        m[o + 15] += m[o + 3] * x + m[o + 7] * y + m[o + 11] * z;
+    }
+
+    /**
+     * Multiplies the current matrix with a scaling matrix.
+     */
+    public void scale(double x, double y, double z) {
+        multiply3x3(x, 0, 0,
+                0, y, 0,
+                0, 0, z);
+    }
+
+    /**
+     * Multiplies the current matrix with a rotation of angle degrees around
+     * the axis (x, y, z), the same rotation as glRotated.
+     */
+    public void rotate(double angle, double x, double y, double z) {
+        double length = Math.sqrt(x * x + y * y + z * z);
+        x /= length;
+        y /= length;
+        z /= length;
+
+        double rad = Math.toRadians(angle);
+        double c = Math.cos(rad);
+        double s = Math.sin(rad);
+        double ic = 1 - c;
+
+        multiply3x3(x * x * ic + c, y * x * ic + z * s, x * z * ic - y * s,
+                x * y * ic - z * s, y * y * ic + c, y * z * ic + x * s,
+                x * z * ic + y * s, y * z * ic - x * s, z * z * ic + c);
+    }
+
+    /**
+     * <p>
+     * Multiplies the current matrix with the reference frame of a robot on the
+     * track. The origin of the frame is the position on the track, its y axis
+     * points along the tangent projected onto the XY plane, its z axis points
+     * up and its x axis points to the right of the tangent.</p>
+     *
+     * <p>
+     * This gives the same orientation as a rotation over the z axis by the
+     * heading angle of the tangent, but is computed from the tangent itself
+     * without any trigonometry.</p>
+     */
+    public void multiplyTrackBasis(Vec3 position, Vec3 tangent) {
+        double length = Math.sqrt(tangent.x * tangent.x + tangent.y * tangent.y);
+        double forwardX = 0;
+        double forwardY = 1;
+
+        if (length > 0) {
+            forwardX = tangent.x / length;
+            forwardY = tangent.y / length;
+        }
+
+        translate(position.x, position.y, position.z);
+
+        multiply3x3(forwardY, -forwardX, 0,
+                forwardX, forwardY, 0,
+                0, 0, 1);
+    }
+
+    /**
+     * Transforms the point (x, y, z) with the current matrix and puts the
+     * result in the buffer.
+     */
+    public void transformPoint(double x, double y, double z, FloatBuffer buffer) {
+        float[] m = matrices;
+        int o = top;
+
+        buffer.put((float) (m[o] * x + m[o + 4] * y + m[o + 8] * z + m[o + 12]));
+        buffer.put((float) (m[o + 1] * x + m[o + 5] * y + m[o + 9] * z + m[o + 13]));
+        buffer.put((float) (m[o + 2] * x + m[o + 6] * y + m[o + 10] * z + m[o + 14]));
+    }
+
+    /**
+     * Copies the current matrix into the array starting at the offset.
+     */
+    public void get(float[] destination, int offset) {
+        System.arraycopy(matrices, top, destination, offset, 16);
+    }
+
+    /**
+     * Puts the current matrix in the buffer, in column major order.
+     */
+    public void get(FloatBuffer buffer) {
+        buffer.put(matrices, top, 16);
+    }
+
+    /**
+     * Multiplies the upper left 3x3 part of the current matrix with the column
+     * major 3x3 matrix r.
+     */
+    private void multiply3x3(double r0, double r1, double r2,
+            double r4, double r5, double r6,
+            double r8, double r9, double r10) {
+        float[] m = matrices;
+        int o = top;
+
+        for (int row = 0; row < 4; row++) {
+            double a0 = m[o + row];
+            double a1 = m[o + 4 + row];
+            double a2 = m[o + 8 + row];
+
+            m[o + row] = (float) (a0 * r0 + a1 * r1 + a2 * r2);
+            m[o + 4 + row] = (float) (a0 * r4 + a1 * r5 + a2 * r6);
+            m[o + 8 + row] = (float) (a0 * r8 + a1 * r9 + a2 * r10);
+        }
+    }
+}
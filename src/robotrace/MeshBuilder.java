@@ -0,0 +1,145 @@
+package robotrace;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import javax.media.opengl.GL2;
+
+/**
+ * Collects the vertices given to it as a list of triangle strips, which can
+ * be uploaded as a StaticMesh. Every vertex is stored interleaved as its
+ * position, normal and texture coordinates. The third texture coordinate is
+ * the layer set with setLayer, for meshes drawn with a texture array.
+ *
+ * Only strip primitives are accepted. A quad strip has its vertices in the
+ * same order as a triangle strip covering the same quads, so it is stored as
+ * a triangle strip.
+ */
+class MeshBuilder implements VertexSink {
+
+    /**
+     * Number of floats per vertex: position, normal and texture coordinates.
+     */
+    static final int FLOATS_PER_VERTEX = 9;
+
+    /**
+     * The interleaved vertices.
+     */
+    private FloatBuffer vertices = DirectBuffers.allocate(1024 * FLOATS_PER_VERTEX);
+
+    /**
+     * First vertex and number of vertices of each strip.
+     */
+    private int[] firsts = new int[16];
+    private int[] counts = new int[16];
+
+    /**
+     * Number of strips ended so far.
+     */
+    private int strips;
+
+    /**
+     * First vertex of the current strip, or -1 outside begin and end.
+     */
+    private int stripStart = -1;
+
+    /**
+     * Current normal and texture coordinates, the normal starts as the GL
+     * default (0, 0, 1).
+     */
+    private float nx, ny, nz = 1, s, t;
+
+    /**
+     * Texture array layer of the next vertices.
+     */
+    private float layer;
+
+    /**
+     * Sets the texture array layer of the vertices added from now on, 0 by
+     * default.
+     */
+    public void setLayer(int layer) {
+        this.layer = layer;
+    }
+
+    @Override
+    public void begin(int mode) {
+        if (mode != GL2.GL_TRIANGLE_STRIP && mode != GL2.GL_QUAD_STRIP) {
+            throw new IllegalArgumentException("Only triangle and quad strips can be put in a mesh");
+        }
+        stripStart = getVertexCount();
+    }
+
+    @Override
+    public void normal(double x, double y, double z) {
+        nx = (float) x;
+        ny = (float) y;
+        nz = (float) z;
+    }
+
+    @Override
+    public void texCoord(double s, double t) {
+        this.s = (float) s;
+        this.t = (float) t;
+    }
+
+    @Override
+    public void vertex(double x, double y, double z) {
+        if (vertices.remaining() < FLOATS_PER_VERTEX) {
+            FloatBuffer grown = DirectBuffers.allocate(2 * vertices.capacity());
+            vertices.flip();
+            grown.put(vertices);
+            vertices = grown;
+        }
+
+        vertices.put((float) x).put((float) y).put((float) z)
+                .put(nx).put(ny).put(nz)
+                .put(s).put(t).put(layer);
+    }
+
+    @Override
+    public void end() {
+        int count = getVertexCount() - stripStart;
+
+        // Empty strips draw nothing, leave them out.
+        if (count > 0) {
+            if (strips == firsts.length) {
+                firsts = Arrays.copyOf(firsts, 2 * strips);
+                counts = Arrays.copyOf(counts, 2 * strips);
+            }
+            firsts[strips] = stripStart;
+            counts[strips] = count;
+            strips++;
+        }
+        stripStart = -1;
+    }
+
+    /**
+     * Returns the number of vertices added so far.
+     */
+    public int getVertexCount() {
+        return vertices.position() / FLOATS_PER_VERTEX;
+    }
+
+    /**
+     * Returns the vertices added so far, from position 0 to the limit.
+     */
+    FloatBuffer getVertices() {
+        FloatBuffer result = vertices.duplicate();
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Returns the first vertex of every strip.
+     */
+    int[] getFirsts() {
+        return Arrays.copyOf(firsts, strips);
+    }
+
+    /**
+     * Returns the number of vertices of every strip.
+     */
+    int[] getCounts() {
+        return Arrays.copyOf(counts, strips);
+    }
+}
@@ -0,0 +1,293 @@
+package robotrace;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Holds the simulation state of all robots in the race and advances it. The
+ * state is stored in parallel primitive arrays, one entry per robot, so that
+ * updating the whole race is a single loop over consecutive memory, for any
+ * number of robots.
+ *
+ * Robots read their state from these arrays using their index, the robots
+ * themselves are only used for drawing.
+ *
+ * Every robot draws its random speed changes from its own stream, split from
+ * a single race seed. Robot i always gets the i-th stream split from the
+ * seed, so the same seed gives the same race whatever the number of robots
+ * and whatever the order in which robots are updated. The robots are divided
+ * into chunks of a fixed size that can be stepped in parallel without any
+ * contention on a shared random object.
+ */
+class RaceSimulation {
+
+    /**
+     * Default step for traversing the track. Incrementing the position on the
+     * track with this value for each passed ms results in a robot taking 40 s
+     * to complete one lap on the track.
+     */
+    static final double INITIAL_TRACK_ROUND_STEP = 1d / 40000;
+
+    /**
+     * Speeds the animation up by this constant. With this set to 1 each
+     * animation cycle takes ten seconds.
+     */
+    static final int INITIAL_ANIMATION_MODIFIER = 18;
+
+    /**
+     * The desired ratio between the track step and animation modifier. If the
+     * track step for a robot is increased the animation should also speed up
+     * and vice versa. This constant is used in the calculation of a new
+     * animation modifier when the robot speed is changed.
+     */
+    static final double DESIRED_ANIMATION_RATIO = INITIAL_TRACK_ROUND_STEP / INITIAL_ANIMATION_MODIFIER;
+
+    /**
+     * Number of robots in one chunk, the unit of work of a parallel step.
+     */
+    static final int CHUNK_SIZE = 4096;
+
+    /**
+     * Number of robots in the race.
+     */
+    private final int robotCount;
+
+    /**
+     * Number of chunks the robots are divided into.
+     */
+    private final int chunkCount;
+
+    /**
+     * Lane of each robot, from 1 to the number of lanes of the track.
+     */
+    private final int[] lane;
+
+    /**
+     * Current position of each robot on the track, a value from 0 to 1.
+     */
+    private final double[] posOnTrack;
+
+    /**
+     * Current value of the tAnim variable of each robot. Goes from 0 to 10.
+     */
+    private final double[] tAnim;
+
+    /**
+     * Current value of the track step variable of each robot. Initialized to
+     * the default, and updated if a new random speed for the robot is selected.
+     */
+    private final double[] trackRoundStep;
+
+    /**
+     * Modifier with which the animation of each robot is sped up. If the track
+     * step is updated this value is also updated, based on the desired ratio.
+     */
+    private final double[] tAnimModifier;
+
+    /**
+     * Ms left until the speed of each robot should be updated again.
+     */
+    private final long[] msUntilNextRandomValueUpdate;
+
+    /**
+     * Total distance each robot has traveled around the track.
+     */
+    private final double[] totalDistanceTravelled;
+
+    /**
+     * Random stream of each robot, used to determine random speeds and random
+     * times until the speed should change again.
+     */
+    private final SplittableRandom[] random;
+
+    /**
+     * Creates a simulation with one robot for every entry in lanes, the value
+     * of the entry is the lane of that robot. The random streams of the robots
+     * are split from the race seed.
+     */
+    public RaceSimulation(int[] lanes, long seed) {
+        this.robotCount = lanes.length;
+        this.chunkCount = (robotCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.lane = lanes.clone();
+
+        SplittableRandom raceRandom = new SplittableRandom(seed);
+
+        random = new SplittableRandom[robotCount];
+        for (int i = 0; i < robotCount; i++) {
+            random[i] = raceRandom.split();
+        }
+
+        posOnTrack = new double[robotCount];
+        tAnim = new double[robotCount];
+        trackRoundStep = new double[robotCount];
+        tAnimModifier = new double[robotCount];
+        msUntilNextRandomValueUpdate = new long[robotCount];
+        totalDistanceTravelled = new double[robotCount];
+
+        for (int i = 0; i < robotCount; i++) {
+            trackRoundStep[i] = INITIAL_TRACK_ROUND_STEP;
+            tAnimModifier[i] = INITIAL_ANIMATION_MODIFIER;
+            msUntilNextRandomValueUpdate[i] = random[i].nextInt(5000) + 3000;
+        }
+    }
+
+    /**
+     * Returns a lane layout for the given number of robots, in which the robots
+     * are spread evenly over the lanes. Robot i is placed in lane
+     * (i mod laneCount) + 1.
+     */
+    public static int[] spreadOverLanes(int robotCount, int laneCount) {
+        int[] lanes = new int[robotCount];
+
+        for (int i = 0; i < robotCount; i++) {
+            lanes[i] = (i % laneCount) + 1;
+        }
+
+        return lanes;
+    }
+
+    /**
+     * Advances all robots by the elapsed time on the calling thread.
+     */
+    public void step(int msElapsed) {
+        for (int c = 0; c < chunkCount; c++) {
+            stepChunk(c, msElapsed);
+        }
+    }
+
+    /**
+     * Advances all robots by the elapsed time, dividing the chunks over the
+     * threads of the pool. The results are the same as those of step without
+     * a pool, whatever the number of threads.
+     */
+    public void step(int msElapsed, ForkJoinPool pool) {
+        if (chunkCount < 2 || pool.getParallelism() < 2) {
+            step(msElapsed);
+        } else {
+            pool.invoke(new StepTask(0, chunkCount, msElapsed));
+        }
+    }
+
+    /**
+     * Advances the robots of one chunk by the elapsed time. For each robot the
+     * position on the track and the animation value are advanced, after which
+     * it is determined whether the robot should get a new random speed.
+     */
+    private void stepChunk(int chunk, int msElapsed) {
+        double seconds = msElapsed / 1000d;
+
+        int end = Math.min(robotCount, (chunk + 1) * CHUNK_SIZE);
+
+        for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+            double trackStep = trackRoundStep[i] * msElapsed;
+
+            double pos = posOnTrack[i] + trackStep;
+            while (pos > 1) {
+                pos -= 1;
+            }
+            posOnTrack[i] = pos;
+            totalDistanceTravelled[i] += trackStep;
+
+            double anim = tAnim[i] + seconds * tAnimModifier[i];
+            while (anim >= 10) {
+                anim -= 10;
+            }
+            tAnim[i] = anim;
+
+            msUntilNextRandomValueUpdate[i] -= msElapsed;
+
+            if (msUntilNextRandomValueUpdate[i] < 0) {
+                int trackRoundInMs = 32500 + random[i].nextInt(15000);
+                trackRoundStep[i] = 1d / trackRoundInMs;
+                tAnimModifier[i] = (1d / trackRoundInMs) / DESIRED_ANIMATION_RATIO;
+
+                msUntilNextRandomValueUpdate[i] = random[i].nextInt(5000) + 3000;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of robots in the race.
+     */
+    public int getRobotCount() {
+        return robotCount;
+    }
+
+    /**
+     * Returns the lane of the robot.
+     */
+    public int getLane(int robot) {
+        return lane[robot];
+    }
+
+    /**
+     * Returns the position of the robot on the track, between 0 and 1.
+     */
+    public double getPosOnTrack(int robot) {
+        return posOnTrack[robot];
+    }
+
+    /**
+     * Returns the animation value of the robot, between 0 and 10.
+     */
+    public double getTAnim(int robot) {
+        return tAnim[robot];
+    }
+
+    /**
+     * Returns the total distance the robot has traveled since the start of the
+     * race, in laps.
+     */
+    public double getTotalDistanceTravelled(int robot) {
+        return totalDistanceTravelled[robot];
+    }
+
+    /**
+     * Returns the current track step of the robot, the fraction of a lap it
+     * travels per ms.
+     */
+    public double getTrackRoundStep(int robot) {
+        return trackRoundStep[robot];
+    }
+
+    /**
+     * Steps a range of chunks, splitting the range in two halves until a
+     * single chunk is left.
+     */
+    private final class StepTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * First chunk of the range.
+         */
+        private final int from;
+
+        /**
+         * Chunk after the last chunk of the range.
+         */
+        private final int to;
+
+        /**
+         * Time in ms by which the robots are advanced.
+         */
+        private final int msElapsed;
+
+        StepTask(int from, int to, int msElapsed) {
+            this.from = from;
+            this.to = to;
+            this.msElapsed = msElapsed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                stepChunk(from, msElapsed);
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new StepTask(from, middle, msElapsed), new StepTask(middle, to, msElapsed));
+            }
+        }
+    }
+}
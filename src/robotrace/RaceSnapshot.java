@@ -0,0 +1,227 @@
+package robotrace;
+
+/**
+ * State of all robots after a simulation tick, together with the state after
+ * the tick before it. The renderer interpolates between the two, so robots
+ * move smoothly whatever the ratio between the tick rate and the frame rate.
+ *
+ * Snapshots are allocated once per race and then reused: every snapshot owns
+ * the arrays of its current state, and its previous state is the current
+ * state of the snapshot that it follows, so every tick only copies the state
+ * once and never allocates. The tick thread rotates a fixed pool of snapshots
+ * and only overwrites a snapshot that nobody can still read, so a published
+ * snapshot does not change while it is being read.
+ */
+class RaceSnapshot {
+
+    /**
+     * Number of the tick after which the snapshot was taken, 0 for the state
+     * at the start of the race.
+     */
+    private long tick;
+
+    /**
+     * Value of System.nanoTime when the snapshot was taken.
+     */
+    private long publishTime;
+
+    /**
+     * Lane of each robot, shared by all snapshots of a race.
+     */
+    private final int[] lane;
+
+    /**
+     * Snapshot whose current state is the previous state of this snapshot, or
+     * this snapshot itself if both states are equal.
+     */
+    private RaceSnapshot previous = this;
+
+    /**
+     * Position on the track, animation value and distance traveled of each
+     * robot after this tick.
+     */
+    private final double[] posOnTrack;
+    private final double[] tAnim;
+    private final double[] distance;
+
+    /**
+     * Creates an empty snapshot of robots in the given lanes, which may be
+     * shared with other snapshots of the same race.
+     */
+    RaceSnapshot(int[] lane) {
+        this.lane = lane;
+        this.posOnTrack = new double[lane.length];
+        this.tAnim = new double[lane.length];
+        this.distance = new double[lane.length];
+    }
+
+    /**
+     * Returns the lane of every robot in the simulation.
+     */
+    static int[] lanesOf(RaceSimulation simulation) {
+        int[] lane = new int[simulation.getRobotCount()];
+        for (int i = 0; i < lane.length; i++) {
+            lane[i] = simulation.getLane(i);
+        }
+        return lane;
+    }
+
+    /**
+     * Returns the lane of every robot in the replay.
+     */
+    static int[] lanesOf(ReplayReader replay) {
+        int[] lane = new int[replay.getRobotCount()];
+        for (int i = 0; i < lane.length; i++) {
+            lane[i] = replay.getLane(i);
+        }
+        return lane;
+    }
+
+    /**
+     * Takes a new snapshot of the start of the race, in which the previous
+     * and the current state are equal.
+     */
+    static RaceSnapshot initial(RaceSimulation simulation) {
+        return new RaceSnapshot(lanesOf(simulation)).start(simulation);
+    }
+
+    /**
+     * Overwrites this snapshot with the state of the simulation at the start
+     * of the race, in which the previous and the current state are equal.
+     */
+    RaceSnapshot start(RaceSimulation simulation) {
+        copy(simulation);
+        return take(0, this);
+    }
+
+    /**
+     * Overwrites this snapshot with the state of the simulation after the
+     * tick that followed the given snapshot, which should be another one.
+     */
+    RaceSnapshot follow(RaceSnapshot previous, RaceSimulation simulation) {
+        copy(simulation);
+        return take(previous.tick + 1, previous);
+    }
+
+    /**
+     * Overwrites this snapshot with the current tick of a replay, in which
+     * the previous and the current state are equal so that the robots jump to
+     * their positions after a seek.
+     */
+    RaceSnapshot start(ReplayReader replay) {
+        copy(replay);
+        return take(replay.getTick(), this);
+    }
+
+    /**
+     * Overwrites this snapshot with the current tick of a replay, which should
+     * be the tick that followed the given snapshot, which should be another
+     * one.
+     */
+    RaceSnapshot follow(RaceSnapshot previous, ReplayReader replay) {
+        copy(replay);
+        return take(replay.getTick(), previous);
+    }
+
+    private RaceSnapshot take(long tick, RaceSnapshot previous) {
+        this.tick = tick;
+        this.publishTime = System.nanoTime();
+        this.previous = previous;
+        return this;
+    }
+
+    /**
+     * Returns whether reading this snapshot reads the arrays of the given
+     * snapshot, so that it may not be overwritten while this one is read.
+     */
+    boolean uses(RaceSnapshot snapshot) {
+        return snapshot == this || snapshot == previous;
+    }
+
+    /**
+     * Returns the number of the tick after which the snapshot was taken.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns the interpolation factor between the previous and the current
+     * state at the given System.nanoTime value. The factor goes from 0 when
+     * the snapshot is published to 1 one tick later, after which it stays 1
+     * until the next snapshot is published.
+     */
+    public double alphaAt(long nanoTime, long tickNanos) {
+        double alpha = (double) (nanoTime - publishTime) / tickNanos;
+        return Math.max(0, Math.min(1, alpha));
+    }
+
+    /**
+     * Returns the number of robots in the snapshot.
+     */
+    public int getRobotCount() {
+        return lane.length;
+    }
+
+    /**
+     * Returns the lane of the robot.
+     */
+    public int getLane(int robot) {
+        return lane[robot];
+    }
+
+    /**
+     * Returns the position of the robot on the track, interpolated between the
+     * previous and the current state. Wraps around at the finish.
+     */
+    public double getPosOnTrack(int robot, double alpha) {
+        return interpolateWrapped(previous.posOnTrack[robot], posOnTrack[robot], 1, alpha);
+    }
+
+    /**
+     * Returns the animation value of the robot, interpolated between the
+     * previous and the current state. Wraps around at the end of the cycle.
+     */
+    public double getTAnim(int robot, double alpha) {
+        return interpolateWrapped(previous.tAnim[robot], tAnim[robot], 10, alpha);
+    }
+
+    /**
+     * Returns the total distance traveled by the robot, interpolated between
+     * the previous and the current state.
+     */
+    public double getTotalDistanceTravelled(int robot, double alpha) {
+        double from = previous.distance[robot];
+        return from + alpha * (distance[robot] - from);
+    }
+
+    /**
+     * Interpolates between two values of a quantity that wraps around at
+     * period. A value that went down is assumed to have wrapped around once.
+     */
+    private static double interpolateWrapped(double from, double to, double period, double alpha) {
+        if (to < from) {
+            to += period;
+        }
+
+        double value = from + alpha * (to - from);
+
+        return value >= period ? value - period : value;
+    }
+
+    private void copy(RaceSimulation simulation) {
+        for (int i = 0; i < lane.length; i++) {
+            posOnTrack[i] = simulation.getPosOnTrack(i);
+            tAnim[i] = simulation.getTAnim(i);
+            distance[i] = simulation.getTotalDistanceTravelled(i);
+        }
+    }
+
+    private void copy(ReplayReader replay) {
+        for (int i = 0; i < lane.length; i++) {
+            posOnTrack[i] = replay.getPosOnTrack(i);
+            tAnim[i] = replay.getTAnim(i);
+            distance[i] = replay.getTotalDistanceTravelled(i);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package robotrace;
 
 import com.jogamp.opengl.util.gl2.GLUT;
 import com.jogamp.opengl.util.texture.Texture;
+import java.util.Arrays;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import javax.media.opengl.glu.GLU;
@@ -12,7 +13,13 @@ import javax.media.opengl.glu.GLU;
 public class RaceTrack {
 
     /**
-     * The width of one lane. The total width of the track is 4 * laneWidth.
+     * The number of lanes of the track.
+     */
+    public final static int NUMBER_OF_LANES = 4;
+
+    /**
+     * The width of one lane. The total width of the track is NUMBER_OF_LANES *
+     * laneWidth.
      */
     private final static double LANE_WIDTH = 1.22d;
 
@@ -31,15 +38,56 @@ public class RaceTrack {
      */
     private final static int HORIZONTAL_SUBDIVISIONS_PER_BRICK_TEXTURE = 1;
 
+    /**
+     * The track is divided in SEGMENTS segments of SUBDIVISIONS_PER_SEGMENT
+     * subdivisions, which are culled separately.
+     */
+    final static int SEGMENTS = 12;
+    private final static int SUBDIVISIONS_PER_SEGMENT = NUMBER_OF_TRACK_SUBDIVISIONS / SEGMENTS;
+
+    /**
+     * How far the sides of the track reach below its top.
+     */
+    private final static double SIDE_HEIGHT = 2;
+
     /**
      * Array with 3N control points, where N is the number of segments.
      */
     private Vector[] controlPoints = null;
 
+    /**
+     * The control points as consecutive x, y and z, from which the track is
+     * evaluated, or null for the test track.
+     */
+    private double[] controlCoordinates;
+
+    /**
+     * Point and perpendicular reused while generating the geometry.
+     */
+    private final Vec3 node = new Vec3();
+    private final Vec3 perpendicular = new Vec3();
+
+    /**
+     * Bounding box of every segment, computed on the first cullSegments.
+     */
+    private double[] segmentBounds;
+
+    /**
+     * Whether each segment was inside the frustum at the last cullSegments.
+     * All segments are visible until the first cullSegments.
+     */
+    private final boolean[] visibleSegments = new boolean[SEGMENTS];
+
+    /**
+     * Sink through which the track is drawn in immediate mode.
+     */
+    private final ImmediateSink immediate = new ImmediateSink();
+
     /**
      * Constructor for the default track.
      */
     public RaceTrack() {
+        Arrays.fill(visibleSegments, true);
     }
 
     /**
@@ -50,6 +98,7 @@ public class RaceTrack {
      */
     public RaceTrack(Vector[] controlPoints) {
         this.controlPoints = controlPoints;
+        Arrays.fill(visibleSegments, true);
 
         if ((controlPoints.length - 1) % 3 != 0 && controlPoints.length != 0) {
             throw new IllegalArgumentException("Invalid amount of control points");
@@ -58,6 +107,8 @@ public class RaceTrack {
                 controlPoints[0].z != controlPoints[controlPoints.length - 1].z) {
             throw new IllegalArgumentException("Last control point should be equal to the first control point");
         }
+
+        controlCoordinates = VecMath.flatten(controlPoints);
     }
 
     /**
@@ -69,306 +120,363 @@ public class RaceTrack {
 
     /**
      * Returns the center of a lane at 0 <= t < 1. Use this method to find the
-     * position of a robot on the track.>
+     * position of a robot on the track.
      *
-     *Based on the fact that vector perpendicular to the current pont on the
+     * Allocates the result, code that runs every frame should use the
+     * variant that takes a Vec3.
+     */
+    public Vector getLanePoint(int lane, double t) {
+        return getLanePoint(lane, t, new Vec3()).toVector();
+    }
+
+    /**
+     * Sets out to the center of a lane at 0 <= t < 1 and returns it.
+     *
+     * Based on the fact that vector perpendicular to the current point on the
      * track can be obtained by taking the cross product of the tangent at t
-     * and the vector (0, 0, 1).
-     * 
-     * Then this is perpendicular is normalized and is scaled so that it represents
-     * the distance between the center point and point on the line. Then this
-     * vector is added to the centerPoint vector. Returning a point on the lane. 
+     * and the vector (0, 0, 1), which is (tangent.y, -tangent.x, 0).
+     *
+     * Then this perpendicular is normalized and is scaled so that it
+     * represents the distance between the center point and point on the line.
+     * Then this vector is added to the center point. Returning a point on the
+     * lane.
      */
-    public Vector getLanePoint(int lane, double t) {        
-        if (t < 0 || t > 1) {
-            throw new IllegalArgumentException("T has to be >= 0 and <= 1");
-        }
-        
-        Vector point = getPoint(t);
-        Vector tangent = getTangent(t);
+    Vec3 getLanePoint(int lane, double t, Vec3 out) {
+        checkT(t);
 
-        Vector perpendicular = tangent.cross(Vector.Z).normalized();
+        getTangent(t, out);
+        double perpendicularX = out.y;
+        double perpendicularY = -out.x;
+        double offset = (-2.5 * LANE_WIDTH + lane * LANE_WIDTH)
+                / Math.sqrt(perpendicularX * perpendicularX + perpendicularY * perpendicularY);
 
-        return point.add(perpendicular.scale(-2.5 * LANE_WIDTH + lane * LANE_WIDTH));
+        return getPoint(t, out).add(perpendicularX * offset, perpendicularY * offset, 0);
     }
 
     /**
      * Returns the tangent of a lane at 0 <= t < 1. Use this method to find the
      * orientation of a robot on the track.
+     *
+     * Allocates the result, code that runs every frame should use the
+     * variant that takes a Vec3.
+     */
+    public Vector getLaneTangent(int lane, double t) {
+        return getLaneTangent(lane, t, new Vec3()).toVector();
+    }
+
+    /**
+     * Sets out to the tangent of a lane at 0 <= t < 1 and returns it.
+     */
+    Vec3 getLaneTangent(int lane, double t, Vec3 out) {
+        checkT(t);
+        return getTangent(t, out);
+    }
+
+    /**
+     * Throws an exception if t is outside the track.
      */
-    public Vector getLaneTangent(int lane, double t) {        
+    private static void checkT(double t) {
         if (t < 0 || t > 1) {
             throw new IllegalArgumentException("T has to be >= 0 and <= 1");
         }
-        return getTangent(t);
     }
 
     /**
-     * Returns a point on the track, if there are no control points it takes 
-     * a point from the test track. Otherwise it takes a point based on the 
-     * control points. 
+     * Sets out to a point on the track, if there are no control points it
+     * takes a point from the test track. Otherwise it takes a point based on
+     * the control points.
      * @param t can be any value from 0 to 1.
-     * @return 
      */
-    private Vector getPoint(double t) {
-        if (controlPoints != null) {
-            return getCubicBezierPoint(t);
+    private Vec3 getPoint(double t, Vec3 out) {
+        if (controlCoordinates != null) {
+            int segment = bezierSegment(t);
+            return VecMath.cubicBezier(controlCoordinates, segment * 3, bezierT(t, segment), out);
         } else {
-            return getTestPoint(t);
+            return getTestPoint(t, out);
         }
     }
 
     /**
-     * Returns a tangent for a point on the track. If the controlpoints array is 
-     * null a tangent point from the test track is taken, otherwise a tangent
-     * to the control points is used.
+     * Sets out to a tangent for a point on the track. If there are no control
+     * points a tangent of the test track is taken, otherwise a tangent to the
+     * control points is used.
      * @param t Any value from 0 to 1
-     * @return 
      */
-    private Vector getTangent(double t) {
-        if (controlPoints != null) {
-            return getCubicBezierTangent(t);
+    private Vec3 getTangent(double t, Vec3 out) {
+        if (controlCoordinates != null) {
+            int segment = bezierSegment(t);
+            return VecMath.cubicBezierTangent(controlCoordinates, segment * 3, bezierT(t, segment), out);
         } else {
-            return getTestTangent(t);
+            return getTestTangent(t, out);
         }
     }
 
     /**
-     * Returns a point on the test track at 0 <= t < 1.
+     * Sets out to a point on the test track at 0 <= t < 1.
      */
-    private Vector getTestPoint(double t) {
-        return new Vector(10 * Math.cos(2 * Math.PI * t), 14 * Math.sin(2 * Math.PI * t), 1);
+    private static Vec3 getTestPoint(double t, Vec3 out) {
+        return out.set(10 * Math.cos(2 * Math.PI * t), 14 * Math.sin(2 * Math.PI * t), 1);
     }
 
     /**
-     * Returns a point on the track defined by the control points. Because a 
-     * track defined by control points can consist out of several segments t is
-     * modified to return the correct point on the correct segment. 
-     * 
-     * For instance, if t is .5 and there are two segments then the new value of
-     * t will be 1, and the method will return the value at t is 1 for the first
-     * segment of the track.
-     * @param t A value from 0 to 1
-     * @return 
+     * Sets out to a tangent on the test track at 0 <= t < 1.
      */
-    private Vector getCubicBezierPoint(double t) {
+    private static Vec3 getTestTangent(double t, Vec3 out) {
+        return out.set(-20 * Math.PI * Math.sin(2 * Math.PI * t), 28 * Math.PI * Math.cos(2 * Math.PI * t), 0);
+    }
+
+    /**
+     * Returns the Bezier segment of the track on which t lies. Because a
+     * track defined by control points can consist out of several segments t
+     * is mapped to a segment and a value of t on that segment, see bezierT.
+     */
+    private int bezierSegment(double t) {
         int segments = (controlPoints.length - 1) / 3;
-        int currSegment = 0;
 
-        double segLength = 1d / segments;
+        if (t == 1) {
+            return segments - 1;
+        }
 
-        double newT;
+        double segLength = 1d / segments;
 
-        if (t == 1) {
-            currSegment = segments - 1;
-            newT = 1;
-        } else {
-            for (int i = 0; i < segments; i++) {
-                if (t - segLength * (i + 1) < 0) {
-                    currSegment = i;
-                    break;
-                }
+        for (int i = 0; i < segments; i++) {
+            if (t - segLength * (i + 1) < 0) {
+                return i;
             }
+        }
+        return 0;
+    }
 
-            newT = ((t - (segLength * currSegment)) % segLength) * segments;
+    /**
+     * Returns the value of t on the given segment. For instance, if t is .5
+     * and there are two segments then the value on the first segment is 1.
+     */
+    private double bezierT(double t, int segment) {
+        if (t == 1) {
+            return 1;
         }
 
-        return getCubicBezierPoint(newT, controlPoints[currSegment * 3],
-                controlPoints[currSegment * 3 + 1],
-                controlPoints[currSegment * 3 + 2],
-                controlPoints[currSegment * 3 + 3]);
+        int segments = (controlPoints.length - 1) / 3;
+        double segLength = 1d / segments;
+
+        return ((t - (segLength * segment)) % segLength) * segments;
     }
 
     /**
-     * Returns a point on a bezier segment with control points P0, P1, P2, P3 at
-     * 0 <= t < 1.
+     * Tests every segment of the track against the frustum and returns the
+     * number of visible segments. Only those are drawn until the next call.
      */
-    private Vector getCubicBezierPoint(double t, Vector P0, Vector P1,
-            Vector P2, Vector P3) {
+    public int cullSegments(Frustum frustum) {
+        if (segmentBounds == null) {
+            segmentBounds = computeSegmentBounds();
+        }
 
-        Vector wP0, wP1, wP2, wP3;
+        int visible = 0;
 
-        wP0 = P0.scale(Math.pow(1d - t, 3));
-        wP1 = P1.scale(3d * Math.pow(1d - t, 2) * t);
-        wP2 = P2.scale(3d * (1d - t) * Math.pow(t, 2));
-        wP3 = P3.scale(Math.pow(t, 3));
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            int b = segment * 6;
+            visibleSegments[segment] = frustum.isBoxVisible(Frustum.TRACK_SEGMENTS,
+                    segmentBounds[b], segmentBounds[b + 1], segmentBounds[b + 2],
+                    segmentBounds[b + 3], segmentBounds[b + 4], segmentBounds[b + 5]);
 
-        return wP0.add(wP1).add(wP2).add(wP3);
+            if (visibleSegments[segment]) {
+                visible++;
+            }
+        }
+        return visible;
     }
 
     /**
-     * Returns a tangent on the test track at 0 <= t < 1.
+     * Returns whether the segment was inside the frustum at the last
+     * cullSegments.
      */
-    private Vector getTestTangent(double t) {
-        if (t < 0 || t > 1) {
-            throw new IllegalArgumentException("T has to be >= 0 and <= 1");
-        }
-        return new Vector(-20 * Math.PI * Math.sin(2 * Math.PI * t), 28 * Math.PI * Math.cos(2 * Math.PI * t), 0);
+    public boolean isSegmentVisible(int segment) {
+        return visibleSegments[segment];
     }
 
     /**
-     * Returns a vector tangent to the track at the specified t value. Just as 
-     * with the getCubicBezierPoint function the value of t is modified to deal
-     * with the fact that a track can consist out of several segments.
-     * @param t A value from 0 to 1
+     * Computes the axis aligned bounding box of every segment from the
+     * corners of its top and sides, as minimum x, y, z and maximum x, y, z.
      */
-    private Vector getCubicBezierTangent(double t) {
-        int segments = (controlPoints.length - 1) / 3;
-        int currSegment = 0;
+    private double[] computeSegmentBounds() {
+        double[] bounds = new double[SEGMENTS * 6];
+        double step = 1d / NUMBER_OF_TRACK_SUBDIVISIONS;
 
-        double segLength = 1d / segments;
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            int b = segment * 6;
+            Arrays.fill(bounds, b, b + 3, Double.POSITIVE_INFINITY);
+            Arrays.fill(bounds, b + 3, b + 6, Double.NEGATIVE_INFINITY);
 
-        double newT;
+            for (int i = firstSubdivision(segment); i <= lastSubdivision(segment); i++) {
+                double position = step * i;
+                getPoint(position, node);
+                getPerpendicular(position, perpendicular);
 
-        if (t == 1) {
-            newT = 1;
-            currSegment = segments - 1;
-        } else {
-            for (int i = 0; i < segments; i++) {
-                if (t - segLength * (i + 1) < 0) {
-                    currSegment = i;
-                    break;
-                }
+                include(bounds, b, node, perpendicular, 2 * LANE_WIDTH, SIDE_HEIGHT);
+                include(bounds, b, node, perpendicular, -2 * LANE_WIDTH, SIDE_HEIGHT);
             }
-
-            newT = ((t - (segLength * currSegment)) % segLength) * segments;
         }
+        return bounds;
+    }
 
-        return getCubicBezierTangent(newT, controlPoints[currSegment * 3],
-                controlPoints[currSegment * 3 + 1],
-                controlPoints[currSegment * 3 + 2],
-                controlPoints[currSegment * 3 + 3]);
+    /**
+     * Grows the box at offset b to include the point at the given distance
+     * from the node along the perpendicular, and the point the given height
+     * below it.
+     */
+    private static void include(double[] bounds, int b, Vec3 node, Vec3 perpendicular,
+            double distance, double height) {
+        double x = node.x + perpendicular.x * distance;
+        double y = node.y + perpendicular.y * distance;
+        double z = node.z + perpendicular.z * distance;
+
+        bounds[b] = Math.min(bounds[b], x);
+        bounds[b + 1] = Math.min(bounds[b + 1], y);
+        bounds[b + 2] = Math.min(bounds[b + 2], z - height);
+        bounds[b + 3] = Math.max(bounds[b + 3], x);
+        bounds[b + 4] = Math.max(bounds[b + 4], y);
+        bounds[b + 5] = Math.max(bounds[b + 5], z);
     }
 
     /**
-     * Returns a tangent on a bezier segment with control points P0, P1, P2, P3
-     * at 0 <= t < 1.
+     * Sets out to the horizontal unit vector perpendicular to the track at t,
+     * pointing to the outside of the track, which is the tangent crossed
+     * with (0, 0, 1).
      */
-    private Vector getCubicBezierTangent(double t, Vector P0, Vector P1,
-            Vector P2, Vector P3) {
+    private Vec3 getPerpendicular(double t, Vec3 out) {
+        getTangent(t, out);
+        return out.set(out.y, -out.x, 0).normalize();
+    }
 
-        Vector firstTerm = P1.subtract(P0).scale(3d * Math.pow(1d - t, 2));
-        Vector secondTerm = P2.subtract(P1).scale(6d * t * (1d - t));
-        Vector thirdTerm = P3.subtract(P2).scale(3 * Math.pow(t, 2));
+    /**
+     * Returns the first and the last subdivision of a segment. Neighbouring
+     * segments share their boundary subdivision.
+     */
+    private static int firstSubdivision(int segment) {
+        return segment * SUBDIVISIONS_PER_SEGMENT;
+    }
 
-        return firstTerm.add(secondTerm).add(thirdTerm);
+    private static int lastSubdivision(int segment) {
+        return (segment + 1) * SUBDIVISIONS_PER_SEGMENT;
     }
 
     /**
-     * Draws the racetrack. Goes round three times, first drawing the top side.
-     * Pastes the track texture on top of the track. Does this by incrementing
-     * a t variable (y coordinate on the texture) based on a tStep variable.
-     * If t > 1 then it resets t back to 0. Ensuring the track texture does
-     * not look low detail or stretched. 
-     * 
-     * Then it uses two loops to draw the inner and outer sides of the track. 
-     * Texturing is again done on the same way, using Texturing wrapping to
-     * stack the brick texture several times so that it doesn't look stretched
-     * vertically. 
+     * Draws the visible segments of the racetrack in immediate mode. First
+     * draws their top sides with the track texture, then their inner and
+     * outer sides with the brick texture. The brick texture is wrapped so
+     * that it can be stacked several times.
      */
     private void drawRaceTrack(GL2 gl, GLU glu, GLUT glut, Texture track, Texture brick) {
 
-        double step = 1d / NUMBER_OF_TRACK_SUBDIVISIONS;
-
         gl.glColor3f(1f, 1f, 1f);
 
-        track.bind(gl);
-
-        gl.glBegin(GL.GL_TRIANGLE_STRIP);
-
-        gl.glNormal3d(0, 0, 1);
+        immediate.use(gl);
 
-        double t = 0;
-        double tStep = 1d / SUBDIVISIONS_PER_TRACK_TEXTURE;
-
-        for (int i = 0; i <= NUMBER_OF_TRACK_SUBDIVISIONS; i++) {
-            double position = step * i;
-            Vector nodePosition = getPoint(position);
-            Vector perpendicularForNodePosition = getTangent(position).cross(Vector.Z).normalized();
-
-            Vector laneRadius = perpendicularForNodePosition.scale(2 * LANE_WIDTH);
-
-            Vector innerPosition = nodePosition.subtract(laneRadius);
-            Vector outerPosition = nodePosition.add(laneRadius);
-
-            gl.glTexCoord2d(0, t);
-
-            gl.glVertex3d(innerPosition.x, innerPosition.y, innerPosition.z);
-
-            gl.glTexCoord2d(1, t);
+        track.bind(gl);
 
-            gl.glVertex3d(outerPosition.x, outerPosition.y, outerPosition.z);
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            if (visibleSegments[segment]) {
+                emitTop(immediate, segment);
+            }
+        }
 
-            t += tStep;
+        bindBrick(gl, brick);
 
-            if (t > 1) {
-                t = 0;
+        for (int segment = 0; segment < SEGMENTS; segment++) {
+            if (visibleSegments[segment]) {
+                emitSides(immediate, segment);
             }
         }
-        gl.glEnd();
+    }
 
+    /**
+     * Binds the brick texture and sets it to repeat, as the sides need.
+     */
+    static void bindBrick(GL2 gl, Texture brick) {
         brick.bind(gl);
 
         gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_S, GL2.GL_REPEAT);
         gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_T, GL2.GL_REPEAT);
+    }
 
-        gl.glBegin(GL2.GL_QUAD_STRIP);
+    /**
+     * Generates the top side of one segment of the track into the sink, as
+     * one triangle strip. Pastes the track texture on top of the track. Does
+     * this by incrementing a t variable (y coordinate on the texture) based
+     * on a tStep variable. If t > 1 then it resets t back to 0. Ensuring the
+     * track texture does not look low detail or stretched.
+     */
+    void emitTop(VertexSink sink, int segment) {
 
-        double s = 0;
-        double sStep = 1d / HORIZONTAL_SUBDIVISIONS_PER_BRICK_TEXTURE;
+        double step = 1d / NUMBER_OF_TRACK_SUBDIVISIONS;
 
-        for (int i = 0; i <= NUMBER_OF_TRACK_SUBDIVISIONS; i++) {
-            double position = step * i;
-            Vector nodePosition = getPoint(position);
-            Vector normalForNodePosition = getTangent(position).cross(Vector.Z).normalized();
+        sink.begin(GL.GL_TRIANGLE_STRIP);
 
-            Vector laneRadius = normalForNodePosition.scale(2 * LANE_WIDTH);
+        sink.normal(0, 0, 1);
 
-            Vector upperPosition = nodePosition.add(laneRadius);
-            Vector lowerPosition = upperPosition.subtract(new Vector(0, 0, 2));
+        double tStep = 1d / SUBDIVISIONS_PER_TRACK_TEXTURE;
+        double t = wrappedCoordinate(firstSubdivision(segment), tStep);
 
-            gl.glNormal3d(normalForNodePosition.x, normalForNodePosition.y, normalForNodePosition.z);
+        for (int i = firstSubdivision(segment); i <= lastSubdivision(segment); i++) {
+            double position = step * i;
+            getPoint(position, node);
+            getPerpendicular(position, perpendicular).scale(2 * LANE_WIDTH);
 
-            gl.glTexCoord2d(s, 4);
+            sink.texCoord(0, t);
 
-            gl.glVertex3d(upperPosition.x, upperPosition.y, upperPosition.z);
+            sink.vertex(node.x - perpendicular.x, node.y - perpendicular.y, node.z - perpendicular.z);
 
-            gl.glTexCoord2d(s, 0);
+            sink.texCoord(1, t);
 
-            gl.glVertex3d(lowerPosition.x, lowerPosition.y, lowerPosition.z);
+            sink.vertex(node.x + perpendicular.x, node.y + perpendicular.y, node.z + perpendicular.z);
 
-            s += sStep;
+            t += tStep;
 
-            if (s > 1) {
-                s = 0;
+            if (t > 1) {
+                t = 0;
             }
-
         }
-        gl.glEnd();
+        sink.end();
+    }
+
+    /**
+     * Generates the outer and inner sides of one segment of the track into
+     * the sink, as two strips. Texturing is done the same way as on the top,
+     * with the brick texture stacked four times vertically so that it doesn't
+     * look stretched.
+     */
+    void emitSides(VertexSink sink, int segment) {
+        emitSide(sink, segment, 1);
+        emitSide(sink, segment, -1);
+    }
 
-        gl.glBegin(GL2.GL_QUAD_STRIP);
+    /**
+     * Generates one side of a segment, the outer side for a sign of 1 and
+     * the inner side for a sign of -1.
+     */
+    private void emitSide(VertexSink sink, int segment, int sign) {
 
-        s = 0;
+        double step = 1d / NUMBER_OF_TRACK_SUBDIVISIONS;
 
-        for (int i = 0; i <= NUMBER_OF_TRACK_SUBDIVISIONS; i++) {
-            double position = step * i;
-            Vector nodePosition = getPoint(position);
-            Vector normalForNodePosition = getTangent(position).cross(Vector.Z).normalized();
+        sink.begin(GL2.GL_QUAD_STRIP);
 
-            Vector laneRadius = normalForNodePosition.scale(2 * LANE_WIDTH);
+        double sStep = 1d / HORIZONTAL_SUBDIVISIONS_PER_BRICK_TEXTURE;
+        double s = wrappedCoordinate(firstSubdivision(segment), sStep);
 
-            Vector upperPosition = nodePosition.subtract(laneRadius);
-            Vector lowerPosition = upperPosition.subtract(new Vector(0, 0, 2));
+        for (int i = firstSubdivision(segment); i <= lastSubdivision(segment); i++) {
+            double position = step * i;
+            Vec3 normal = getPerpendicular(position, perpendicular).scale(sign);
+            Vec3 upperPosition = getPoint(position, node).addScaled(normal, 2 * LANE_WIDTH);
 
-            gl.glNormal3d(-normalForNodePosition.x, -normalForNodePosition.y, -normalForNodePosition.z);
+            sink.normal(normal.x, normal.y, normal.z);
 
-            gl.glTexCoord2d(s, 4);
+            sink.texCoord(s, 4);
 
-            gl.glVertex3d(upperPosition.x, upperPosition.y, upperPosition.z);
+            sink.vertex(upperPosition.x, upperPosition.y, upperPosition.z);
 
-            gl.glTexCoord2d(s, 0);
+            sink.texCoord(s, 0);
 
-            gl.glVertex3d(lowerPosition.x, lowerPosition.y, lowerPosition.z);
+            sink.vertex(upperPosition.x, upperPosition.y, upperPosition.z - SIDE_HEIGHT);
 
             s += sStep;
 
@@ -377,7 +485,25 @@ public class RaceTrack {
             }
 
         }
-        gl.glEnd();
+        sink.end();
+    }
+
+    /**
+     * Returns the texture coordinate at the given subdivision, for a
+     * coordinate that starts at 0, grows by step per subdivision and is reset
+     * to 0 once it exceeds 1.
+     */
+    private static double wrappedCoordinate(int subdivision, double step) {
+        double coordinate = 0;
+
+        for (int i = 0; i < subdivision; i++) {
+            coordinate += step;
+
+            if (coordinate > 1) {
+                coordinate = 0;
+            }
+        }
+        return coordinate;
     }
 
 }
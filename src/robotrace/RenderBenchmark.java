@@ -0,0 +1,166 @@
+package robotrace;
+
+import com.jogamp.opengl.util.gl2.GLUT;
+import java.util.Arrays;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GLAutoDrawable;
+import javax.media.opengl.GLCapabilities;
+import javax.media.opengl.GLDrawableFactory;
+import javax.media.opengl.GLEventListener;
+import javax.media.opengl.GLOffscreenAutoDrawable;
+import javax.media.opengl.GLProfile;
+import javax.media.opengl.glu.GLU;
+
+/**
+ * Draws a scripted race offscreen and reports the frame time percentiles.
+ * Instead of opening a window, the race is drawn into an offscreen drawable
+ * (a framebuffer object or pbuffer, whichever the driver provides) by calling
+ * setView and drawScene directly.
+ *
+ * The scenario is fixed by the options: the number of robots, the seed, the
+ * track, the camera mode and the number of frames. The simulation is stepped
+ * in lockstep with the frames, TICKS_PER_FRAME ticks per frame, and in the
+ * overview mode the camera makes one full turn around the scene during the
+ * measured frames. So every run draws the same frames, except in the auto
+ * camera mode which switches cameras at wall clock times.
+ *
+ * The time of a frame includes a glFinish, so it covers the GPU work of the
+ * frame. To compare renderer changes without a GPU, run the benchmark on the
+ * Mesa software rasterizer by setting LIBGL_ALWAYS_SOFTWARE=1.
+ */
+class RenderBenchmark {
+
+    /**
+     * Size in pixels of the offscreen drawable, the default size of the
+     * window.
+     */
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 800;
+
+    /**
+     * Simulation ticks per frame, 20 ms of race per frame.
+     */
+    private static final int TICKS_PER_FRAME = 2;
+
+    /**
+     * Frames drawn before the measurement starts, to let the JIT compile the
+     * renderer and the driver settle.
+     */
+    private static final int WARMUP_FRAMES = 60;
+
+    /**
+     * Percentiles of the frame time that are reported.
+     */
+    private static final double[] PERCENTILES = {50, 90, 95, 99};
+
+    private RenderBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark for the options and prints the results.
+     */
+    static void run(LaunchOptions options) {
+        GLProfile profile = GLProfile.get(GLProfile.GL2);
+
+        GLCapabilities capabilities = new GLCapabilities(profile);
+        capabilities.setOnscreen(false);
+        capabilities.setFBO(true);
+        capabilities.setPBuffer(true);
+        capabilities.setDepthBits(24);
+
+        GLOffscreenAutoDrawable drawable = GLDrawableFactory.getFactory(profile)
+                .createOffscreenAutoDrawable(null, capabilities, null, WIDTH, HEIGHT);
+
+        final RobotRace race = new RobotRace(options);
+        race.glu = new GLU();
+        race.glut = new GLUT();
+        race.gs.w = WIDTH;
+        race.gs.h = HEIGHT;
+
+        drawable.addGLEventListener(new GLEventListener() {
+            @Override
+            public void init(GLAutoDrawable drawable) {
+                race.gl = drawable.getGL().getGL2();
+                race.initialize();
+            }
+
+            @Override
+            public void display(GLAutoDrawable drawable) {
+                race.gl = drawable.getGL().getGL2();
+                race.setView();
+                race.gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+                race.drawScene();
+                race.gl.glFinish();
+            }
+
+            @Override
+            public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
+            }
+
+            @Override
+            public void dispose(GLAutoDrawable drawable) {
+            }
+        });
+
+        drawable.display();
+
+        System.out.printf("Drawing %d frames of %d robots on track %d with camera mode %d, %dx%d, seed %d%n",
+                options.benchmarkFrames, options.robotCount, options.track, options.cameraMode,
+                WIDTH, HEIGHT, options.seed);
+        System.out.println(drawable.getGL().glGetString(GL2.GL_RENDERER) + ", "
+                + drawable.getChosenGLCapabilities());
+
+        float startTheta = race.gs.theta;
+
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            race.advanceSimulation(TICKS_PER_FRAME);
+            drawable.display();
+        }
+
+        long[] frameTimes = new long[options.benchmarkFrames];
+
+        for (int i = 0; i < frameTimes.length; i++) {
+            race.advanceSimulation(TICKS_PER_FRAME);
+            race.gs.theta = startTheta + (float) (2 * Math.PI * i / frameTimes.length);
+
+            long start = System.nanoTime();
+            drawable.display();
+            frameTimes[i] = System.nanoTime() - start;
+        }
+
+        drawable.destroy();
+
+        printFrameTimes(frameTimes);
+    }
+
+    /**
+     * Prints the mean, percentiles and maximum of the frame times.
+     */
+    private static void printFrameTimes(long[] frameTimes) {
+        long[] sorted = frameTimes.clone();
+        Arrays.sort(sorted);
+
+        long total = 0;
+        for (long time : sorted) {
+            total += time;
+        }
+
+        System.out.printf("%10s %10s%n", "", "ms");
+        System.out.printf("%10s %10.3f%n", "mean", total / 1e6 / sorted.length);
+
+        for (double percentile : PERCENTILES) {
+            System.out.printf("%10s %10.3f%n", "p" + (int) percentile, percentile(sorted, percentile) / 1e6);
+        }
+
+        System.out.printf("%10s %10.3f%n", "max", sorted[sorted.length - 1] / 1e6);
+        System.out.printf("%10s %10.1f%n", "fps", sorted.length / (total / 1e9));
+    }
+
+    /**
+     * Returns the percentile of the sorted values, using the nearest rank.
+     */
+    static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
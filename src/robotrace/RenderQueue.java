@@ -0,0 +1,291 @@
+package robotrace;
+
+import com.jogamp.opengl.util.gl2.GLUT;
+import java.util.Arrays;
+import javax.media.opengl.GL2;
+import javax.media.opengl.glu.GLU;
+
+/**
+ * Collects the draw items of a frame and submits them sorted, so that items
+ * sharing GL state are drawn one after another and the state only has to be
+ * changed when it actually differs.
+ *
+ * Every item is added with a texture mode, the profiler stage it belongs to,
+ * a state key within that stage (for example the material of a robot) and
+ * its distance to the eye. Opaque items are drawn first, sorted on texture
+ * mode, stage and state, and within equal state from front to back so the
+ * depth test can reject hidden fragments early. Transparent items are drawn
+ * after all opaque items, from back to front so they blend correctly.
+ *
+ * The queue enables and disables GL_TEXTURE_1D and GL_TEXTURE_2D itself when
+ * the texture mode changes between items, items should not change these.
+ * Before and after render GL_TEXTURE_2D is enabled and GL_TEXTURE_1D is not.
+ *
+ * An item is drawn inside a render pass of its stage; consecutive items of
+ * the same stage share one pass. Because the stage is part of the sort key,
+ * every stage is one contiguous run of opaque items, as long as all its items
+ * use the same texture mode.
+ *
+ * Items and their sort keys are kept in arrays that only grow, and the keys
+ * are sorted as primitive longs, so a frame does not allocate once the
+ * arrays are large enough.
+ */
+class RenderQueue {
+
+    /**
+     * Something that can be drawn by the queue.
+     */
+    interface Item {
+
+        /**
+         * Draws the item.
+         */
+        void render(GL2 gl, GLU glu, GLUT glut);
+    }
+
+    /**
+     * Texture modes of an item: no texture, a 1D texture or a 2D texture.
+     */
+    static final int UNTEXTURED = 0;
+    static final int TEXTURE_1D = 1;
+    static final int TEXTURE_2D = 2;
+
+    /**
+     * Largest distance to the eye that is distinguished when sorting, items
+     * further away are sorted as if they were at this distance.
+     */
+    private static final double MAX_DISTANCE = 1000;
+
+    /**
+     * Number of bits of the item index in a sort key, and thus the largest
+     * number of items in a frame.
+     */
+    private static final int INDEX_BITS = 20;
+
+    /**
+     * Number of bits of the quantized distance in the key of an opaque item.
+     */
+    private static final int DEPTH_BITS = 20;
+
+    /**
+     * Number of bits of the state in the key of an opaque item.
+     */
+    private static final int STATE_BITS = 16;
+
+    /**
+     * Number of bits of the stage in the key of an opaque item.
+     */
+    private static final int STAGE_BITS = 4;
+
+    /**
+     * Number of bits of the quantized distance in the key of a transparent
+     * item, which is sorted on distance only.
+     */
+    private static final int TRANSPARENT_DEPTH_BITS = 36;
+
+    /**
+     * Positions of the fields in a sort key. The transparent flag is the most
+     * significant bit below the sign bit, so all transparent items come last.
+     */
+    private static final int DEPTH_SHIFT = INDEX_BITS;
+    private static final int STATE_SHIFT = DEPTH_SHIFT + DEPTH_BITS;
+    private static final int STAGE_SHIFT = STATE_SHIFT + STATE_BITS;
+    private static final int MODE_SHIFT = STAGE_SHIFT + STAGE_BITS;
+    private static final int TRANSPARENT_SHIFT = 62;
+
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    private static final long TRANSPARENT_BIT = 1L << TRANSPARENT_SHIFT;
+
+    /**
+     * Items added since the last clear, in order of addition.
+     */
+    private Item[] items = new Item[64];
+
+    /**
+     * Texture mode and stage of each item.
+     */
+    private int[] modes = new int[64];
+    private int[] stages = new int[64];
+
+    /**
+     * Sort key of each item, the index of the item in its lowest bits.
+     */
+    private long[] keys = new long[64];
+
+    /**
+     * Number of items added since the last clear.
+     */
+    private int count;
+
+    /**
+     * Number of texture mode and state key changes while drawing the items
+     * since the last resetCounters.
+     */
+    private long modeChanges;
+    private long stateChanges;
+
+    /**
+     * Removes all items, so that the items of a new frame can be added.
+     */
+    public void clear() {
+        // Drop the references so removed items can be collected.
+        Arrays.fill(items, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Adds an opaque item. The state must be less than 2^16, the stage one of
+     * the stages of FrameProfiler.
+     */
+    public void addOpaque(Item item, int textureMode, int stage, int state, double distance) {
+        long key = (long) textureMode << MODE_SHIFT
+                | (long) stage << STAGE_SHIFT
+                | (long) state << STATE_SHIFT
+                | quantize(distance, DEPTH_BITS) << DEPTH_SHIFT;
+
+        add(item, textureMode, stage, key);
+    }
+
+    /**
+     * Adds a transparent item, drawn after all opaque items from back to
+     * front.
+     */
+    public void addTransparent(Item item, int textureMode, int stage, double distance) {
+        long farthest = (1L << TRANSPARENT_DEPTH_BITS) - 1;
+        long key = TRANSPARENT_BIT
+                | (farthest - quantize(distance, TRANSPARENT_DEPTH_BITS)) << DEPTH_SHIFT;
+
+        add(item, textureMode, stage, key);
+    }
+
+    /**
+     * Stores the item with its sort key, growing the arrays if they are full.
+     */
+    private void add(Item item, int textureMode, int stage, long key) {
+        if (count > INDEX_MASK) {
+            throw new IllegalStateException("Too many items in the render queue");
+        }
+
+        if (count == items.length) {
+            int capacity = Math.min(2 * count, (int) INDEX_MASK + 1);
+            items = Arrays.copyOf(items, capacity);
+            modes = Arrays.copyOf(modes, capacity);
+            stages = Arrays.copyOf(stages, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+        }
+
+        items[count] = item;
+        modes[count] = textureMode;
+        stages[count] = stage;
+        keys[count] = key | count;
+        count++;
+    }
+
+    /**
+     * Maps the distance to an integer of the given number of bits that
+     * increases with the distance.
+     */
+    private static long quantize(double distance, int bits) {
+        double clamped = Math.max(0, Math.min(MAX_DISTANCE, distance));
+        return (long) (clamped / MAX_DISTANCE * ((1L << bits) - 1));
+    }
+
+    /**
+     * Sorts and draws all items added since the last clear. Every run of
+     * items of the same stage is measured as a render pass of the profiler.
+     */
+    public void render(GL2 gl, GLU glu, GLUT glut, FrameProfiler profiler) {
+        Arrays.sort(keys, 0, count);
+
+        int currentMode = TEXTURE_2D;
+        int currentStage = -1;
+        long currentState = -1;
+
+        for (int i = 0; i < count; i++) {
+            int index = (int) (keys[i] & INDEX_MASK);
+            int mode = modes[index];
+            int stage = stages[index];
+            // The key of a transparent item holds its distance instead of its state.
+            long state = (keys[i] & TRANSPARENT_BIT) != 0
+                    ? TRANSPARENT_BIT | mode << STAGE_BITS | stage
+                    : keys[i] >>> STATE_SHIFT;
+
+            if (stage != currentStage) {
+                if (currentStage >= 0) {
+                    profiler.endPass(gl, currentStage);
+                }
+                profiler.beginPass(gl, stage);
+                currentStage = stage;
+            }
+
+            if (mode != currentMode) {
+                setTextureMode(gl, currentMode, mode);
+                currentMode = mode;
+                modeChanges++;
+            }
+
+            if (state != currentState) {
+                currentState = state;
+                stateChanges++;
+            }
+
+            items[index].render(gl, glu, glut);
+        }
+
+        if (currentStage >= 0) {
+            profiler.endPass(gl, currentStage);
+        }
+
+        if (currentMode != TEXTURE_2D) {
+            setTextureMode(gl, currentMode, TEXTURE_2D);
+        }
+    }
+
+    /**
+     * Switches the enabled texture target from one texture mode to another.
+     */
+    private static void setTextureMode(GL2 gl, int from, int to) {
+        if (from == TEXTURE_1D) {
+            gl.glDisable(GL2.GL_TEXTURE_1D);
+        } else if (from == TEXTURE_2D) {
+            gl.glDisable(GL2.GL_TEXTURE_2D);
+        }
+
+        if (to == TEXTURE_1D) {
+            gl.glEnable(GL2.GL_TEXTURE_1D);
+        } else if (to == TEXTURE_2D) {
+            gl.glEnable(GL2.GL_TEXTURE_2D);
+        }
+    }
+
+    /**
+     * Returns the number of items added since the last clear.
+     */
+    public int getItemCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of times the texture mode changed between items
+     * since the last resetCounters.
+     */
+    public long getModeChanges() {
+        return modeChanges;
+    }
+
+    /**
+     * Returns the number of times the state key (texture mode, stage and
+     * state) changed between items since the last resetCounters.
+     */
+    public long getStateChanges() {
+        return stateChanges;
+    }
+
+    /**
+     * Sets the counters of mode and state changes to zero.
+     */
+    public void resetCounters() {
+        modeChanges = 0;
+        stateChanges = 0;
+    }
+}
@@ -0,0 +1,188 @@
+package robotrace;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout and encoding of a replay file, shared by ReplayWriter and
+ * ReplayReader.
+ *
+ * A replay starts with a header: the magic number, the format version, the
+ * number of robots, the ms per tick, the keyframe interval and the seed of
+ * the race, followed by the lane of every robot. After the header follow
+ * blocks of at most keyframe interval ticks. A block starts with its length
+ * in bytes, the number of ticks in it and the number of its first tick,
+ * followed by a keyframe with the full state of every robot at the first
+ * tick. The other ticks of the block are stored per robot as the change
+ * from the tick before, so a tick can be decoded by reading only its block.
+ * A block length of 0 or the end of the file ends the replay.
+ *
+ * All values are quantized to integers: the position on the track and the
+ * distance traveled in 1/2^24 lap, the animation value in 10/2^20 and the
+ * speed as the time of a lap in ms. Per tick a robot is stored as four
+ * zigzag varints: the change of its position step and of its animation step
+ * since the tick before, which are 0 while its speed does not change, the
+ * change of its lap time and the difference between its distance step and
+ * its position step. A tick of a robot at constant speed takes four bytes.
+ */
+final class ReplayFormat {
+
+    /**
+     * First four bytes of a replay, "RRPL".
+     */
+    static final int MAGIC = 0x5252504c;
+
+    /**
+     * Version of the format.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Size of the header without the lanes, and of the header of a block.
+     */
+    static final int HEADER_BYTES = 5 * 4 + 8;
+    static final int BLOCK_HEADER_BYTES = 4 + 4 + 8;
+
+    /**
+     * Size of the keyframe of one robot: position, animation value, lap time
+     * and distance.
+     */
+    static final int KEYFRAME_BYTES = 4 + 4 + 4 + 8;
+
+    /**
+     * Largest size of one tick of one robot: three int varints and one long
+     * varint.
+     */
+    static final int MAX_TICK_BYTES = 3 * 5 + 10;
+
+    /**
+     * Number of bits of a quantized position and animation value.
+     */
+    static final int POSITION_BITS = 24;
+    static final int ANIMATION_BITS = 20;
+
+    /**
+     * Quantized units per lap and per animation cycle.
+     */
+    static final double POSITION_SCALE = 1 << POSITION_BITS;
+    static final double ANIMATION_SCALE = (1 << ANIMATION_BITS) / 10d;
+
+    /**
+     * Largest number of ticks between keyframes, one second of the race.
+     */
+    static final int MAX_KEYFRAME_INTERVAL = 100;
+
+    /**
+     * Size a block should stay below, races with many robots store a keyframe
+     * more often to keep the blocks this small.
+     */
+    private static final int TARGET_BLOCK_BYTES = 4 << 20;
+
+    private ReplayFormat() {
+    }
+
+    /**
+     * Returns the number of ticks between keyframes for a race with the
+     * given number of robots.
+     */
+    static int keyframeInterval(int robotCount) {
+        long interval = TARGET_BLOCK_BYTES / ((long) robotCount * MAX_TICK_BYTES);
+        return (int) Math.max(1, Math.min(MAX_KEYFRAME_INTERVAL, interval));
+    }
+
+    /**
+     * Returns the largest size of a block of the given number of robots and
+     * ticks.
+     */
+    static long maxBlockBytes(int robotCount, int ticks) {
+        return BLOCK_HEADER_BYTES + (long) robotCount * KEYFRAME_BYTES
+                + (long) (ticks - 1) * robotCount * MAX_TICK_BYTES;
+    }
+
+    /**
+     * Quantizes a position on the track.
+     */
+    static int quantizePosition(double posOnTrack) {
+        return (int) Math.round(posOnTrack * POSITION_SCALE) & mask(POSITION_BITS);
+    }
+
+    /**
+     * Quantizes an animation value.
+     */
+    static int quantizeAnimation(double tAnim) {
+        return (int) Math.round(tAnim * ANIMATION_SCALE) & mask(ANIMATION_BITS);
+    }
+
+    /**
+     * Quantizes a distance traveled.
+     */
+    static long quantizeDistance(double distance) {
+        return Math.round(distance * POSITION_SCALE);
+    }
+
+    /**
+     * Quantizes a track step, the fraction of a lap traveled per ms, to the
+     * time of a lap in ms.
+     */
+    static int quantizeLapTime(double trackRoundStep) {
+        return (int) Math.round(1 / trackRoundStep);
+    }
+
+    /**
+     * Returns a mask of the given number of low bits.
+     */
+    static int mask(int bits) {
+        return (1 << bits) - 1;
+    }
+
+    /**
+     * Returns the change from one quantized value of the given number of bits
+     * to the next, taking the shortest way around the wrap.
+     */
+    static int wrappedChange(int from, int to, int bits) {
+        int shift = 32 - bits;
+        return (to - from) << shift >> shift;
+    }
+
+    /**
+     * Writes an int as a zigzag varint.
+     */
+    static void putVarint(ByteBuffer buffer, int value) {
+        int zigzag = (value << 1) ^ (value >> 31);
+
+        while ((zigzag & ~0x7f) != 0) {
+            buffer.put((byte) (zigzag & 0x7f | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    /**
+     * Writes a long as a zigzag varint.
+     */
+    static void putVarlong(ByteBuffer buffer, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+
+        while ((zigzag & ~0x7fL) != 0) {
+            buffer.put((byte) (zigzag & 0x7f | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    /**
+     * Reads a zigzag varint written by putVarint or putVarlong.
+     */
+    static long getVarlong(ByteBuffer buffer) {
+        long zigzag = 0;
+        int shift = 0;
+        byte b;
+
+        do {
+            b = buffer.get();
+            zigzag |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+}
@@ -0,0 +1,296 @@
+package robotrace;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Plays a replay file written by ReplayWriter back, tick by tick, and jumps
+ * to any tick.
+ *
+ * The file is mapped into memory as a whole, and when it is opened the
+ * offset and first tick of every block are collected by hopping from block
+ * header to block header. Seeking finds the block of a tick by a binary
+ * search over these, reads its keyframe and decodes the ticks up to the
+ * wanted one, so it never decodes more than one keyframe interval of the
+ * race, however long the race is.
+ *
+ * Replays up to 2 GB can be read, the largest buffer that can be mapped.
+ */
+class ReplayReader {
+
+    /**
+     * The mapped file, positioned after the last decoded tick.
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Number of robots, lane of every robot and seed of the race.
+     */
+    private final int robotCount;
+    private final int[] lanes;
+    private final long seed;
+
+    /**
+     * Offset in the file, first tick and number of ticks of every block.
+     */
+    private final long[] blockOffsets;
+    private final long[] blockFirstTicks;
+    private final int[] blockTicks;
+    private final int blockCount;
+
+    /**
+     * Block of the current tick and the number of the current tick.
+     */
+    private int currentBlock;
+    private long tick;
+
+    /**
+     * Quantized state of every robot at the current tick, and the change in
+     * position and animation value in that tick.
+     */
+    private final int[] position;
+    private final int[] animation;
+    private final int[] lapTime;
+    private final long[] distance;
+    private final int[] positionStep;
+    private final int[] animationStep;
+
+    /**
+     * Opens the replay at path, which is positioned at its first tick.
+     * Throws an IOException if the file is not a replay or is too large.
+     */
+    public ReplayReader(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Replay " + path + " is larger than 2 GB");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.remaining() < ReplayFormat.HEADER_BYTES || buffer.getInt() != ReplayFormat.MAGIC) {
+            throw new IOException(path + " is not a replay");
+        }
+        if (buffer.getInt() != ReplayFormat.VERSION) {
+            throw new IOException("Replay " + path + " has an unsupported version");
+        }
+
+        robotCount = buffer.getInt();
+        if (buffer.getInt() != TickThread.TICK_MS) {
+            throw new IOException("Replay " + path + " has a different tick length");
+        }
+        buffer.getInt(); // The keyframe interval, implied by the blocks.
+        seed = buffer.getLong();
+
+        lanes = new int[robotCount];
+        for (int i = 0; i < robotCount; i++) {
+            lanes[i] = buffer.getInt();
+        }
+
+        // Hop over the blocks to find where each one starts.
+        int capacity = 64;
+        long[] offsets = new long[capacity];
+        long[] firstTicks = new long[capacity];
+        int[] ticks = new int[capacity];
+        int count = 0;
+
+        int offset = buffer.position();
+        while (buffer.limit() - offset >= ReplayFormat.BLOCK_HEADER_BYTES) {
+            int length = buffer.getInt(offset);
+            if (length == 0 || length > buffer.limit() - offset) {
+                break;
+            }
+
+            if (count == capacity) {
+                capacity *= 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                firstTicks = Arrays.copyOf(firstTicks, capacity);
+                ticks = Arrays.copyOf(ticks, capacity);
+            }
+
+            offsets[count] = offset;
+            ticks[count] = buffer.getInt(offset + 4);
+            firstTicks[count] = buffer.getLong(offset + 8);
+            count++;
+
+            offset += length;
+        }
+
+        if (count == 0) {
+            throw new IOException("Replay " + path + " is empty");
+        }
+
+        blockOffsets = offsets;
+        blockFirstTicks = firstTicks;
+        blockTicks = ticks;
+        blockCount = count;
+
+        position = new int[robotCount];
+        animation = new int[robotCount];
+        lapTime = new int[robotCount];
+        distance = new long[robotCount];
+        positionStep = new int[robotCount];
+        animationStep = new int[robotCount];
+
+        seek(0);
+    }
+
+    /**
+     * Returns the number of robots in the race.
+     */
+    public int getRobotCount() {
+        return robotCount;
+    }
+
+    /**
+     * Returns the lane of the robot.
+     */
+    public int getLane(int robot) {
+        return lanes[robot];
+    }
+
+    /**
+     * Returns the seed of the recorded race.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the number of the first tick in the replay.
+     */
+    public long getFirstTick() {
+        return blockFirstTicks[0];
+    }
+
+    /**
+     * Returns the number of the last tick in the replay.
+     */
+    public long getLastTick() {
+        return blockFirstTicks[blockCount - 1] + blockTicks[blockCount - 1] - 1;
+    }
+
+    /**
+     * Returns the number of the current tick.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns whether there is a tick after the current tick.
+     */
+    public boolean hasNext() {
+        return tick < getLastTick();
+    }
+
+    /**
+     * Moves to the given tick, clamped to the ticks in the replay.
+     */
+    public void seek(long target) {
+        target = Math.max(getFirstTick(), Math.min(getLastTick(), target));
+
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (blockFirstTicks[middle] <= target) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+
+        readKeyframe(low);
+        while (tick < target) {
+            readChanges();
+        }
+    }
+
+    /**
+     * Moves to the tick after the current tick, which should exist.
+     */
+    public void next() {
+        if (tick + 1 < blockFirstTicks[currentBlock] + blockTicks[currentBlock]) {
+            readChanges();
+        } else {
+            readKeyframe(currentBlock + 1);
+        }
+    }
+
+    /**
+     * Reads the keyframe of the block, the state at its first tick.
+     */
+    private void readKeyframe(int block) {
+        currentBlock = block;
+        tick = blockFirstTicks[block];
+
+        buffer.position((int) blockOffsets[block] + ReplayFormat.BLOCK_HEADER_BYTES);
+
+        for (int i = 0; i < robotCount; i++) {
+            position[i] = buffer.getInt();
+            animation[i] = buffer.getInt();
+            lapTime[i] = buffer.getInt();
+            distance[i] = buffer.getLong();
+            positionStep[i] = 0;
+            animationStep[i] = 0;
+        }
+    }
+
+    /**
+     * Decodes the changes of every robot in the tick after the current tick.
+     */
+    private void readChanges() {
+        int positionMask = ReplayFormat.mask(ReplayFormat.POSITION_BITS);
+        int animationMask = ReplayFormat.mask(ReplayFormat.ANIMATION_BITS);
+
+        for (int i = 0; i < robotCount; i++) {
+            positionStep[i] += (int) ReplayFormat.getVarlong(buffer);
+            animationStep[i] += (int) ReplayFormat.getVarlong(buffer);
+            lapTime[i] += (int) ReplayFormat.getVarlong(buffer);
+            distance[i] += ReplayFormat.getVarlong(buffer) + positionStep[i];
+
+            position[i] = (position[i] + positionStep[i]) & positionMask;
+            animation[i] = (animation[i] + animationStep[i]) & animationMask;
+        }
+
+        tick++;
+    }
+
+    /**
+     * Returns the position of the robot on the track at the current tick,
+     * between 0 and 1.
+     */
+    public double getPosOnTrack(int robot) {
+        return position[robot] / ReplayFormat.POSITION_SCALE;
+    }
+
+    /**
+     * Returns the animation value of the robot at the current tick, between 0
+     * and 10.
+     */
+    public double getTAnim(int robot) {
+        return animation[robot] / ReplayFormat.ANIMATION_SCALE;
+    }
+
+    /**
+     * Returns the total distance the robot has traveled at the current tick,
+     * in laps.
+     */
+    public double getTotalDistanceTravelled(int robot) {
+        return distance[robot] / ReplayFormat.POSITION_SCALE;
+    }
+
+    /**
+     * Returns the track step of the robot at the current tick, the fraction
+     * of a lap it travels per ms.
+     */
+    public double getTrackRoundStep(int robot) {
+        return 1d / lapTime[robot];
+    }
+}
@@ -0,0 +1,81 @@
+package robotrace;
+
+/**
+ * Plays a replay back at the tick rate of the race, publishing a snapshot of
+ * the recorded state every tick just like the simulation thread does, so the
+ * renderer does not know whether the race is simulated or replayed.
+ *
+ * Another thread can ask to jump to any tick with seek, the jump is made by
+ * this thread at its next tick. At the end of the replay the last tick is
+ * held.
+ */
+class ReplayThread extends TickThread {
+
+    /**
+     * Value of requestedTick if no jump is requested.
+     */
+    private static final long NO_SEEK = -1;
+
+    /**
+     * The replay, only accessed by this thread once it is started.
+     */
+    private final ReplayReader replay;
+
+    /**
+     * Tick to jump to at the next tick, or NO_SEEK.
+     */
+    private volatile long requestedTick = NO_SEEK;
+
+    /**
+     * Creates the thread for the replay, which publishes the state of the
+     * given tick right away.
+     */
+    public ReplayThread(ReplayReader replay, long startTick) {
+        super("Replay", RaceSnapshot.lanesOf(replay));
+
+        this.replay = replay;
+
+        replay.seek(startTick);
+        publish(freeSnapshot().start(replay));
+    }
+
+    /**
+     * Asks to jump to the given tick, clamped to the ticks in the replay.
+     */
+    public void seek(long tick) {
+        requestedTick = Math.max(0, tick);
+    }
+
+    /**
+     * Asks to jump the given number of ticks forward, or backward if negative,
+     * from the tick currently shown.
+     */
+    public void skip(long ticks) {
+        seek(getTick() + ticks);
+    }
+
+    /**
+     * Returns the number of the last tick in the replay.
+     */
+    public long getLastTick() {
+        return replay.getLastTick();
+    }
+
+    @Override
+    protected RaceSnapshot nextSnapshot(RaceSnapshot snapshot, RaceSnapshot free) {
+        long tick = requestedTick;
+
+        if (tick != NO_SEEK) {
+            requestedTick = NO_SEEK;
+            replay.seek(tick);
+            return free.start(replay);
+        }
+
+        if (!replay.hasNext()) {
+            return snapshot;
+        }
+
+        replay.next();
+        return free.follow(snapshot, replay);
+    }
+}
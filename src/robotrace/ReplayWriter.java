@@ -0,0 +1,365 @@
+package robotrace;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records a race to a replay file in the format of ReplayFormat, while the
+ * race runs.
+ *
+ * The simulation thread encodes every tick into a block buffer that is
+ * allocated once. When a block is complete it is copied into a ring buffer,
+ * from which a writer thread of its own copies it into the file, which is
+ * mapped into memory in chunks. The simulation thread thus never waits for
+ * the disk and never allocates, unless the writer falls a whole ring behind,
+ * in which case it waits for space. Only whole blocks are handed to the
+ * writer, so a replay that is cut off still ends at a block boundary.
+ *
+ * The ticks of the block that is not yet complete when the writer is closed
+ * are not written, which is at most one keyframe interval of the race,
+ * unless it is closed with finish by the thread that records.
+ */
+class ReplayWriter {
+
+    /**
+     * Size of a mapped chunk of the file.
+     */
+    private static final int CHUNK_BYTES = 64 << 20;
+
+    /**
+     * Time the writer thread sleeps when there is nothing to write, in ms.
+     */
+    private static final int IDLE_MS = 2;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    /**
+     * Number of robots and ticks per block.
+     */
+    private final int robotCount;
+    private final int keyframeInterval;
+
+    /**
+     * Buffer into which the block being recorded is encoded.
+     */
+    private final ByteBuffer block;
+
+    /**
+     * Ring buffer of complete blocks, written by the simulation thread, and a
+     * view on it for the writer thread.
+     */
+    private final ByteBuffer ring;
+    private final ByteBuffer ringView;
+
+    /**
+     * Total number of bytes put into and taken from the ring.
+     */
+    private volatile long published;
+    private volatile long consumed;
+
+    /**
+     * Whether the writer is closed, after which nothing is recorded.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Thread that copies the ring into the file.
+     */
+    private final Thread writerThread;
+
+    /**
+     * Mapped chunk of the file being written, the offset of the chunk in the
+     * file and the number of bytes written to the file. Used by the writer
+     * thread only.
+     */
+    private MappedByteBuffer chunk;
+    private long chunkOffset;
+    private long written;
+
+    /**
+     * Number of the next tick and number of ticks in the current block.
+     */
+    private long tick;
+    private int blockTicks;
+
+    /**
+     * Quantized state of every robot after the last recorded tick, and the
+     * change in position and animation value in that tick.
+     */
+    private final int[] position;
+    private final int[] animation;
+    private final int[] lapTime;
+    private final long[] distance;
+    private final int[] positionStep;
+    private final int[] animationStep;
+
+    /**
+     * Creates the file and writes the header of a race with the robots of
+     * the simulation.
+     */
+    private ReplayWriter(String path, RaceSimulation simulation, long seed) throws IOException {
+        robotCount = simulation.getRobotCount();
+        keyframeInterval = ReplayFormat.keyframeInterval(robotCount);
+
+        long blockBytes = ReplayFormat.maxBlockBytes(robotCount, keyframeInterval);
+        if (2 * blockBytes > Integer.MAX_VALUE) {
+            throw new IOException("Too many robots to record: " + robotCount);
+        }
+
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        block = ByteBuffer.allocateDirect((int) blockBytes).order(ByteOrder.LITTLE_ENDIAN);
+        ring = ByteBuffer.allocateDirect((int) (2 * blockBytes)).order(ByteOrder.LITTLE_ENDIAN);
+        ringView = ring.duplicate();
+
+        position = new int[robotCount];
+        animation = new int[robotCount];
+        lapTime = new int[robotCount];
+        distance = new long[robotCount];
+        positionStep = new int[robotCount];
+        animationStep = new int[robotCount];
+
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, 0, CHUNK_BYTES);
+        chunk.order(ByteOrder.LITTLE_ENDIAN);
+
+        chunk.putInt(ReplayFormat.MAGIC);
+        chunk.putInt(ReplayFormat.VERSION);
+        chunk.putInt(robotCount);
+        chunk.putInt(TickThread.TICK_MS);
+        chunk.putInt(keyframeInterval);
+        chunk.putLong(seed);
+        for (int i = 0; i < robotCount; i++) {
+            chunk.putInt(simulation.getLane(i));
+        }
+        written = chunk.position();
+
+        writerThread = new Thread(this::writeLoop, "Replay writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Creates the replay file at path for the race of the simulation, and
+     * closes it when the application exits.
+     */
+    static ReplayWriter create(String path, RaceSimulation simulation, long seed) throws IOException {
+        ReplayWriter writer = new ReplayWriter(path, simulation, seed);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(writer::close, "Replay close"));
+
+        return writer;
+    }
+
+    /**
+     * Records the current state of the simulation as the next tick. The first
+     * call records the state at the start of the race.
+     */
+    public void record(RaceSimulation simulation) {
+        if (closed) {
+            return;
+        }
+
+        if (blockTicks == 0) {
+            beginBlock(simulation);
+        } else {
+            recordChanges(simulation);
+        }
+
+        tick++;
+        blockTicks++;
+
+        if (blockTicks == keyframeInterval) {
+            publishBlock();
+        }
+    }
+
+    /**
+     * Starts a new block with a keyframe of the current state.
+     */
+    private void beginBlock(RaceSimulation simulation) {
+        block.clear();
+        block.putInt(0);
+        block.putInt(0);
+        block.putLong(tick);
+
+        for (int i = 0; i < robotCount; i++) {
+            position[i] = ReplayFormat.quantizePosition(simulation.getPosOnTrack(i));
+            animation[i] = ReplayFormat.quantizeAnimation(simulation.getTAnim(i));
+            lapTime[i] = ReplayFormat.quantizeLapTime(simulation.getTrackRoundStep(i));
+            distance[i] = ReplayFormat.quantizeDistance(simulation.getTotalDistanceTravelled(i));
+            positionStep[i] = 0;
+            animationStep[i] = 0;
+
+            block.putInt(position[i]);
+            block.putInt(animation[i]);
+            block.putInt(lapTime[i]);
+            block.putLong(distance[i]);
+        }
+    }
+
+    /**
+     * Encodes the changes of every robot since the last recorded tick.
+     */
+    private void recordChanges(RaceSimulation simulation) {
+        for (int i = 0; i < robotCount; i++) {
+            int newPosition = ReplayFormat.quantizePosition(simulation.getPosOnTrack(i));
+            int newAnimation = ReplayFormat.quantizeAnimation(simulation.getTAnim(i));
+            int newLapTime = ReplayFormat.quantizeLapTime(simulation.getTrackRoundStep(i));
+            long newDistance = ReplayFormat.quantizeDistance(simulation.getTotalDistanceTravelled(i));
+
+            int newPositionStep = ReplayFormat.wrappedChange(position[i], newPosition, ReplayFormat.POSITION_BITS);
+            int newAnimationStep = ReplayFormat.wrappedChange(animation[i], newAnimation, ReplayFormat.ANIMATION_BITS);
+
+            ReplayFormat.putVarint(block, newPositionStep - positionStep[i]);
+            ReplayFormat.putVarint(block, newAnimationStep - animationStep[i]);
+            ReplayFormat.putVarint(block, newLapTime - lapTime[i]);
+            ReplayFormat.putVarlong(block, newDistance - distance[i] - newPositionStep);
+
+            position[i] = newPosition;
+            animation[i] = newAnimation;
+            lapTime[i] = newLapTime;
+            distance[i] = newDistance;
+            positionStep[i] = newPositionStep;
+            animationStep[i] = newAnimationStep;
+        }
+    }
+
+    /**
+     * Completes the header of the current block and copies the block into the
+     * ring, waiting for the writer thread if the ring has no room for it.
+     */
+    private void publishBlock() {
+        int length = block.position();
+        block.putInt(0, length);
+        block.putInt(4, blockTicks);
+        blockTicks = 0;
+
+        while (ring.capacity() - (published - consumed) < length) {
+            if (closed) {
+                return;
+            }
+            Thread.yield();
+        }
+
+        int start = (int) (published % ring.capacity());
+        int first = Math.min(length, ring.capacity() - start);
+
+        block.position(0);
+        block.limit(first);
+        ring.position(start);
+        ring.put(block);
+
+        if (first < length) {
+            block.limit(length);
+            ring.position(0);
+            ring.put(block);
+        }
+
+        published += length;
+    }
+
+    /**
+     * Body of the writer thread, copies published bytes from the ring into the
+     * file until the writer is closed and the ring is empty.
+     */
+    private void writeLoop() {
+        try {
+            while (true) {
+                long available = published - consumed;
+
+                if (available == 0) {
+                    if (closed) {
+                        return;
+                    }
+                    Thread.sleep(IDLE_MS);
+                    continue;
+                }
+
+                int start = (int) (consumed % ring.capacity());
+                int length = (int) Math.min(available, ring.capacity() - start);
+
+                if (!chunk.hasRemaining()) {
+                    chunkOffset += CHUNK_BYTES;
+                    chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkOffset, CHUNK_BYTES);
+                }
+                length = Math.min(length, chunk.remaining());
+
+                ringView.limit(start + length);
+                ringView.position(start);
+                chunk.put(ringView);
+
+                written += length;
+                consumed += length;
+            }
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Could not write the replay: " + e.getMessage());
+            closed = true;
+        }
+    }
+
+    /**
+     * Writes the ticks of the block that is not yet complete and closes the
+     * writer. Should only be called from the thread that records.
+     */
+    public void finish() {
+        if (!closed && blockTicks > 0) {
+            publishBlock();
+        }
+        close();
+    }
+
+    /**
+     * Stops recording, waits until all complete blocks are written and cuts
+     * the file off after the last block.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            writerThread.join();
+            chunk.force();
+            truncate();
+            channel.close();
+            file.close();
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Could not close the replay: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Cuts the file off after the last block. Some platforms do not allow this
+     * while the file is mapped, then the zeros after the last block end the
+     * replay instead.
+     */
+    private void truncate() {
+        try {
+            channel.truncate(written);
+        } catch (IOException e) {
+            // The unused part of the last chunk reads as a block of length 0.
+        }
+    }
+
+    /**
+     * Returns the number of ticks recorded so far.
+     */
+    public long getTicks() {
+        return tick;
+    }
+
+    /**
+     * Returns the number of bytes written to the file so far.
+     */
+    public long getBytesWritten() {
+        return written;
+    }
+}
@@ -1,12 +1,7 @@
 package robotrace;
 
 import com.jogamp.opengl.util.gl2.GLUT;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
-import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
-import javax.media.opengl.fixedfunc.GLLightingFunc;
 import javax.media.opengl.glu.GLU;
 import jogamp.graph.curve.tess.HEdge;
 
@@ -15,28 +10,7 @@ import jogamp.graph.curve.tess.HEdge;
  *
  * All constant values in this class are specified in meters.
  */
-class Robot {
-
-    /**
-     * Default step for traversing the track. Incrementing the position on the
-     * track with this value for each passed ms results in a robot taking 40 s
-     * to complete one lap on the track.
-     */
-    private static final double INITIAL_TRACK_ROUND_STEP = 1d / 40000;
-
-    /**
-     * Speeds the animation up by this constant. With this set to 1 each
-     * animation cycle takes ten seconds.
-     */
-    private static final int INITIAL_ANIMATION_MODIFIER = 18;
-
-    /**
-     * The desired ratio between the track step and animation modifier. If the
-     * track step for a robot is increased the animation should also speed up
-     * and vice versa. This constant is used in the calculation of a new
-     * animation modifier when the robot speed is changed.
-     */
-    private static final double DESIRED_ANIMATION_RATIO = INITIAL_TRACK_ROUND_STEP / INITIAL_ANIMATION_MODIFIER;
+class Robot implements RenderQueue.Item {
 
     /**
      * Size of the robot in meters, all other constant size values of the robot
@@ -44,6 +18,13 @@ class Robot {
      */
     private static final double SIZE = 2;
 
+    /**
+     * Height above the position of the robot of the center of a sphere that
+     * encloses the whole robot, and the radius of that sphere.
+     */
+    static final double BOUNDS_CENTER_HEIGHT = 1.05;
+    static final double BOUNDS_RADIUS = 1.1;
+
     /**
      * Skin like color (between red and yellow) for the limbs and ears.
      */
@@ -191,6 +172,11 @@ class Robot {
      */
     private static final double LOWER_TORSO_RADIUS = 0.2 * SIZE;
 
+    /**
+     * Geometry of the torso, shared by all robots.
+     */
+    private static final TorsoMesh TORSO_MESH = new TorsoMesh(LOWER_TORSO_RADIUS, UPPER_TORSO_RADIUS, TORSO_HEIGHT);
+
     /**
      * Length of the robot neck.
      */
@@ -202,14 +188,24 @@ class Robot {
     private static final double ROBOT_LIMB_RADIUS = .0125 * SIZE;
 
     /**
-     * The position of the robot.
+     * Hair strands on top of the head, as rotation in degrees around the x
+     * axis, rotation around the y axis and length of every strand.
+     */
+    private static final double[] HAIR_STRANDS = {
+        0, 0, 0.1 * SIZE,
+        30, 15, .08 * SIZE,
+        20, -35, 0.1 * SIZE
+    };
+
+    /**
+     * The position of the robot, set in place every frame.
      */
-    public Vector position = new Vector(0, 0, 0);
+    public final Vec3 position = new Vec3();
 
     /**
-     * The direction in which the robot is running.
+     * The direction in which the robot is running, set in place every frame.
      */
-    public Vector direction = new Vector(1, 0, 0);
+    public final Vec3 direction = new Vec3(1, 0, 0);
 
     /**
      * The material from which this robot is built.
@@ -217,8 +213,8 @@ class Robot {
     private final Material material;
 
     /**
-     * Nr of the robot, 1 for the first robot 4 for the last robot. Used when
-     * texturing the torso to select the right part from the texture strip.
+     * Nr of the robot livery, from 1 to 4. Used when texturing the torso to
+     * select the right part from the texture strip.
      */
     private final int robotNr;
 
@@ -268,121 +264,111 @@ class Robot {
     private double shoulderHeight;
 
     /**
-     * Current value of the track step variable. initialized to the default, and
-     * gets updated if a new random speed for the robot is selected.
+     * Index of this robot in the simulation.
      */
-    private double trackRoundStep = INITIAL_TRACK_ROUND_STEP;
+    private final int index;
 
     /**
-     * Current position of the robot on the track, a value from 0 to 1.
-     * Incremented each time the associated update method is called.
+     * Lane in which the robot runs.
      */
-    private double posOnTrack;
+    private int lane = 1;
 
     /**
-     * Current value of the tAnim variable for this robot, updated each time the
-     * associated update method is called. Goes from 0 to 1.
+     * Position on the track, animation value and total distance traveled of
+     * the robot in the frame that is drawn, set by present.
      */
+    private double posOnTrack;
     private double tAnim;
+    private double totalDistanceTravelled;
 
     /**
-     * Modifier which with the animation is sped up. Initialized to the default
-     * value for the default speed. If the trackStep is updated this value is
-     * also updated, based on the desired ratio.
-     */
-    private double tAnimModifier = INITIAL_ANIMATION_MODIFIER;
-
-    /**
-     * Ms left until the speed of the robot should be updated again.
-     */
-    private long msUntilNextRandomValueUpdate;
-
-    /**
-     * Total distance this robot has traveled around the track.
+     * Transforms of the parts of the robot, starting at its reference frame on
+     * the track. The parts are transformed on the CPU and only the matrix of
+     * every part is passed to OpenGL, see loadTransform.
      */
-    private double totalDistanceTravelled;
+    private final MatrixStack bodyTransforms = new MatrixStack(4);
 
     /**
-     * Instance to a random object used to determine a random speed and a random
-     * time until the speed should change again.
+     * Tracker of the color and material state, shared by all robots drawn in
+     * the same OpenGL context.
      */
-    private final Random random;
+    private final MaterialState materialState;
 
     /**
-     * Constructs the robot with initial parameters.
+     * Constructs the robot with initial parameters. The state of the robot in
+     * the race is read from the snapshots at the given index. All color and
+     * material changes are made through the material state tracker.
      */
-    public Robot(Material material, Vector position, int robotNr, Random random) {
+    public Robot(Material material, Vector position, int robotNr, int index, MaterialState materialState) {
         this.material = material;
-        this.position = position;
+        this.position.set(position);
         this.robotNr = robotNr;
-        this.random = random;
-
-        msUntilNextRandomValueUpdate = random.nextInt(5000) + 3000;
+        this.index = index;
+        this.materialState = materialState;
     }
 
     /**
-     * Takes the elapsed time, subtracts it from the time until
-     * randomValueUpdate. If the randomValueUpdate variable is lower than zero
-     * the method calculates and new track speed using the random object, a new
-     * tAnimModifier and it randomly selects a new nextRandomValueUpdate value.
-     *
+     * Gets the index of this robot in the simulation.
      */
-    public void determineNewAnimationVariables(int msElapsed) {
-        msUntilNextRandomValueUpdate -= msElapsed;
-
-        if (msUntilNextRandomValueUpdate < 0) {
-            int trackRoundInMs = 32500 + random.nextInt(15000);
-            trackRoundStep = 1d / trackRoundInMs;
-            tAnimModifier = (1d / trackRoundInMs) / DESIRED_ANIMATION_RATIO;
-
-            msUntilNextRandomValueUpdate = random.nextInt(5000) + 3000;
-        }
+    public int getIndex() {
+        return index;
     }
 
     /**
-     * Takes the elapsed time and uses it to calculate a new posOnTrack value.
+     * Gets the total distance traveled of the robot since the start of the
+     * application.
      */
-    public void calculateNewPosOnTrack(int msElapsed) {
-        posOnTrack += (trackRoundStep * msElapsed);
-        totalDistanceTravelled += (trackRoundStep * msElapsed);
-        while (posOnTrack > 1) {
-            posOnTrack -= 1;
-        }
+    public double getTotalDistanceTravelled() {
+        return totalDistanceTravelled;
     }
 
     /**
-     * Takes the elapsed time and uses it to calculate a new tAnim value.
+     * Gets the number of the robot, from 1 to 4, which selects the livery of
+     * its torso.
      */
-    public void calculateNewAnimValue(int msElapsed) {
-        tAnim += (msElapsed / 1000d) * tAnimModifier;
-        while (tAnim >= 10) {
-            tAnim -= 10;
-        }
+    public int getRobotNr() {
+        return robotNr;
     }
 
     /**
-     * Gets the total distance traveled of the robot since the start of the
-     * application.
+     * Gets the material from which this robot is built.
      */
-    public double getTotalDistanceTravelled() {
-        return totalDistanceTravelled;
+    public Material getMaterial() {
+        return material;
     }
 
     /**
-     * Gets the current value of tAnim. This value can be updated by calling
-     * calculateNewAnimValue.
+     * Gets the current value of tAnim. This value is updated by present.
      */
     public double getTAnim() {
-        return this.tAnim;
+        return tAnim;
     }
 
     /**
      * Gets the current position of the robot on the track. Guaranteed to be
-     * between 0 and 1. Can be updated by calling calculateNewPosOnTrack.
+     * between 0 and 1. This value is updated by present.
      *
      */
     public double getPosOnTrack() {
-        return this.posOnTrack;
+        return posOnTrack;
+    }
+
+    /**
+     * Gets the lane in which the robot runs.
+     */
+    public int getLane() {
+        return lane;
+    }
+
+    /**
+     * Takes the state of this robot for the frame that is drawn from the
+     * snapshot, interpolated between the previous and current tick by alpha.
+     */
+    public void present(RaceSnapshot snapshot, double alpha) {
+        lane = snapshot.getLane(index);
+        posOnTrack = snapshot.getPosOnTrack(index, alpha);
+        tAnim = snapshot.getTAnim(index, alpha);
+        totalDistanceTravelled = snapshot.getTotalDistanceTravelled(index, alpha);
     }
 
     /**
@@ -449,40 +435,83 @@ class Robot {
 
     /**
      * <p>
-     * Draws this robot (as a {@code stickfigure} if specified). The first step
-     * is translating the robot to its current position. If the boolean
-     * stickFigure is true the drawStickFigure method is called. Otherwise the
-     * robot proper is drawn by calling drawRobot.</p>
+     * Draws this robot. The first step is moving the reference frame to the
+     * current position of the robot, with its y axis along the direction of
+     * the robot. Then the robot proper is drawn by calling drawRobot.</p>
+     *
+     * <p>
+     * The parts are transformed on the body transforms in the same way as
+     * addStickFigure transforms the skeleton, the OpenGL matrix stack is only
+     * used to keep the modelview matrix of the caller.</p>
      */
-    public void draw(GL2 gl, GLU glu, GLUT glut, boolean stickFigure, double tAnim) {
+    public void draw(GL2 gl, GLU glu, GLUT glut, double tAnim) {
         calculateAnimValues(tAnim);
 
         gl.glPushMatrix();
 
         /**
-         * Translate 'to' the position of the robot
+         * Transform 'to' the position and direction of the robot.
          */
-        gl.glTranslated(position.x, position.y, position.z);
-
-        int additonalAngle = direction.y < 0 ? 180 : 0;
-
-        gl.glRotated((-Math.toDegrees(Math.atan(direction.x / direction.y))) + additonalAngle, 0, 0, 1);
+        bodyTransforms.loadIdentity();
+        bodyTransforms.multiplyTrackBasis(position, direction);
 
-        if (stickFigure) {
-            /**
-             * Sets the color to green for the stick figure.
-             */
-            gl.glColor3ub((byte) 0, (byte) 255, (byte) 0);
-            drawStickFigure(gl, glu, glut);
-        } else {
-            drawRobot(gl, glu, glut);
+        /**
+         * With the atlas every part is drawn from the same texture, the parts
+         * without a texture from its white cell.
+         */
+        if (RobotRace.robotAtlas.isAvailable()) {
+            materialState.texture(gl, RobotRace.robotAtlas.getTexture());
+            gl.glTexCoord2d(RobotAtlas.WHITE_S, RobotAtlas.WHITE_T);
         }
 
-        gl.glColor3f(0, 0, 0);
+        drawRobot(gl, glu, glut);
+
+        materialState.color(gl, 0, 0, 0);
         unsetSpecularMaterialValues(gl);
         gl.glPopMatrix();
     }
 
+    /**
+     * Draws this robot at the tAnim of the current frame, as an item of the
+     * render queue.
+     */
+    @Override
+    public void render(GL2 gl, GLU glu, GLUT glut) {
+        draw(gl, glu, glut, tAnim);
+    }
+
+    /**
+     * Adds the skeleton of this robot as a stick figure to the batch. The
+     * skeleton is transformed on the CPU in the same way draw transforms the
+     * robot proper, the batch draws the skeletons of all robots at once.
+     */
+    public void addStickFigure(StickFigureBatch batch, double tAnim) {
+        calculateAnimValues(tAnim);
+
+        MatrixStack transforms = batch.getTransforms();
+
+        transforms.loadIdentity();
+        transforms.multiplyTrackBasis(position, direction);
+
+        addStickLeg(batch, true);
+        addStickLeg(batch, false);
+        addStickBody(batch);
+        addStickArm(batch, true);
+        addStickArm(batch, false);
+        addStickHead(batch);
+    }
+
+    /**
+     * Replaces the modelview matrix by the modelview matrix of the caller of
+     * draw multiplied with the current body transform, so that the next part
+     * is drawn where the body transforms put it.
+     */
+    private void loadTransform(GL2 gl) {
+        gl.glPopMatrix();
+        gl.glPushMatrix();
+        gl.glMultMatrixf(bodyTransforms.getMatrices(), bodyTransforms.getOffset());
+    }
+
     /**
      * Draws the robot proper by drawing the geometry of the several robot
      * parts. These methods can be called in any order since they all expect the
@@ -517,92 +546,94 @@ class Robot {
      * leg.
      */
     private void drawRobotLeg(GL2 gl, GLU glu, GLUT glut, boolean leftLeg) {
-        gl.glPushMatrix();
+        bodyTransforms.pushMatrix();
 
         double translationOverXAxis = leftLeg ? -1 * DISTANCE_BETWEEN_LEG_AND_X_AXIS
                 : DISTANCE_BETWEEN_LEG_AND_X_AXIS;
 
-        gl.glTranslated(translationOverXAxis, 0, hipheight);
+        bodyTransforms.translate(translationOverXAxis, 0, hipheight);
 
-        gl.glRotated(180, 0, 1, 0);
+        bodyTransforms.rotate(180, 0, 1, 0);
 
         unsetSpecularMaterialValues(gl);
 
-        gl.glColor3fv(LIMB_COLOR, 0);
+        materialState.color(gl, LIMB_COLOR);
 
         if (!leftLegIsFrontLeg) {
             if (leftLegIsLeading) {
                 if (!leftLeg) {
-                    gl.glRotated(180 + beta, 1, 0, 0);
+                    bodyTransforms.rotate(180 + beta, 1, 0, 0);
                 }
             } else if (!leftLeg) {
-                gl.glRotated(180 + beta, 1, 0, 0);
+                bodyTransforms.rotate(180 + beta, 1, 0, 0);
             }
         } else if (leftLegIsLeading) {
             if (leftLeg) {
-                gl.glRotated(180 + alpha, 1, 0, 0);
+                bodyTransforms.rotate(180 + alpha, 1, 0, 0);
             }
         } else if (leftLeg) {
-            gl.glRotated(180 + alpha, 1, 0, 0);
+            bodyTransforms.rotate(180 + alpha, 1, 0, 0);
         }
 
+        loadTransform(gl);
         glut.glutSolidCylinder(ROBOT_LIMB_RADIUS, SKELETON_UPPER_LEG_HEIGHT, 16, 16);
 
-        gl.glTranslated(0, 0, SKELETON_UPPER_LEG_HEIGHT);
+        bodyTransforms.translate(0, 0, SKELETON_UPPER_LEG_HEIGHT);
 
         if (!leftLegIsFrontLeg) {
             if (leftLegIsLeading) {
                 if (leftLeg) {
-                    gl.glRotated(180 - alpha, 1, 0, 0);
+                    bodyTransforms.rotate(180 - alpha, 1, 0, 0);
                 } else {
-                    gl.glRotated(-beta + 180, 1, 0, 0);
+                    bodyTransforms.rotate(-beta + 180, 1, 0, 0);
                 }
             } else if (leftLeg) {
-                gl.glRotated(180 - alpha, 1, 0, 0);
+                bodyTransforms.rotate(180 - alpha, 1, 0, 0);
             } else {
-                gl.glRotated(-beta + 180, 1, 0, 0);
+                bodyTransforms.rotate(-beta + 180, 1, 0, 0);
             }
         } else if (leftLegIsLeading) {
             if (!leftLeg) {
-                gl.glRotated(180 - beta, 1, 0, 0);
+                bodyTransforms.rotate(180 - beta, 1, 0, 0);
             } else {
-                gl.glRotated(-alpha + 180, 1, 0, 0);
+                bodyTransforms.rotate(-alpha + 180, 1, 0, 0);
             }
         } else if (!leftLeg) {
-            gl.glRotated(180 - beta, 1, 0, 0);
+            bodyTransforms.rotate(180 - beta, 1, 0, 0);
         } else {
-            gl.glRotated(-alpha + 180, 1, 0, 0);
+            bodyTransforms.rotate(-alpha + 180, 1, 0, 0);
         }
 
+        loadTransform(gl);
         glut.glutSolidCylinder(ROBOT_LIMB_RADIUS, 0.1 * SIZE, 16, 16);
 
-        gl.glTranslated(0, 0, .1 * SIZE);
+        bodyTransforms.translate(0, 0, .1 * SIZE);
 
         if (!leftLegIsFrontLeg) {
             if (leftLegIsLeading) {
                 if (leftLeg) {
-                    gl.glRotated(alpha, 1, 0, 0);
+                    bodyTransforms.rotate(alpha, 1, 0, 0);
                 }
             } else if (leftLeg) {
-                gl.glRotated(alpha, 1, 0, 0);
+                bodyTransforms.rotate(alpha, 1, 0, 0);
             }
         } else if (leftLegIsLeading) {
             if (!leftLeg) {
-                gl.glRotated(beta, 1, 0, 0);
+                bodyTransforms.rotate(beta, 1, 0, 0);
             }
         } else if (!leftLeg) {
-            gl.glRotated(beta, 1, 0, 0);
+            bodyTransforms.rotate(beta, 1, 0, 0);
         }
 
         setRobotMaterialColor(gl);
 
         if (leftLeg && leftLegIsFrontLeg || !leftLeg && !leftLegIsFrontLeg) {
-            gl.glRotated(180, 0, 1, 0);
+            bodyTransforms.rotate(180, 0, 1, 0);
         } else {
 
         }
 
-        gl.glTranslated(0, 0, -(SHOE_HEIGHT + ANKLE_HEIGHT));
+        bodyTransforms.translate(0, 0, -(SHOE_HEIGHT + ANKLE_HEIGHT));
 
         drawShoe(gl, glu, glut, SIZE * .025);
 
@@ -610,25 +641,12 @@ class Robot {
 
         unsetSpecularMaterialValues(gl);
 
-        gl.glPopMatrix();
-    }
-
-    /**
-     * Draws the stick figure. Each method draws a specific version of the
-     * stickfigure. Order of drawing the elements is not important.
-     */
-    private void drawStickFigure(GL2 gl, GLU glu, GLUT glut) {
-        drawStickLeg(gl, glu, glut, true);
-        drawStickLeg(gl, glu, glut, false);
-        drawStickBody(gl, glu, glut);
-        drawStickArm(gl, glu, glut, true);
-        drawStickArm(gl, glu, glut, false);
-        drawStickHead(gl, glu, glut);
+        bodyTransforms.popMatrix();
     }
 
     /**
      * <p>
-     * Draws either the right or left stick leg. First the reference frame is
+     * Adds either the right or left stick leg. First the reference frame is
      * moved to the height of the hips. Based on the height of the hips
      * calculated at the start of the draw function.</p>
      *
@@ -648,92 +666,94 @@ class Robot {
      * @param leftSide Whether this stick leg is the left leg of the stick
      * figure. If this value is false it assumed it is the right leg.
      */
-    private void drawStickLeg(GL2 gl, GLU glu, GLUT glut, boolean leftLeg) {
-        gl.glPushMatrix();
+    private void addStickLeg(StickFigureBatch batch, boolean leftLeg) {
+        MatrixStack transforms = batch.getTransforms();
+
+        transforms.pushMatrix();
 
         double translationOverXAxis = leftLeg ? -1 * DISTANCE_BETWEEN_LEG_AND_X_AXIS
                 : DISTANCE_BETWEEN_LEG_AND_X_AXIS;
 
-        gl.glTranslated(translationOverXAxis, 0, hipheight);
+        transforms.translate(translationOverXAxis, 0, hipheight);
 
-        gl.glRotated(180, 0, 1, 0);
+        transforms.rotate(180, 0, 1, 0);
 
-        glut.glutSolidSphere(SKELETON_JOINT_RADIUS, 16, 16);
+        batch.joint();
 
         if (!leftLegIsFrontLeg) {
             if (leftLegIsLeading) {
                 if (!leftLeg) {
-                    gl.glRotated(180 + beta, 1, 0, 0);
+                    transforms.rotate(180 + beta, 1, 0, 0);
                 }
             } else if (!leftLeg) {
-                gl.glRotated(180 + beta, 1, 0, 0);
+                transforms.rotate(180 + beta, 1, 0, 0);
             }
         } else if (leftLegIsLeading) {
             if (leftLeg) {
-                gl.glRotated(180 + alpha, 1, 0, 0);
+                transforms.rotate(180 + alpha, 1, 0, 0);
             }
         } else if (leftLeg) {
-            gl.glRotated(180 + alpha, 1, 0, 0);
+            transforms.rotate(180 + alpha, 1, 0, 0);
         }
 
-        glut.glutSolidCylinder(SKELETON_LIMB_RADIUS, SKELETON_UPPER_LEG_HEIGHT, 16, 16);
+        batch.bone(SKELETON_UPPER_LEG_HEIGHT);
 
-        gl.glTranslated(0, 0, SKELETON_UPPER_LEG_HEIGHT);
+        transforms.translate(0, 0, SKELETON_UPPER_LEG_HEIGHT);
 
         if (!leftLegIsFrontLeg) {
             if (leftLegIsLeading) {
                 if (leftLeg) {
-                    gl.glRotated(180 - alpha, 1, 0, 0);
+                    transforms.rotate(180 - alpha, 1, 0, 0);
                 } else {
-                    gl.glRotated(-beta + 180, 1, 0, 0);
+                    transforms.rotate(-beta + 180, 1, 0, 0);
                 }
             } else if (leftLeg) {
-                gl.glRotated(180 - alpha, 1, 0, 0);
+                transforms.rotate(180 - alpha, 1, 0, 0);
             } else {
-                gl.glRotated(-beta + 180, 1, 0, 0);
+                transforms.rotate(-beta + 180, 1, 0, 0);
             }
         } else if (leftLegIsLeading) {
             if (!leftLeg) {
-                gl.glRotated(180 - beta, 1, 0, 0);
+                transforms.rotate(180 - beta, 1, 0, 0);
             } else {
-                gl.glRotated(-alpha + 180, 1, 0, 0);
+                transforms.rotate(-alpha + 180, 1, 0, 0);
             }
         } else if (!leftLeg) {
-            gl.glRotated(180 - beta, 1, 0, 0);
+            transforms.rotate(180 - beta, 1, 0, 0);
         } else {
-            gl.glRotated(-alpha + 180, 1, 0, 0);
+            transforms.rotate(-alpha + 180, 1, 0, 0);
         }
 
-        glut.glutSolidSphere(SKELETON_JOINT_RADIUS, 16, 16);
+        batch.joint();
 
-        glut.glutSolidCylinder(SKELETON_LIMB_RADIUS, SKELETON_LOWER_LEG_HEIGHT, 16, 16);
+        batch.bone(SKELETON_LOWER_LEG_HEIGHT);
 
-        gl.glTranslated(0, 0, SKELETON_LOWER_LEG_HEIGHT);
+        transforms.translate(0, 0, SKELETON_LOWER_LEG_HEIGHT);
 
         if (!leftLegIsFrontLeg) {
             if (leftLegIsLeading) {
                 if (leftLeg) {
-                    gl.glRotated(alpha, 1, 0, 0);
+                    transforms.rotate(alpha, 1, 0, 0);
                 }
             } else if (leftLeg) {
-                gl.glRotated(alpha, 1, 0, 0);
+                transforms.rotate(alpha, 1, 0, 0);
             }
         } else if (leftLegIsLeading) {
             if (!leftLeg) {
-                gl.glRotated(beta, 1, 0, 0);
+                transforms.rotate(beta, 1, 0, 0);
             }
         } else if (!leftLeg) {
-            gl.glRotated(beta, 1, 0, 0);
+            transforms.rotate(beta, 1, 0, 0);
         }
 
-        glut.glutSolidSphere(SKELETON_JOINT_RADIUS, 16, 16);
+        batch.joint();
 
-        gl.glPopMatrix();
+        transforms.popMatrix();
     }
 
     /**
      * <p>
-     * Draws the torso of the stick figure. First it draws the hipbone that
+     * Adds the torso of the stick figure. First it adds the hipbone that
      * connects the two hip joints with eachother. Then it draws the center
      * spine. On top of the center spine it draws the horizontal shoulder bone.
      * Attached to the shoulder bone are the two shoulder joints.</p>
@@ -744,51 +764,53 @@ class Robot {
      * wrapped in curly braces to make it clear which rotation and translation
      * are used for which skeleton parts.</p>
      */
-    private void drawStickBody(GL2 gl, GLU glu, GLUT glut) {
-        gl.glPushMatrix();
+    private void addStickBody(StickFigureBatch batch) {
+        MatrixStack transforms = batch.getTransforms();
+
+        transforms.pushMatrix();
         {
 
-            gl.glTranslated(0, 0, hipheight);
+            transforms.translate(0, 0, hipheight);
 
-            gl.glPushMatrix();
+            transforms.pushMatrix();
             {
 
-                gl.glTranslated(-1 * DISTANCE_BETWEEN_LEG_AND_X_AXIS, 0, 0);
+                transforms.translate(-1 * DISTANCE_BETWEEN_LEG_AND_X_AXIS, 0, 0);
 
-                gl.glRotated(90, 0, 1, 0);
+                transforms.rotate(90, 0, 1, 0);
 
-                glut.glutSolidCylinder(SKELETON_LIMB_RADIUS, SKELETON_HORIZONTAL_HIPBONE_LENGTH, 16, 16);
+                batch.bone(SKELETON_HORIZONTAL_HIPBONE_LENGTH);
 
             }
-            gl.glPopMatrix();
+            transforms.popMatrix();
 
-            glut.glutSolidCylinder(SKELETON_LIMB_RADIUS, SKELETON_BACKBONE_LENGTH, 16, 16);
+            batch.bone(SKELETON_BACKBONE_LENGTH);
 
-            gl.glTranslated(0, 0, SKELETON_BACKBONE_LENGTH);
+            transforms.translate(0, 0, SKELETON_BACKBONE_LENGTH);
 
-            gl.glPushMatrix();
+            transforms.pushMatrix();
             {
 
-                gl.glTranslated(-1 * DISTANCE_BETWEEN_SHOUDLER_AND_X_AXIS, 0, 0);
+                transforms.translate(-1 * DISTANCE_BETWEEN_SHOUDLER_AND_X_AXIS, 0, 0);
 
-                glut.glutSolidSphere(SKELETON_JOINT_RADIUS, 16, 16);
+                batch.joint();
 
-                gl.glRotated(90, 0, 1, 0);
+                transforms.rotate(90, 0, 1, 0);
 
-                glut.glutSolidCylinder(SKELETON_LIMB_RADIUS, SKELETON_HORIZONTAL_SHOULDER_LENGTH, 16, 16);
+                batch.bone(SKELETON_HORIZONTAL_SHOULDER_LENGTH);
 
-                gl.glTranslated(0, 0, .2 * SIZE);
+                transforms.translate(0, 0, .2 * SIZE);
 
-                glut.glutSolidSphere(SKELETON_JOINT_RADIUS, 16, 16);
+                batch.joint();
             }
-            gl.glPopMatrix();
+            transforms.popMatrix();
         }
-        gl.glPopMatrix();
+        transforms.popMatrix();
     }
 
     /**
      * <p>
-     * Draws the joint and bones of the stick arms. Starts from either the left
+     * Adds the joint and bones of the stick arms. Starts from either the left
      * or right shoulder joint and then works downward. Drawing and rotating to
      * draw the two arm skeletons and elbow and wrist joint. </p>
      *
@@ -800,16 +822,18 @@ class Robot {
      * @param leftArm Based on the value of this variable either the left or
      * right arm is drawn.
      */
-    private void drawStickArm(GL2 gl, GLU glu, GLUT glut, boolean leftArm) {
-        gl.glPushMatrix();
+    private void addStickArm(StickFigureBatch batch, boolean leftArm) {
+        MatrixStack transforms = batch.getTransforms();
+
+        transforms.pushMatrix();
 
         double xAxisTranslation = leftArm ? -DISTANCE_BETWEEN_SHOUDLER_AND_X_AXIS : DISTANCE_BETWEEN_SHOUDLER_AND_X_AXIS;
 
-        gl.glTranslated(xAxisTranslation, 0, shoulderJointHeight);
+        transforms.translate(xAxisTranslation, 0, shoulderJointHeight);
 
         double upperArmRotation = leftArm ? -ANGLE_BETWEEN_Y_AND_UPPER_ARM : ANGLE_BETWEEN_Y_AND_UPPER_ARM;
 
-        gl.glRotated(upperArmRotation, 0, 1, 0);
+        transforms.rotate(upperArmRotation, 0, 1, 0);
 
         if (leftArm) {
             if (!leftLegIsFrontLeg) {
@@ -823,28 +847,28 @@ class Robot {
             upperArmRotation = gamma;
         }
 
-        gl.glRotated(upperArmRotation, 1, 0, 0);
+        transforms.rotate(upperArmRotation, 1, 0, 0);
 
-        glut.glutSolidCylinder(SKELETON_LIMB_RADIUS, SKELETON_UPPER_ARM_LENGTH, 16, 16);
+        batch.bone(SKELETON_UPPER_ARM_LENGTH);
 
-        gl.glTranslated(0, 0, SKELETON_UPPER_ARM_LENGTH);
+        transforms.translate(0, 0, SKELETON_UPPER_ARM_LENGTH);
 
-        glut.glutSolidSphere(SKELETON_JOINT_RADIUS, 16, 16);
+        batch.joint();
 
-        gl.glRotated(ANGLE_BETWEEN_X_AND_LOWER_ARM, 1, 0, 0);
+        transforms.rotate(ANGLE_BETWEEN_X_AND_LOWER_ARM, 1, 0, 0);
 
-        glut.glutSolidCylinder(SKELETON_LIMB_RADIUS, SKELETON_LOWER_ARM_LENGTH, 16, 16);
+        batch.bone(SKELETON_LOWER_ARM_LENGTH);
 
-        gl.glTranslated(0, 0, SKELETON_LOWER_ARM_LENGTH);
+        transforms.translate(0, 0, SKELETON_LOWER_ARM_LENGTH);
 
-        glut.glutSolidSphere(SKELETON_JOINT_RADIUS, 16, 16);
+        batch.joint();
 
-        gl.glPopMatrix();
+        transforms.popMatrix();
     }
 
     /**
      * <p>
-     * Draws the joints that are present in the head. The head consists out of a
+     * Adds the joints that are present in the head. The head consists out of a
      * neck, a move-able jaw and move-able hair. It first draws the neck bone,
      * and on top of that a joint is drawn that represents the head movement. A
      * bit above the neck joint a jaw is attached. On the end of this jaw a
@@ -857,40 +881,42 @@ class Robot {
      * </p>
      *
      */
-    private void drawStickHead(GL2 gl, GLU glu, GLUT glut) {
-        gl.glPushMatrix();
+    private void addStickHead(StickFigureBatch batch) {
+        MatrixStack transforms = batch.getTransforms();
 
-        gl.glTranslated(0, 0, shoulderJointHeight);
+        transforms.pushMatrix();
 
-        glut.glutSolidCylinder(SKELETON_LIMB_RADIUS, SKELETON_NECK_BONE_LENGTH, 16, 16);
+        transforms.translate(0, 0, shoulderJointHeight);
 
-        gl.glTranslated(0, 0, SKELETON_NECK_BONE_LENGTH);
+        batch.bone(SKELETON_NECK_BONE_LENGTH);
 
-        glut.glutSolidSphere(SKELETON_JOINT_RADIUS, 32, 32);
+        transforms.translate(0, 0, SKELETON_NECK_BONE_LENGTH);
 
-        glut.glutSolidCylinder(SKELETON_LIMB_RADIUS, SKELETON_UPPER_NECK_TO_JAW_HEIGHT, 16, 16);
+        batch.joint();
 
-        gl.glTranslated(0, 0, SKELETON_UPPER_NECK_TO_JAW_HEIGHT);
+        batch.bone(SKELETON_UPPER_NECK_TO_JAW_HEIGHT);
 
-        gl.glPushMatrix();
+        transforms.translate(0, 0, SKELETON_UPPER_NECK_TO_JAW_HEIGHT);
+
+        transforms.pushMatrix();
         {
-            gl.glRotated(-90, 1, 0, 0);
+            transforms.rotate(-90, 1, 0, 0);
 
-            glut.glutSolidCylinder(SKELETON_LIMB_RADIUS, SKELETON_SPINE_TO_JAW_DISTANCE, 16, 16);
+            batch.bone(SKELETON_SPINE_TO_JAW_DISTANCE);
 
-            gl.glTranslated(0, 0, SKELETON_SPINE_TO_JAW_DISTANCE);
+            transforms.translate(0, 0, SKELETON_SPINE_TO_JAW_DISTANCE);
 
-            glut.glutSolidSphere(SKELETON_JOINT_RADIUS, 16, 16);
+            batch.joint();
         }
-        gl.glPopMatrix();
+        transforms.popMatrix();
 
-        glut.glutSolidCylinder(SKELETON_LIMB_RADIUS, SKELETON_JAW_TO_HAIR_HEIGHT, 16, 16);
+        batch.bone(SKELETON_JAW_TO_HAIR_HEIGHT);
 
-        gl.glTranslated(0, 0, SKELETON_JAW_TO_HAIR_HEIGHT);
+        transforms.translate(0, 0, SKELETON_JAW_TO_HAIR_HEIGHT);
 
-        glut.glutSolidSphere(SKELETON_JOINT_RADIUS, 16, 16);
+        batch.joint();
 
-        gl.glPopMatrix();
+        transforms.popMatrix();
     }
 
     /**
@@ -899,6 +925,7 @@ class Robot {
      * ankle.
      */
     private void drawAnkle(GL2 gl, GLU glu, GLUT glut) {
+        loadTransform(gl);
         glut.glutSolidCylinder(ANKLE_RADIUS, SHOE_HEIGHT + ANKLE_HEIGHT, 16, 16);
     }
 
@@ -926,11 +953,11 @@ class Robot {
      */
     private void drawShoe(GL2 gl, GLU glu, GLUT glut, double maxRadius) {
 
-        gl.glPushMatrix();
+        bodyTransforms.pushMatrix();
 
-        gl.glTranslated(0, 0, SHOE_HEIGHT);
+        bodyTransforms.translate(0, 0, SHOE_HEIGHT);
 
-        gl.glScaled(1, 2, 1);
+        bodyTransforms.scale(1, 2, 1);
 
         final int nrDivisions = 12;
         final double subdivionHeight = SHOE_HEIGHT * (1d / nrDivisions);
@@ -939,157 +966,47 @@ class Robot {
         for (int i = 1; i <= nrDivisions; i++) {
 
             if (i == nrDivisions - 1) {
-                gl.glColor3fv(SOLE_COLOR, 0);
+                materialState.color(gl, SOLE_COLOR);
                 unsetSpecularMaterialValues(gl);
             }
 
-            gl.glTranslated(0, 0, -subdivionHeight);
+            bodyTransforms.translate(0, 0, -subdivionHeight);
 
+            loadTransform(gl);
             glut.glutSolidCylinder(step * Math.sqrt(i), subdivionHeight, 16, 16);
         }
 
-        gl.glPopMatrix();
+        bodyTransforms.popMatrix();
     }
 
     /**
      * Moves up to the height of the hips, binds the torso texture, then draws
-     * three surfaces. First it draws the outside of the body (a cylinder) for
-     * that it uses a parametric definition defined in torsoPoint(u, v).
+     * the torso. The geometry of the torso never changes, it is generated once
+     * in TORSO_MESH and shared by all robots.
      *
-     * While drawing the outside it also maps the torso texture onto the body.
      * The torso texture is a strip of four textures, each texture for a
      * different robot. Based on the robotNumber (1 to 4) 1/4 of the texture is
-     * mapped onto both the front and back of the torso.
-     *
-     * After that the top and bottom of the torso are drawn to close the torso.
+     * mapped onto both the front and back of the torso, or the livery's cell
+     * of the robot atlas if the atlas is used.
      */
     private void drawUpperBody(GL2 gl, GLU glu, GLUT glut) {
-        gl.glPushMatrix();
-
-        gl.glTranslated(0, 0, hipheight);
-
-        RobotRace.torso.bind(gl);
-
-        setRobotMaterialColor(gl);
-
-        gl.glBegin(GL2.GL_QUAD_STRIP);
-
-        double steps = 1 / 20d;
-
-        for (int i = 0; i <= 20; i++) {
-            Vector lower = torsoPoint(i * steps, 0);
-            Vector upper = torsoPoint(i * steps, 1);
-
-            Vector lowerNormal = torsoTangentInUDirection(i * steps, 0).cross(torsoTangentInVDirection(i * steps, 0)).normalized();
-            Vector upperNormal = torsoTangentInUDirection(i * steps, 1).cross(torsoTangentInVDirection(i * steps, 1)).normalized();
-
-            double t = i;
-
-            if (t > 10) {
-                t -= 10;
-            }
-
-            gl.glNormal3d(lowerNormal.x, lowerNormal.y, lowerNormal.z);
-
-            gl.glTexCoord2d(((t / 10d) / 4d) + ((robotNr - 1d) / 4), 0);
-
-            gl.glVertex3d(lower.x, lower.y, lower.z);
+        bodyTransforms.pushMatrix();
 
-            gl.glNormal3d(upperNormal.x, upperNormal.y, upperNormal.z);
+        bodyTransforms.translate(0, 0, hipheight);
 
-            gl.glTexCoord2d(((t / 10d) / 4d) + ((robotNr - 1d) / 4), 1);
-
-            gl.glVertex3d(upper.x, upper.y, upper.z);
+        boolean atlas = RobotRace.robotAtlas.isAvailable();
+        if (!atlas) {
+            RobotRace.torso.bind(gl);
         }
 
-        gl.glEnd();
-
-        /**
-         * Bind a neutral texture to prevent the rest of the robot from being
-         * impacted.
-         */
-        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
-
-        gl.glBegin(GL2.GL_TRIANGLE_STRIP);
-
-        gl.glNormal3d(0, 0, 1);
-
-        for (int i = 0; i <= 20; i++) {
-            Vector edgePoint = torsoPoint(i * steps, 1);
-
-            gl.glVertex3d(edgePoint.x, edgePoint.y, edgePoint.z);
-
-            gl.glVertex3d(0, 0, TORSO_HEIGHT);
-        }
-
-        gl.glEnd();
-
-        gl.glBegin(GL2.GL_TRIANGLE_STRIP);
-        gl.glNormal3d(0, 0, -1);
-
-        for (int i = 0; i <= 20; i++) {
-            Vector edgePoint = torsoPoint(i * steps, 0);
-
-            gl.glVertex3d(edgePoint.x, edgePoint.y, edgePoint.z);
+        setRobotMaterialColor(gl);
 
-            gl.glVertex3d(0, 0, 0);
-        }
-
-        gl.glEnd();
+        loadTransform(gl);
+        TORSO_MESH.draw(gl, robotNr, atlas);
 
         unsetSpecularMaterialValues(gl);
 
-        gl.glPopMatrix();
-    }
-
-    /**
-     * Calculates a point on the cylinder surface of the torso of the robot. A
-     * standard parametric cylinder function is used. However, the radius of the
-     * drawn eclipse is decreased as v increases. This way, the effect of a body
-     * that is wider at the hips is mimicked.
-     *
-     * A is the maximum radius on the X axis at V is 0. D is how much A
-     * decreases as V increases. Until at V is 1 the radius of the torso on the
-     * X axis is LOWER_TORSO_RADIUS.
-     *
-     * @param u A value from 0 to 1
-     * @param v A value from 0 to 1
-     * @return A point on the torso.
-     */
-    private Vector torsoPoint(double u, double v) {
-        double a = LOWER_TORSO_RADIUS;
-
-        double d = LOWER_TORSO_RADIUS - UPPER_TORSO_RADIUS;
-
-        return new Vector((a - d * v) * Math.cos(2 * Math.PI * u), .6666 * (a - d * v) * Math.sin(2 * Math.PI * u), TORSO_HEIGHT * v);
-    }
-
-    /**
-     * Derivative of the torsoPoint function w.r.t to the U parameter.
-     *
-     * @param u
-     * @param v
-     * @return
-     */
-    private Vector torsoTangentInUDirection(double u, double v) {
-        double a = LOWER_TORSO_RADIUS;
-        double d = LOWER_TORSO_RADIUS - UPPER_TORSO_RADIUS;
-
-        return new Vector(-2 * Math.PI * (a - d * v) * Math.sin(2 * Math.PI * u), .666 * 2 * Math.PI * (a - d * v) * Math.cos(2 * Math.PI * u), 0);
-    }
-
-    /**
-     * Derivative of the torsoPoint function w.r.t. to the V parameter.
-     *
-     * @param u
-     * @param v
-     * @return
-     */
-    private Vector torsoTangentInVDirection(double u, double v) {
-        double a = LOWER_TORSO_RADIUS;
-        double d = LOWER_TORSO_RADIUS - UPPER_TORSO_RADIUS;
-
-        return new Vector(-d * Math.cos(2 * Math.PI * u), -.666 * d * Math.sin(2 * Math.PI * u), TORSO_HEIGHT);
+        bodyTransforms.popMatrix();
     }
 
     /**
@@ -1106,18 +1023,19 @@ class Robot {
      * @param height Total height of the cup in meters.
      */
     private void drawSolidCup(GL2 gl, GLU glu, GLUT glut, double bottomRadius, double upperRadius, double height) {
-        gl.glPushMatrix();
+        bodyTransforms.pushMatrix();
 
         final int nrDivisions = 10;
         final double subdivisionHeight = height / nrDivisions;
         final double step = (bottomRadius - upperRadius) / nrDivisions;
 
         for (int i = 0; i < nrDivisions; i++) {
-            gl.glTranslated(0, 0, -subdivisionHeight);
+            bodyTransforms.translate(0, 0, -subdivisionHeight);
+            loadTransform(gl);
             glut.glutSolidCylinder(upperRadius + step * i, subdivisionHeight, 16, 16);
         }
 
-        gl.glPopMatrix();
+        bodyTransforms.popMatrix();
     }
 
     /**
@@ -1139,32 +1057,28 @@ class Robot {
      * rotation and different length.</p>
      */
     private void drawRobotHair(GL2 gl, GLU glu, GLUT glut) {
-        gl.glPushMatrix();
+        bodyTransforms.pushMatrix();
 
-        gl.glColor3fv(ROBOT_HAIR_COLOR, 0);
+        materialState.color(gl, ROBOT_HAIR_COLOR);
 
-        gl.glTranslated(0, 0, 0.1 * SIZE);
+        bodyTransforms.translate(0, 0, 0.1 * SIZE);
 
+        loadTransform(gl);
         glut.glutSolidSphere(0.025 * SIZE, 16, 16);
 
-        List<Vector> hairStrands = new ArrayList<>();
+        for (int i = 0; i < HAIR_STRANDS.length; i += 3) {
+            bodyTransforms.pushMatrix();
 
-        hairStrands.add(new Vector(0, 0, 0.1 * SIZE));
-        hairStrands.add(new Vector(30, 15, .08 * SIZE));
-        hairStrands.add(new Vector(20, -35, 0.1 * SIZE));
+            bodyTransforms.rotate(HAIR_STRANDS[i], 1, 0, 0);
+            bodyTransforms.rotate(HAIR_STRANDS[i + 1], 0, 1, 0);
 
-        for (Vector hair : hairStrands) {
-            gl.glPushMatrix();
+            loadTransform(gl);
+            glut.glutSolidCylinder(0.005 * SIZE, HAIR_STRANDS[i + 2], 8, 8);
 
-            gl.glRotated(hair.x, 1, 0, 0);
-            gl.glRotated(hair.y, 0, 1, 0);
-
-            glut.glutSolidCylinder(0.005 * SIZE, hair.z, 8, 8);
-
-            gl.glPopMatrix();
+            bodyTransforms.popMatrix();
         }
 
-        gl.glPopMatrix();
+        bodyTransforms.popMatrix();
     }
 
     /**
@@ -1183,14 +1097,14 @@ class Robot {
      * right arm is drawn.
      */
     private void drawRobotArm(GL2 gl, GLU glu, GLUT glut, boolean leftArm) {
-        gl.glPushMatrix();
+        bodyTransforms.pushMatrix();
 
         double xTranslation = leftArm ? -DISTANCE_BETWEEN_SHOUDLER_AND_X_AXIS : DISTANCE_BETWEEN_SHOUDLER_AND_X_AXIS;
         double armRotation = leftArm ? 45 : -45;
 
-        gl.glTranslated(xTranslation, 0, shoulderJointHeight);
+        bodyTransforms.translate(xTranslation, 0, shoulderJointHeight);
 
-        gl.glRotated(armRotation, 0, 1, 0);
+        bodyTransforms.rotate(armRotation, 0, 1, 0);
 
         if (leftArm) {
             if (!leftLegIsFrontLeg) {
@@ -1204,28 +1118,31 @@ class Robot {
             armRotation = gamma;
         }
 
-        gl.glRotated(armRotation, 1, 0, 0);
+        bodyTransforms.rotate(armRotation, 1, 0, 0);
 
         setRobotMaterialColor(gl);
 
         drawSolidCup(gl, glu, glut, ROBOT_LIMB_RADIUS * 2, ROBOT_LIMB_RADIUS, SKELETON_UPPER_ARM_LENGTH / 2);
 
         unsetSpecularMaterialValues(gl);
-        gl.glColor3fv(LIMB_COLOR, 0);
+        materialState.color(gl, LIMB_COLOR);
 
-        gl.glTranslated(0, 0, -.15 * SIZE);
+        bodyTransforms.translate(0, 0, -.15 * SIZE);
 
+        loadTransform(gl);
         glut.glutSolidCylinder(ROBOT_LIMB_RADIUS, SKELETON_UPPER_ARM_LENGTH / 2, 16, 16);
 
-        gl.glRotated(ANGLE_BETWEEN_X_AND_LOWER_ARM, 1, 0, 0);
+        bodyTransforms.rotate(ANGLE_BETWEEN_X_AND_LOWER_ARM, 1, 0, 0);
 
+        loadTransform(gl);
         glut.glutSolidCylinder(ROBOT_LIMB_RADIUS, SKELETON_LOWER_ARM_LENGTH, 16, 16);
 
-        gl.glTranslated(0, 0, SKELETON_LOWER_ARM_LENGTH);
+        bodyTransforms.translate(0, 0, SKELETON_LOWER_ARM_LENGTH);
 
+        loadTransform(gl);
         glut.glutSolidSphere(ROBOT_LIMB_RADIUS * 2, 16, 16);
 
-        gl.glPopMatrix();
+        bodyTransforms.popMatrix();
     }
 
     /**
@@ -1241,91 +1158,100 @@ class Robot {
      *
      */
     private void drawRobotHead(GL2 gl, GLU glu, GLUT glut) {
-        gl.glPushMatrix();
+        bodyTransforms.pushMatrix();
 
-        gl.glTranslated(0, 0, shoulderHeight);
+        bodyTransforms.translate(0, 0, shoulderHeight);
 
+        loadTransform(gl);
         glut.glutSolidCylinder(ROBOT_LIMB_RADIUS, NECK_LENGTH, 16, 16);
 
-        gl.glTranslated(0, 0, .15 * SIZE);
+        bodyTransforms.translate(0, 0, .15 * SIZE);
 
-        gl.glColor3f(1, 1, 1);
+        materialState.color(gl, 1, 1, 1);
 
-        RobotRace.head.bind(gl);
+        boolean atlas = RobotRace.robotAtlas.isAvailable();
+        if (!atlas) {
+            RobotRace.head.bind(gl);
+        }
 
+        loadTransform(gl);
         gl.glBegin(GL2.GL_QUADS);
 
         gl.glNormal3d(0, 1, 0);
 
-        gl.glTexCoord2d(1, 1);
+        headTexCoord(gl, atlas, 1, 1);
         gl.glVertex3d(-.1 * SIZE, .1 * SIZE, .1 * SIZE);
-        gl.glTexCoord2d(0, 1);
+        headTexCoord(gl, atlas, 0, 1);
         gl.glVertex3d(.1 * SIZE, .1 * SIZE, .1 * SIZE);
-        gl.glTexCoord2d(0, 0);
+        headTexCoord(gl, atlas, 0, 0);
         gl.glVertex3d(.1 * SIZE, .1 * SIZE, -.1 * SIZE);
-        gl.glTexCoord2d(1, 0);
+        headTexCoord(gl, atlas, 1, 0);
         gl.glVertex3d(-.1 * SIZE, .1 * SIZE, -.1 * SIZE);
 
         gl.glNormal3d(1, 0, 0);
 
-        gl.glTexCoord2d(1, 1);
+        headTexCoord(gl, atlas, 1, 1);
         gl.glVertex3d(.1 * SIZE, .1 * SIZE, .1 * SIZE);
-        gl.glTexCoord2d(0, 1);
+        headTexCoord(gl, atlas, 0, 1);
         gl.glVertex3d(.1 * SIZE, -.1 * SIZE, .1 * SIZE);
-        gl.glTexCoord2d(0, 0);
+        headTexCoord(gl, atlas, 0, 0);
         gl.glVertex3d(.1 * SIZE, -.1 * SIZE, -.1 * SIZE);
-        gl.glTexCoord2d(1, 0);
+        headTexCoord(gl, atlas, 1, 0);
         gl.glVertex3d(.1 * SIZE, .1 * SIZE, -.1 * SIZE);
 
         gl.glNormal3d(0, -1, 0);
 
-        gl.glTexCoord2d(1, 1);
+        headTexCoord(gl, atlas, 1, 1);
         gl.glVertex3d(-.1 * SIZE, -.1 * SIZE, .1 * SIZE);
-        gl.glTexCoord2d(0, 1);
+        headTexCoord(gl, atlas, 0, 1);
         gl.glVertex3d(.1 * SIZE, -.1 * SIZE, .1 * SIZE);
-        gl.glTexCoord2d(0, 0);
+        headTexCoord(gl, atlas, 0, 0);
         gl.glVertex3d(.1 * SIZE, -.1 * SIZE, -.1 * SIZE);
-        gl.glTexCoord2d(1, 0);
+        headTexCoord(gl, atlas, 1, 0);
         gl.glVertex3d(-.1 * SIZE, -.1 * SIZE, -.1 * SIZE);
 
         gl.glNormal3d(-1, 0, 0);
 
-        gl.glTexCoord2d(1, 1);
+        headTexCoord(gl, atlas, 1, 1);
         gl.glVertex3d(-.1 * SIZE, .1 * SIZE, .1 * SIZE);
-        gl.glTexCoord2d(0, 1);
+        headTexCoord(gl, atlas, 0, 1);
         gl.glVertex3d(-.1 * SIZE, -.1 * SIZE, .1 * SIZE);
-        gl.glTexCoord2d(0, 0);
+        headTexCoord(gl, atlas, 0, 0);
         gl.glVertex3d(-.1 * SIZE, -.1 * SIZE, -.1 * SIZE);
-        gl.glTexCoord2d(1, 0);
+        headTexCoord(gl, atlas, 1, 0);
         gl.glVertex3d(-.1 * SIZE, .1 * SIZE, -.1 * SIZE);
 
         gl.glNormal3d(0, 0, 1);
 
-        gl.glTexCoord2d(1, 1);
+        headTexCoord(gl, atlas, 1, 1);
         gl.glVertex3d(-.1 * SIZE, .1 * SIZE, .1 * SIZE);
-        gl.glTexCoord2d(0, 1);
+        headTexCoord(gl, atlas, 0, 1);
         gl.glVertex3d(-.1 * SIZE, -.1 * SIZE, .1 * SIZE);
-        gl.glTexCoord2d(0, 0);
+        headTexCoord(gl, atlas, 0, 0);
         gl.glVertex3d(.1 * SIZE, -.1 * SIZE, .1 * SIZE);
-        gl.glTexCoord2d(1, 0);
+        headTexCoord(gl, atlas, 1, 0);
         gl.glVertex3d(.1 * SIZE, .1 * SIZE, .1 * SIZE);
 
         gl.glNormal3d(0, 0, -1);
 
-        gl.glTexCoord2d(1, 1);
+        headTexCoord(gl, atlas, 1, 1);
         gl.glVertex3d(-.1 * SIZE, .1 * SIZE, -.1 * SIZE);
-        gl.glTexCoord2d(0, 1);
+        headTexCoord(gl, atlas, 0, 1);
         gl.glVertex3d(-.1 * SIZE, -.1 * SIZE, -.1 * SIZE);
-        gl.glTexCoord2d(0, 0);
+        headTexCoord(gl, atlas, 0, 0);
         gl.glVertex3d(.1 * SIZE, -.1 * SIZE, -.1 * SIZE);
-        gl.glTexCoord2d(1, 0);
+        headTexCoord(gl, atlas, 1, 0);
         gl.glVertex3d(.1 * SIZE, .1 * SIZE, -.1 * SIZE);
 
         gl.glEnd();
 
-        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+        if (atlas) {
+            gl.glTexCoord2d(RobotAtlas.WHITE_S, RobotAtlas.WHITE_T);
+        } else {
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+        }
 
-        gl.glColor3fv(ROBOT_HEAD_COLOR, 0);
+        materialState.color(gl, ROBOT_HEAD_COLOR);
         
         drawEar(gl, glu, glut, true);
         drawEar(gl, glu, glut, false);
@@ -1335,7 +1261,19 @@ class Robot {
 
         drawRobotHair(gl, glu, glut);
 
-        gl.glPopMatrix();
+        bodyTransforms.popMatrix();
+    }
+
+    /**
+     * Sets the texture coordinates of a corner of the head, in the head cell
+     * of the robot atlas if the atlas is used.
+     */
+    private static void headTexCoord(GL2 gl, boolean atlas, double s, double t) {
+        if (atlas) {
+            gl.glTexCoord2d(RobotAtlas.s(RobotAtlas.HEAD, s), RobotAtlas.t(RobotAtlas.HEAD, t));
+        } else {
+            gl.glTexCoord2d(s, t);
+        }
     }
 
     /**
@@ -1349,16 +1287,16 @@ class Robot {
         double translationXAxis = leftEar ? -0.125 * SIZE : .125 * SIZE;
         double rotationYAxis = leftEar ? -90 : 90;
 
-        gl.glColor3fv(LIMB_COLOR, 0);
+        materialState.color(gl, LIMB_COLOR);
 
-        gl.glPushMatrix();
+        bodyTransforms.pushMatrix();
 
-        gl.glTranslated(translationXAxis, 0, 0);
-        gl.glRotated(rotationYAxis, 0, 1, 0);
+        bodyTransforms.translate(translationXAxis, 0, 0);
+        bodyTransforms.rotate(rotationYAxis, 0, 1, 0);
 
         drawSolidCup(gl, glu, glut, .05 * SIZE, .025 * SIZE, .025 * SIZE);
 
-        gl.glPopMatrix();
+        bodyTransforms.popMatrix();
 
     }
 
@@ -1379,28 +1317,30 @@ class Robot {
         double translationXAxis = leftEye ? -.04 * SIZE : .04 * SIZE;
         double rotationXAxis = -90;
 
-        gl.glPushMatrix();
+        bodyTransforms.pushMatrix();
 
-        gl.glTranslated(translationXAxis, .1 * SIZE, .025 * SIZE);
+        bodyTransforms.translate(translationXAxis, .1 * SIZE, .025 * SIZE);
 
-        gl.glRotated(rotationXAxis, 1, 0, 0);
+        bodyTransforms.rotate(rotationXAxis, 1, 0, 0);
 
-        gl.glColor3f(1, 1, 1);
+        materialState.color(gl, 1, 1, 1);
 
-        gl.glPushMatrix();
+        bodyTransforms.pushMatrix();
         {
-            gl.glScaled(1, 2, 1);
+            bodyTransforms.scale(1, 2, 1);
+            loadTransform(gl);
             glut.glutSolidCylinder(0.018 * SIZE, 0.0125 * SIZE, 16, 16);
         }
-        gl.glPopMatrix();
+        bodyTransforms.popMatrix();
 
-        gl.glColor3f(0, 0, 0);
+        materialState.color(gl, 0, 0, 0);
 
-        gl.glTranslated(0, .01 * SIZE, .0125 * SIZE);
+        bodyTransforms.translate(0, .01 * SIZE, .0125 * SIZE);
 
+        loadTransform(gl);
         glut.glutSolidSphere(.01 * SIZE, 16, 16);
 
-        gl.glPopMatrix();
+        bodyTransforms.popMatrix();
     }
 
     /**
@@ -1408,9 +1348,7 @@ class Robot {
      * color.
      */
     private void setRobotMaterialColor(GL2 gl) {
-        gl.glColor3f(material.diffuse[0], material.diffuse[1], material.diffuse[2]);
-        gl.glMaterialfv(GL.GL_FRONT, GLLightingFunc.GL_SPECULAR, material.specular, 0);
-        gl.glMaterialf(GL.GL_FRONT_AND_BACK, GLLightingFunc.GL_SHININESS, material.shininess);
+        materialState.material(gl, material);
     }
 
     /**
@@ -1420,10 +1358,7 @@ class Robot {
      * @param gl
      */
     private void unsetSpecularMaterialValues(GL2 gl) {
-        gl.glMaterialfv(GL.GL_FRONT, GLLightingFunc.GL_SPECULAR, new float[]{
-            0, 0, 0
-        }, 0);
-        gl.glMaterialf(GL.GL_FRONT_AND_BACK, GLLightingFunc.GL_SHININESS, 0);
+        materialState.noSpecular(gl);
     }
 
 }
@@ -0,0 +1,206 @@
+package robotrace;
+
+import com.jogamp.opengl.util.texture.Texture;
+import javax.media.opengl.GL2;
+
+/**
+ * One texture holding every texture a robot uses: the head, the four torso
+ * liveries and a white cell for the untextured parts. A robot binds it once,
+ * and as every robot binds the same texture the render queue can draw all
+ * robots of a frame without rebinding.
+ *
+ * The atlas is a grid of cells of CELL_SIZE texels. Every image is drawn
+ * into the inner part of its cell, within a gutter of GUTTER texels that
+ * holds the same image stretched over the whole cell, so neighbouring cells
+ * do not bleed into each other at the mipmap levels that are used. The
+ * texture coordinates of the meshes are mapped into the cells when they are
+ * built, with s and t; the livery of a robot is selected by its cell.
+ *
+ * The untextured parts of a robot are drawn with the texture coordinates of
+ * the white cell, WHITE_S and WHITE_T, so the texture does not have to be
+ * unbound for them.
+ *
+ * The atlas is rendered from the loaded textures with a framebuffer object.
+ * Without framebuffer objects it is not available and robots bind the head
+ * and torso textures as before.
+ */
+class RobotAtlas {
+
+    /**
+     * Cells of the images.
+     */
+    static final int HEAD = 0;
+    static final int FIRST_LIVERY = 1;
+    static final int WHITE = FIRST_LIVERY + TorsoMesh.LIVERIES;
+
+    /**
+     * Size of a cell in texels, and of the gutter around its image.
+     */
+    private static final int CELL_SIZE = 256;
+    private static final int GUTTER = 8;
+
+    /**
+     * Number of columns and rows of cells.
+     */
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 2;
+
+    /**
+     * Highest mipmap level, at which the gutter is half a texel wide.
+     */
+    private static final int MAX_LEVEL = 4;
+
+    /**
+     * Texture coordinates of the center of the white cell.
+     */
+    static final double WHITE_S = s(WHITE, .5);
+    static final double WHITE_T = t(WHITE, .5);
+
+    /**
+     * The texture, 0 if the atlas is not available.
+     */
+    private int texture;
+
+    /**
+     * Maps the s coordinate u from 0 to 1 within the image of the cell to the
+     * s coordinate in the atlas.
+     */
+    static double s(int cell, double u) {
+        double left = (cell % COLUMNS) * CELL_SIZE + GUTTER;
+        return (left + u * (CELL_SIZE - 2 * GUTTER)) / (COLUMNS * CELL_SIZE);
+    }
+
+    /**
+     * Maps the t coordinate v from 0 to 1 within the image of the cell to the
+     * t coordinate in the atlas.
+     */
+    static double t(int cell, double v) {
+        double bottom = (cell / COLUMNS) * CELL_SIZE + GUTTER;
+        return (bottom + v * (CELL_SIZE - 2 * GUTTER)) / (ROWS * CELL_SIZE);
+    }
+
+    /**
+     * Renders the atlas from the head texture and the torso texture, a strip
+     * of the four liveries side by side. Should be called from initialize
+     * after the textures are loaded.
+     */
+    public void build(GL2 gl, Texture head, Texture torso) {
+        if (!gl.hasFullFBOSupport() || head == null || torso == null) {
+            System.err.println("Robot texture atlas not available, robots bind their textures separately");
+            return;
+        }
+
+        int width = COLUMNS * CELL_SIZE;
+        int height = ROWS * CELL_SIZE;
+
+        int[] ids = new int[1];
+        gl.glGenTextures(1, ids, 0);
+        int atlas = ids[0];
+
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, atlas);
+        gl.glTexImage2D(GL2.GL_TEXTURE_2D, 0, GL2.GL_RGBA8, width, height, 0, GL2.GL_RGBA, GL2.GL_UNSIGNED_BYTE, null);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MIN_FILTER, GL2.GL_LINEAR_MIPMAP_LINEAR);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_S, GL2.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAX_LEVEL, MAX_LEVEL);
+
+        gl.glGenFramebuffers(1, ids, 0);
+        int framebuffer = ids[0];
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, framebuffer);
+        gl.glFramebufferTexture2D(GL2.GL_FRAMEBUFFER, GL2.GL_COLOR_ATTACHMENT0, GL2.GL_TEXTURE_2D, atlas, 0);
+
+        if (gl.glCheckFramebufferStatus(GL2.GL_FRAMEBUFFER) == GL2.GL_FRAMEBUFFER_COMPLETE) {
+            gl.glPushAttrib(GL2.GL_ALL_ATTRIB_BITS);
+            gl.glDisable(GL2.GL_LIGHTING);
+            gl.glDisable(GL2.GL_DEPTH_TEST);
+            gl.glDisable(GL2.GL_BLEND);
+            gl.glEnable(GL2.GL_TEXTURE_2D);
+            gl.glColor3f(1f, 1f, 1f);
+
+            gl.glMatrixMode(GL2.GL_PROJECTION);
+            gl.glPushMatrix();
+            gl.glLoadIdentity();
+            gl.glOrtho(0, 1, 0, 1, -1, 1);
+            gl.glMatrixMode(GL2.GL_MODELVIEW);
+            gl.glPushMatrix();
+            gl.glLoadIdentity();
+
+            gl.glViewport(0, 0, width, height);
+            gl.glClearColor(1f, 1f, 1f, 1f);
+            gl.glClear(GL2.GL_COLOR_BUFFER_BIT);
+
+            drawCell(gl, head, HEAD, 0, 1);
+            for (int livery = 0; livery < TorsoMesh.LIVERIES; livery++) {
+                drawCell(gl, torso, FIRST_LIVERY + livery,
+                        (double) livery / TorsoMesh.LIVERIES, (livery + 1d) / TorsoMesh.LIVERIES);
+            }
+
+            gl.glMatrixMode(GL2.GL_PROJECTION);
+            gl.glPopMatrix();
+            gl.glMatrixMode(GL2.GL_MODELVIEW);
+            gl.glPopMatrix();
+            gl.glPopAttrib();
+
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, atlas);
+            gl.glGenerateMipmap(GL2.GL_TEXTURE_2D);
+            texture = atlas;
+        } else {
+            System.err.println("Robot texture atlas framebuffer incomplete, robots bind their textures separately");
+            gl.glDeleteTextures(1, ids, 0);
+        }
+
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, 0);
+        ids[0] = framebuffer;
+        gl.glDeleteFramebuffers(1, ids, 0);
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Draws the part of the texture from s0 to s1 into the cell, stretched
+     * over the whole cell for the gutter and then into the inner part.
+     */
+    private static void drawCell(GL2 gl, Texture source, int cell, double s0, double s1) {
+        int x = (cell % COLUMNS) * CELL_SIZE;
+        int y = (cell / COLUMNS) * CELL_SIZE;
+
+        source.bind(gl);
+
+        gl.glViewport(x, y, CELL_SIZE, CELL_SIZE);
+        drawQuad(gl, s0, s1);
+
+        gl.glViewport(x + GUTTER, y + GUTTER, CELL_SIZE - 2 * GUTTER, CELL_SIZE - 2 * GUTTER);
+        drawQuad(gl, s0, s1);
+    }
+
+    /**
+     * Draws a quad over the whole viewport with the s coordinates from s0 to
+     * s1 and the t coordinates from 0 to 1.
+     */
+    private static void drawQuad(GL2 gl, double s0, double s1) {
+        gl.glBegin(GL2.GL_QUADS);
+        gl.glTexCoord2d(s0, 0);
+        gl.glVertex2d(0, 0);
+        gl.glTexCoord2d(s1, 0);
+        gl.glVertex2d(1, 0);
+        gl.glTexCoord2d(s1, 1);
+        gl.glVertex2d(1, 1);
+        gl.glTexCoord2d(s0, 1);
+        gl.glVertex2d(0, 1);
+        gl.glEnd();
+    }
+
+    /**
+     * Returns whether the atlas was built.
+     */
+    public boolean isAvailable() {
+        return texture != 0;
+    }
+
+    /**
+     * Returns the texture of the atlas.
+     */
+    public int getTexture() {
+        return texture;
+    }
+}
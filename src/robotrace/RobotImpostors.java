@@ -0,0 +1,389 @@
+package robotrace;
+
+import com.jogamp.opengl.util.gl2.GLUT;
+import java.nio.FloatBuffer;
+import javax.media.opengl.GL2;
+import javax.media.opengl.glu.GLU;
+
+/**
+ * Draws distant robots as camera facing billboards instead of the full robot
+ * geometry.
+ *
+ * During initialization the robot proper is rendered into a texture atlas
+ * once for every combination of material and torso livery in the race. The
+ * columns of an atlas contain the robot seen from several angles around it,
+ * the rows contain several phases of the walking animation. A distant robot
+ * is drawn as a single textured quad that shows the frame closest to the
+ * current viewing angle and animation phase. All quads of one atlas are
+ * drawn with a single call.
+ *
+ * Every frame is rendered into the inner part of its cell, within a
+ * transparent gutter of GUTTER texels, and the mipmaps stop at MAX_LEVEL, so
+ * neighbouring frames do not bleed into each other at the mipmap levels that
+ * are used.
+ */
+class RobotImpostors {
+
+    /**
+     * Robots further away from the camera than this distance in meters are
+     * drawn as an impostor.
+     */
+    static final double IMPOSTOR_DISTANCE = 35;
+
+    /**
+     * Number of viewing angles around the robot stored in an atlas.
+     */
+    private static final int VIEW_ANGLES = 16;
+
+    /**
+     * Number of phases of the walking animation stored in an atlas.
+     */
+    private static final int ANIMATION_PHASES = 8;
+
+    /**
+     * Size in pixels of a single frame in the atlas.
+     */
+    private static final int FRAME_SIZE = 64;
+
+    /**
+     * Size in pixels of the transparent border around the robot in a frame.
+     */
+    private static final int GUTTER = 4;
+
+    /**
+     * Highest mipmap level, at which the gutter is half a texel wide.
+     */
+    private static final int MAX_LEVEL = 3;
+
+    /**
+     * Half of the width of the area around the robot that is captured in a
+     * frame. The captured area is square, and the robot is two meters tall.
+     */
+    private static final double HALF_FRAME_EXTENT = 1.1;
+
+    /**
+     * Height of the center of a frame above the feet of the robot.
+     */
+    private static final double FRAME_CENTER_HEIGHT = 1.05;
+
+    /**
+     * Number of floats per vertex, two texture coordinates and a position.
+     */
+    private static final int FLOATS_PER_VERTEX = 5;
+
+    /**
+     * Atlas texture for every combination of material and livery, indexed by
+     * atlasOf. Zero while the atlases are not built and for combinations that
+     * are not in the race.
+     */
+    private final int[] atlases = new int[Material.values().length * TorsoMesh.LIVERIES];
+
+    /**
+     * Interleaved texture coordinates and vertices of the quads of the current
+     * frame, one buffer per atlas.
+     */
+    private final FloatBuffer[] quads = new FloatBuffer[atlases.length];
+
+    /**
+     * Whether the atlases were built successfully.
+     */
+    private boolean available;
+
+    /**
+     * Tracker of the color and material state, used by the template robots.
+     */
+    private final MaterialState materialState;
+
+    /**
+     * Creates the impostor renderer, the atlases are built by build.
+     */
+    public RobotImpostors(MaterialState materialState) {
+        this.materialState = materialState;
+
+        for (int i = 0; i < quads.length; i++) {
+            quads[i] = DirectBuffers.allocate(16 * 4 * FLOATS_PER_VERTEX);
+        }
+    }
+
+    /**
+     * Returns whether the atlases are available. If they are not, for instance
+     * because framebuffer objects are not supported, robots should be drawn in
+     * full.
+     */
+    public boolean isAvailable() {
+        return available;
+    }
+
+    /**
+     * Returns whether the robot is far enough from the eye to be drawn as an
+     * impostor.
+     */
+    public boolean isDistant(Robot robot, Vec3 eye) {
+        double dx = robot.position.x - eye.x;
+        double dy = robot.position.y - eye.y;
+        double dz = robot.position.z - eye.z;
+
+        return available && atlases[atlasOf(robot)] != 0
+                && dx * dx + dy * dy + dz * dz > IMPOSTOR_DISTANCE * IMPOSTOR_DISTANCE;
+    }
+
+    /**
+     * Returns the index of the atlas of the material and livery of the robot.
+     */
+    private static int atlasOf(Robot robot) {
+        return robot.getMaterial().ordinal() * TorsoMesh.LIVERIES + robot.getRobotNr() - 1;
+    }
+
+    /**
+     * Renders the atlases for the materials and liveries of the robots into
+     * textures using a framebuffer object. The robots are lit by a fixed light
+     * from the front top, because the lighting is baked into the atlas. Should
+     * be called after the robot textures are loaded.
+     */
+    public void build(GL2 gl, GLU glu, GLUT glut, Robot[] robots) {
+        if (!gl.hasFullFBOSupport()) {
+            System.err.println("Framebuffer objects not supported, impostors disabled");
+            return;
+        }
+
+        int width = VIEW_ANGLES * FRAME_SIZE;
+        int height = ANIMATION_PHASES * FRAME_SIZE;
+
+        int[] ids = new int[1];
+
+        gl.glGenFramebuffers(1, ids, 0);
+        int framebuffer = ids[0];
+
+        gl.glGenRenderbuffers(1, ids, 0);
+        int depthbuffer = ids[0];
+
+        gl.glBindRenderbuffer(GL2.GL_RENDERBUFFER, depthbuffer);
+        gl.glRenderbufferStorage(GL2.GL_RENDERBUFFER, GL2.GL_DEPTH_COMPONENT24, width, height);
+
+        gl.glPushAttrib(GL2.GL_ALL_ATTRIB_BITS);
+
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glOrtho(-HALF_FRAME_EXTENT, HALF_FRAME_EXTENT, -HALF_FRAME_EXTENT, HALF_FRAME_EXTENT, 0.1, 20);
+
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPushMatrix();
+
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, framebuffer);
+        gl.glFramebufferRenderbuffer(GL2.GL_FRAMEBUFFER, GL2.GL_DEPTH_ATTACHMENT, GL2.GL_RENDERBUFFER, depthbuffer);
+
+        available = true;
+
+        for (Robot template : robots) {
+            if (atlases[atlasOf(template)] != 0) {
+                continue;
+            }
+
+            gl.glGenTextures(1, ids, 0);
+            int atlas = ids[0];
+            atlases[atlasOf(template)] = atlas;
+
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, atlas);
+            gl.glTexImage2D(GL2.GL_TEXTURE_2D, 0, GL2.GL_RGBA8, width, height, 0, GL2.GL_RGBA, GL2.GL_UNSIGNED_BYTE, null);
+            gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MIN_FILTER, GL2.GL_LINEAR_MIPMAP_LINEAR);
+            gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR);
+            gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAX_LEVEL, MAX_LEVEL);
+            gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_S, GL2.GL_CLAMP_TO_EDGE);
+            gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP_TO_EDGE);
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+
+            gl.glFramebufferTexture2D(GL2.GL_FRAMEBUFFER, GL2.GL_COLOR_ATTACHMENT0, GL2.GL_TEXTURE_2D, atlas, 0);
+
+            if (gl.glCheckFramebufferStatus(GL2.GL_FRAMEBUFFER) != GL2.GL_FRAMEBUFFER_COMPLETE) {
+                System.err.println("Impostor framebuffer incomplete, impostors disabled");
+                available = false;
+                break;
+            }
+
+            renderAtlas(gl, glu, glut, template.getMaterial(), template.getRobotNr());
+
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, atlas);
+            gl.glGenerateMipmap(GL2.GL_TEXTURE_2D);
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+        }
+
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, 0);
+
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPopMatrix();
+
+        gl.glPopAttrib();
+        materialState.invalidate();
+
+        ids[0] = framebuffer;
+        gl.glDeleteFramebuffers(1, ids, 0);
+        ids[0] = depthbuffer;
+        gl.glDeleteRenderbuffers(1, ids, 0);
+    }
+
+    /**
+     * Renders all frames of the atlas of one material and livery into the
+     * bound framebuffer. The robot stands at the origin facing the y axis, the
+     * eye is moved around it in the horizontal plane.
+     */
+    private void renderAtlas(GL2 gl, GLU glu, GLUT glut, Material material, int robotNr) {
+        Robot robot = new Robot(material, new Vector(0, 0, 0), robotNr, 0, materialState);
+        robot.direction.set(0, 1, 0);
+
+        gl.glViewport(0, 0, VIEW_ANGLES * FRAME_SIZE, ANIMATION_PHASES * FRAME_SIZE);
+        gl.glClearColor(0f, 0f, 0f, 0f);
+        gl.glClear(GL2.GL_COLOR_BUFFER_BIT | GL2.GL_DEPTH_BUFFER_BIT);
+
+        for (int phase = 0; phase < ANIMATION_PHASES; phase++) {
+            double tAnim = (phase + .5d) * 10d / ANIMATION_PHASES;
+
+            for (int angle = 0; angle < VIEW_ANGLES; angle++) {
+                double azimuth = 2 * Math.PI * angle / VIEW_ANGLES;
+
+                gl.glViewport(angle * FRAME_SIZE + GUTTER, phase * FRAME_SIZE + GUTTER,
+                        FRAME_SIZE - 2 * GUTTER, FRAME_SIZE - 2 * GUTTER);
+
+                gl.glLoadIdentity();
+                glu.gluLookAt(5 * Math.sin(azimuth), 5 * Math.cos(azimuth), FRAME_CENTER_HEIGHT,
+                        0, 0, FRAME_CENTER_HEIGHT,
+                        0, 0, 1);
+
+                gl.glLightfv(GL2.GL_LIGHT0, GL2.GL_POSITION, new float[]{0f, 1f, 1f, 0f}, 0);
+
+                robot.draw(gl, glu, glut, tAnim);
+            }
+        }
+    }
+
+    /**
+     * Empties the impostor batch so that the robots of a new frame can be
+     * added.
+     */
+    public void clear() {
+        for (FloatBuffer buffer : quads) {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Adds a billboard for the robot to the batch. The billboard rotates around
+     * the vertical axis to face the eye, and shows the frame of the atlas that
+     * best matches the angle from which the robot is seen and the phase of the
+     * walking animation.
+     */
+    public void add(Robot robot, Vec3 eye, double tAnim) {
+        double toEyeX = eye.x - robot.position.x;
+        double toEyeY = eye.y - robot.position.y;
+        double toEyeLength = Math.sqrt(toEyeX * toEyeX + toEyeY * toEyeY);
+
+        if (toEyeLength == 0) {
+            return;
+        }
+        toEyeX /= toEyeLength;
+        toEyeY /= toEyeLength;
+
+        double directionLength = Math.sqrt(robot.direction.x * robot.direction.x + robot.direction.y * robot.direction.y);
+        double forwardX = robot.direction.x / directionLength;
+        double forwardY = robot.direction.y / directionLength;
+
+        // Angle of the eye around the robot, measured from the front towards the right side.
+        double azimuth = Math.atan2(toEyeX * forwardY - toEyeY * forwardX, toEyeX * forwardX + toEyeY * forwardY);
+
+        int angle = (int) Math.round(azimuth / (2 * Math.PI) * VIEW_ANGLES);
+        angle = ((angle % VIEW_ANGLES) + VIEW_ANGLES) % VIEW_ANGLES;
+
+        int phase = Math.min(ANIMATION_PHASES - 1, (int) (tAnim / 10d * ANIMATION_PHASES));
+
+        float s0 = (float) (angle * FRAME_SIZE + GUTTER) / (VIEW_ANGLES * FRAME_SIZE);
+        float s1 = (float) ((angle + 1) * FRAME_SIZE - GUTTER) / (VIEW_ANGLES * FRAME_SIZE);
+        float t0 = (float) (phase * FRAME_SIZE + GUTTER) / (ANIMATION_PHASES * FRAME_SIZE);
+        float t1 = (float) ((phase + 1) * FRAME_SIZE - GUTTER) / (ANIMATION_PHASES * FRAME_SIZE);
+
+        // Right vector of the eye as seen from the billboard.
+        double rightX = -toEyeY * HALF_FRAME_EXTENT;
+        double rightY = toEyeX * HALF_FRAME_EXTENT;
+
+        double bottom = robot.position.z + FRAME_CENTER_HEIGHT - HALF_FRAME_EXTENT;
+        double top = robot.position.z + FRAME_CENTER_HEIGHT + HALF_FRAME_EXTENT;
+
+        int index = atlasOf(robot);
+        FloatBuffer buffer = quads[index];
+
+        if (buffer.remaining() < 4 * FLOATS_PER_VERTEX) {
+            buffer = grow(buffer);
+            quads[index] = buffer;
+        }
+
+        putVertex(buffer, s0, t0, robot.position.x - rightX, robot.position.y - rightY, bottom);
+        putVertex(buffer, s1, t0, robot.position.x + rightX, robot.position.y + rightY, bottom);
+        putVertex(buffer, s1, t1, robot.position.x + rightX, robot.position.y + rightY, top);
+        putVertex(buffer, s0, t1, robot.position.x - rightX, robot.position.y - rightY, top);
+    }
+
+    /**
+     * Draws the billboards of all robots added since the last clear, one draw
+     * call per atlas. The lighting is already part of the atlas, so the
+     * billboards are drawn unlit. Transparent parts of the frames are discarded
+     * using the alpha test so they do not write to the depth buffer.
+     */
+    public void draw(GL2 gl) {
+        gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT | GL2.GL_COLOR_BUFFER_BIT);
+
+        gl.glDisable(GL2.GL_LIGHTING);
+        gl.glEnable(GL2.GL_TEXTURE_2D);
+        gl.glEnable(GL2.GL_ALPHA_TEST);
+        gl.glAlphaFunc(GL2.GL_GREATER, .5f);
+        gl.glColor3f(1f, 1f, 1f);
+
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+
+        for (int i = 0; i < quads.length; i++) {
+            FloatBuffer buffer = quads[i];
+            int vertices = buffer.position() / FLOATS_PER_VERTEX;
+
+            if (vertices == 0) {
+                continue;
+            }
+
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, atlases[i]);
+
+            buffer.position(0);
+            gl.glTexCoordPointer(2, GL2.GL_FLOAT, FLOATS_PER_VERTEX * 4, buffer);
+            buffer.position(2);
+            gl.glVertexPointer(3, GL2.GL_FLOAT, FLOATS_PER_VERTEX * 4, buffer);
+            gl.glDrawArrays(GL2.GL_QUADS, 0, vertices);
+            buffer.position(vertices * FLOATS_PER_VERTEX);
+        }
+
+        gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+        gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+
+        gl.glPopAttrib();
+    }
+
+    /**
+     * Puts one vertex with its texture coordinates in the buffer.
+     */
+    private static void putVertex(FloatBuffer buffer, float s, float t, double x, double y, double z) {
+        buffer.put(s).put(t).put((float) x).put((float) y).put((float) z);
+    }
+
+    /**
+     * Returns a new buffer with twice the capacity of the given buffer that
+     * contains all values written so far.
+     */
+    private static FloatBuffer grow(FloatBuffer buffer) {
+        FloatBuffer grown = DirectBuffers.allocate(buffer.capacity() * 2);
+
+        buffer.flip();
+        grown.put(buffer);
+
+        return grown;
+    }
+}
@@ -1,9 +1,14 @@
 package robotrace;
 
 import com.jogamp.opengl.util.gl2.GLUT;
+import com.jogamp.opengl.util.texture.Texture;
+import java.awt.KeyboardFocusManager;
+import java.awt.event.KeyEvent;
+import java.io.IOException;
 import java.nio.FloatBuffer;
 import java.util.Arrays;
-import java.util.Random;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import javax.media.opengl.GL;
 import javax.media.opengl.GL2;
 import static javax.media.opengl.GL2.*;
@@ -46,23 +51,46 @@ import static javax.media.opengl.fixedfunc.GLLightingFunc.GL_SPECULAR;
 public class RobotRace extends Base {
 
     /**
-     * Last time in milliseconds that the scene got updated, this time is used
-     * to calculate the time that passed between scene updates so that the
-     * animation and robot progress along the track can be calculated.
+     * Materials of the robots, robot i is built from material i modulo the
+     * number of materials.
      */
-    private long lastSceneUpdateTime = System.currentTimeMillis();
+    private static final Material[] ROBOT_MATERIALS = {
+        Material.WOOD, Material.SILVER, Material.GOLD, Material.ORANGE
+    };
 
     /**
-     * Random instance shared by the four different robots, used by the robots
-     * to calculate random speed changes.
+     * Texture holding the head and torso textures of all robots, built in
+     * initialize.
      */
-    private final Random random;
+    static final RobotAtlas robotAtlas = new RobotAtlas();
 
     /**
-     * Array of the four robots.
+     * Thread that runs the simulation of the race, or plays back a replay, at
+     * a fixed tick rate and publishes the snapshots the robots are drawn from.
+     */
+    private final TickThread raceThread;
+
+    /**
+     * Array of the robots, used to draw them.
      */
     private final Robot[] robots;
 
+    /**
+     * The robots as a list, passed to the camera every frame.
+     */
+    private final List<Robot> robotList;
+
+    /**
+     * Ranking of the robots on the distance they traveled, updated every
+     * frame and used by the camera and the standings overlay.
+     */
+    private final Leaderboard leaderboard;
+
+    /**
+     * Overlay showing the standings, or null if they are not shown.
+     */
+    private final StandingsOverlay standings;
+
     /**
      * Instance of the camera.
      */
@@ -79,33 +107,274 @@ public class RobotRace extends Base {
     private final Terrain terrain;
 
     /**
-     * Constructs this robot race by initializing robots, camera, track, and
-     * terrain.
+     * Batch in which the skeletons of all robots are collected when the robots
+     * are shown as stick figures.
+     */
+    private final StickFigureBatch stickFigures;
+
+    /**
+     * Billboards used instead of the full robot for distant robots.
+     */
+    private final RobotImpostors impostors;
+
+    /**
+     * Queue in which the draw items of a frame are collected and sorted on
+     * state before they are drawn.
+     */
+    private final RenderQueue renderQueue = new RenderQueue();
+
+    /**
+     * Draw items of the stick figure batch, the impostors, the race track and
+     * the terrain surface, added to the render queue every frame.
+     */
+    private final RenderQueue.Item stickFigureItem;
+    private final RenderQueue.Item impostorItem;
+    private final RenderQueue.Item trackItem;
+    private final RenderQueue.Item terrainItem;
+
+    /**
+     * Renderer that draws the terrain and the race track with shaders, or
+     * null if they are drawn with the fixed-function pipeline.
+     */
+    private ShaderRenderer shaderRenderer;
+
+    /**
+     * View frustum of the current frame, against which the robots, trees,
+     * terrain tiles and track segments are culled.
+     */
+    private final Frustum frustum = new Frustum();
+
+    /**
+     * Buffers into which the projection and modelview matrices are read to
+     * set the frustum.
+     */
+    private final float[] projectionMatrix = new float[16];
+    private final float[] modelViewMatrix = new float[16];
+
+    /**
+     * Direction of the light and the buffer through which it is passed to
+     * OpenGL, reused every frame.
+     */
+    private final Vec3 lightPosition = new Vec3();
+    private final float[] lightPos = new float[4];
+
+    /**
+     * Tracker of the color and material state set by the robots, used to skip
+     * calls that would not change the state.
+     */
+    private final MaterialState materialState = new MaterialState();
+
+    /**
+     * Timers of the stages of a frame.
+     */
+    private final FrameProfiler profiler;
+
+    /**
+     * Options with which the race was started.
+     */
+    private final LaunchOptions options;
+
+    /**
+     * Whether statistics are printed once per second.
+     */
+    private final boolean printStats;
+
+    /**
+     * System.nanoTime at which the statistics were last printed.
+     */
+    private long lastStatsTime = System.nanoTime();
+
+    /**
+     * Number of frames drawn since the statistics were last printed.
+     */
+    private int framesSinceStats;
+
+    /**
+     * Number of simulation ticks and time spent in them when the statistics
+     * were last printed.
+     */
+    private long ticksAtStats;
+    private long stepNanosAtStats;
+
+    /**
+     * Constructs this robot race with four robots.
      */
     public RobotRace() {
+        this(new LaunchOptions());
+    }
+
+    /**
+     * Constructs this robot race by initializing robots, camera, track, and
+     * terrain. The robots are spread evenly over the lanes of the track.
+     */
+    public RobotRace(LaunchOptions options) {
         
-        random = new Random();
+        this.options = options;
+        printStats = options.stats;
+        profiler = new FrameProfiler(options.profile, options.gpuTimers, options.overlay, options.profileCsv);
+
+        gs.trackNr = options.track;
+        gs.camMode = options.cameraMode;
 
-        // Create a new array of four robots
-        robots = new Robot[4];
+        raceThread = options.replayFile != null ? createReplayThread(options) : createSimulationThread(options);
 
-        // Initialize robot 0
-        robots[0] = new Robot(Material.WOOD, new Vector(-2, 0, 0), 1, random);
+        // Create the robots, each with its own livery on the torso
+        robots = new Robot[raceThread.getSnapshot().getRobotCount()];
 
-        // Initialize robot 1
-        robots[1] = new Robot(Material.SILVER, new Vector(-1, 0, 0), 2, random);
+        for (int i = 0; i < robots.length; i++) {
+            robots[i] = new Robot(ROBOT_MATERIALS[i % ROBOT_MATERIALS.length],
+                    new Vector(0, 0, 0), (i % 4) + 1, i, materialState);
+        }
 
-        // Initialize robot 2
-        robots[2] = new Robot(Material.GOLD, new Vector(1, 0, 0), 3, random);
+        robotList = Arrays.asList(robots);
 
-        // Initialize robot 3
-        robots[3] = new Robot(Material.ORANGE, new Vector(2, 0, 0), 4, random);
+        leaderboard = new Leaderboard(robots.length);
+        standings = options.standings ? new StandingsOverlay() : null;
 
         // Initialize the camera
         camera = new Camera();
 
         // Initialize the race tracks
-        raceTracks = new RaceTrack[5];
+        raceTracks = createRaceTracks();
+
+        // Initialize the terrain
+        terrain = new Terrain();
+
+        // Initialize the stick figure batch
+        stickFigures = new StickFigureBatch(robots.length);
+
+        // Initialize the impostors, the atlases are rendered in initialize
+        impostors = new RobotImpostors(materialState);
+
+        stickFigureItem = (gl, glu, glut) -> stickFigures.draw(gl);
+        impostorItem = (gl, glu, glut) -> impostors.draw(gl);
+        trackItem = (gl, glu, glut) -> {
+            if (shaderRenderer != null && shaderRenderer.canDrawTrack()) {
+                shaderRenderer.drawTrack(gl, raceTracks[gs.trackNr]);
+            } else {
+                raceTracks[gs.trackNr].draw(gl, glu, glut, track, brick);
+            }
+        };
+        terrainItem = (gl, glu, glut) -> {
+            if (shaderRenderer != null) {
+                shaderRenderer.drawTerrain(gl, terrain);
+            } else {
+                terrain.drawSurface(gl);
+            }
+        };
+    }
+
+    /**
+     * Creates the thread that simulates the race, recording it if a record
+     * file is given and exporting it if a telemetry destination is given.
+     * With --stats the seed is printed, so the race can be run again.
+     */
+    private static SimulationThread createSimulationThread(LaunchOptions options) {
+        if (options.stats) {
+            System.out.println("Race seed " + options.seed);
+        }
+
+        RaceSimulation simulation = new RaceSimulation(
+                RaceSimulation.spreadOverLanes(options.robotCount, RaceTrack.NUMBER_OF_LANES), options.seed);
+
+        SimulationThread thread = new SimulationThread(simulation, new ForkJoinPool(options.threads));
+
+        if (options.recordFile != null) {
+            try {
+                thread.setRecorder(ReplayWriter.create(options.recordFile, simulation, options.seed));
+            } catch (IOException e) {
+                System.err.println("Could not record to " + options.recordFile + ": " + e.getMessage());
+            }
+        }
+
+        if (options.telemetry != null) {
+            try {
+                thread.setTelemetry(TelemetrySink.open(options.telemetry, simulation.getRobotCount()));
+            } catch (IOException e) {
+                System.err.println("Could not export telemetry to " + options.telemetry + ": " + e.getMessage());
+            }
+        }
+
+        return thread;
+    }
+
+    /**
+     * Creates the thread that plays back the replay file, and the keys that
+     * jump through it.
+     */
+    private static ReplayThread createReplayThread(LaunchOptions options) {
+        ReplayReader replay;
+        try {
+            replay = new ReplayReader(options.replayFile);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read " + options.replayFile + ": " + e.getMessage());
+        }
+
+        System.out.println("Replaying race seed " + replay.getSeed() + " from " + options.replayFile);
+
+        ReplayThread thread = new ReplayThread(replay,
+                (long) options.replayStartSeconds * 1000 / TickThread.TICK_MS);
+
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(e -> {
+            if (e.getID() == KeyEvent.KEY_PRESSED) {
+                seekReplay(thread, e.getKeyCode());
+            }
+            return false;
+        });
+
+        return thread;
+    }
+
+    /**
+     * Jumps through the replay if the key is one of the replay keys.
+     */
+    private static void seekReplay(ReplayThread thread, int keyCode) {
+        long second = 1000 / TickThread.TICK_MS;
+
+        switch (keyCode) {
+            case KeyEvent.VK_LEFT:
+                thread.skip(-10 * second);
+                break;
+
+            case KeyEvent.VK_RIGHT:
+                thread.skip(10 * second);
+                break;
+
+            case KeyEvent.VK_PAGE_UP:
+                thread.skip(60 * second);
+                break;
+
+            case KeyEvent.VK_PAGE_DOWN:
+                thread.skip(-60 * second);
+                break;
+
+            case KeyEvent.VK_HOME:
+                thread.seek(0);
+                break;
+
+            case KeyEvent.VK_END:
+                thread.seek(thread.getLastTick());
+                break;
+        }
+    }
+
+    /**
+     * Advances the race by the given number of ticks on the calling thread.
+     * Only used by the render benchmark, which does not start the simulation
+     * thread so that every run draws the same frames.
+     */
+    void advanceSimulation(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            raceThread.advance();
+        }
+    }
+
+    /**
+     * Creates the test track and the four spline tracks, indexed by the track
+     * number of the global state.
+     */
+    static RaceTrack[] createRaceTracks() {
+        RaceTrack[] raceTracks = new RaceTrack[5];
 
         // Test track
         raceTracks[0] = new RaceTrack();
@@ -151,8 +420,7 @@ public class RobotRace extends Base {
             new Vector(-8, 24, 1), new Vector(24, 8, 1), new Vector(0, 0, 1)
         });
 
-        // Initialize the terrain
-        terrain = new Terrain();
+        return raceTracks;
     }
 
     /**
@@ -191,11 +459,32 @@ public class RobotRace extends Base {
         gl.glHint(GL_PERSPECTIVE_CORRECTION_HINT, GL_NICEST);
         gl.glBindTexture(GL_TEXTURE_2D, 0);
 
-        // Try to load four textures, add more if you like.
-        track = loadTexture("track.jpg");
-        brick = loadTexture("brick.jpg");
-        head = loadTexture("head.jpg");
-        torso = loadTexture("torso.jpg");
+        FrameRate.applySwapInterval(gl, options);
+
+        profiler.initialize(gl);
+
+        // Load four textures with mipmaps, decoded in parallel or from the cache.
+        Texture[] textures = new TextureCache(options.textureCache, options.compressTextures)
+                .load(gl, "track.jpg", "brick.jpg", "head.jpg", "torso.jpg");
+        track = textures[0];
+        brick = textures[1];
+        head = textures[2];
+        torso = textures[3];
+
+        // Pack the robot textures into one, so robots never rebind.
+        robotAtlas.build(gl, head, torso);
+
+        if (options.shaderRenderer) {
+            if (ShaderRenderer.isSupported(gl)) {
+                shaderRenderer = new ShaderRenderer();
+                shaderRenderer.initialize(gl, track, brick);
+            } else {
+                System.err.println("OpenGL 3.3 not supported, using the fixed-function renderer");
+            }
+        }
+
+        // Render the robots into the impostor atlases, uses the textures.
+        impostors.build(gl, glu, glut, robots);
 
         /**
          * Sets the shade model to smooth. See
@@ -212,6 +501,11 @@ public class RobotRace extends Base {
         gs.phi = (float) Math.PI / 3f;
 
         gs.vDist = 21;
+
+        // Start the race once everything is set up, unless a benchmark steps it.
+        if (options.benchmarkFrames == 0 && raceThread.getState() == Thread.State.NEW) {
+            raceThread.start();
+        }
     }
 
     /**
@@ -219,6 +513,13 @@ public class RobotRace extends Base {
      */
     @Override
     public void setView() {
+        profiler.begin(FrameProfiler.FRAME);
+
+        // The camera follows the robots, so take their state for this frame first.
+        profiler.begin(FrameProfiler.PRESENT);
+        presentSnapshot();
+        profiler.end(FrameProfiler.PRESENT);
+
         // Select part of window.
         gl.glViewport(0, 0, gs.w, gs.h);
 
@@ -246,10 +547,17 @@ public class RobotRace extends Base {
 
         // Update the view according to the camera mode and robot of interest.
         // For camera modes 1 to 4, determine which robot to focus on.
-        camera.update(gs, Arrays.asList(robots));
-        glu.gluLookAt(camera.eye.x(), camera.eye.y(), camera.eye.z(),
-                camera.center.x(), camera.center.y(), camera.center.z(),
-                camera.up.x(), camera.up.y(), camera.up.z());
+        profiler.begin(FrameProfiler.CAMERA);
+        camera.update(gs, robotList, leaderboard);
+        profiler.end(FrameProfiler.CAMERA);
+        glu.gluLookAt(camera.eye.x, camera.eye.y, camera.eye.z,
+                camera.center.x, camera.center.y, camera.center.z,
+                camera.up.x, camera.up.y, camera.up.z);
+
+        // Both matrices are final now, derive the frustum from them.
+        gl.glGetFloatv(GL_PROJECTION_MATRIX, projectionMatrix, 0);
+        gl.glGetFloatv(GL_MODELVIEW_MATRIX, modelViewMatrix, 0);
+        frustum.set(projectionMatrix, modelViewMatrix);
 
         /**
          * Calculates the position of the point, using the theta and phi of the
@@ -258,17 +566,40 @@ public class RobotRace extends Base {
          */
         double tenDegreesInRad = (10d * Math.PI) / 180d;
 
-        Vector lightPosition = sphericalToCoords(gs.theta - tenDegreesInRad, Math.PI / 2 - (gs.phi + tenDegreesInRad), 1);
+        sphericalToCoords(gs.theta - tenDegreesInRad, Math.PI / 2 - (gs.phi + tenDegreesInRad), 1, lightPosition);
 
         /**
          * Position of the light source, the last field is set to zero so that
          * the light source is directional (comes from infinity).
          */
-        float[] lightPos = {(float) lightPosition.x, (float) lightPosition.y, (float) lightPosition.z, 0f};
+        lightPos[0] = (float) lightPosition.x;
+        lightPos[1] = (float) lightPosition.y;
+        lightPos[2] = (float) lightPosition.z;
+        lightPos[3] = 0f;
 
         gl.glLightfv(GL_LIGHT0, GL_POSITION, lightPos, 0);
     }
 
+    /**
+     * Sets the state of every robot for this frame from the latest snapshot of
+     * the simulation, interpolated between the last two ticks depending on the
+     * time since the snapshot was published. If the simulation is stepped by
+     * a benchmark instead of its thread, the latest tick is shown as is. The
+     * leaderboard is then brought up to date with the new distances.
+     */
+    private void presentSnapshot() {
+        RaceSnapshot snapshot = raceThread.getSnapshot();
+        double alpha = raceThread.isAlive()
+                ? snapshot.alphaAt(System.nanoTime(), TickThread.TICK_NANOS) : 1;
+
+        for (Robot rob : robots) {
+            rob.present(snapshot, alpha);
+            leaderboard.set(rob.getIndex(), rob.getTotalDistanceTravelled());
+        }
+
+        leaderboard.reorder();
+    }
+
     /**
      * Draws the entire scene.
      */
@@ -294,33 +625,118 @@ public class RobotRace extends Base {
             drawAxisFrame();
         }
 
-        /**
-         * Used to calculate the time in ms between each draw cycle. 
-         * timeSinceLastSceneUpdate is used in the Robot class to update the
-         * animation and tracklocation variables.
-         */
-        int timeSinceLastSceneUpdate;
-        timeSinceLastSceneUpdate = Math.toIntExact(System.currentTimeMillis() - this.lastSceneUpdateTime);
-        lastSceneUpdateTime = System.currentTimeMillis();
+        profiler.begin(FrameProfiler.SCENE);
+
+        stickFigures.clear();
+        impostors.clear();
+        renderQueue.clear();
+        frustum.resetCounts();
+
+        Vec3 eye = camera.eye;
+
+        for (Robot rob : robots) {
+            int lane = rob.getLane();
 
-        for (int i = 1; i <= 4; i++) {
-            Robot rob = robots[i - 1];
+            raceTracks[gs.trackNr].getLanePoint(lane, rob.getPosOnTrack(), rob.position);
+            raceTracks[gs.trackNr].getLaneTangent(lane, rob.getPosOnTrack(), rob.direction);
 
-            rob.calculateNewPosOnTrack(timeSinceLastSceneUpdate);
-            rob.calculateNewAnimValue(timeSinceLastSceneUpdate);
-            rob.determineNewAnimationVariables(timeSinceLastSceneUpdate);
+            if (!frustum.isSphereVisible(Frustum.ROBOTS, rob.position.x, rob.position.y,
+                    rob.position.z + Robot.BOUNDS_CENTER_HEIGHT, Robot.BOUNDS_RADIUS)) {
+                continue;
+            }
 
-            rob.position = raceTracks[gs.trackNr].getLanePoint(i, rob.getPosOnTrack());
-            rob.direction = raceTracks[gs.trackNr].getLaneTangent(i, rob.getPosOnTrack());
-            rob.draw(gl, glu, glut, gs.showStick, rob.getTAnim());
+            if (gs.showStick) {
+                rob.addStickFigure(stickFigures, rob.getTAnim());
+            } else if (impostors.isDistant(rob, eye)) {
+                impostors.add(rob, eye, rob.getTAnim());
+            } else {
+                // Robots of the same material are drawn together, front to back.
+                double dx = rob.position.x - eye.x;
+                double dy = rob.position.y - eye.y;
+                double dz = rob.position.z - eye.z;
 
+                renderQueue.addOpaque(rob, RenderQueue.TEXTURE_2D, FrameProfiler.ROBOTS,
+                        rob.getMaterial().ordinal(), Math.sqrt(dx * dx + dy * dy + dz * dz));
+            }
         }
 
-        // Draw the race track.
-        raceTracks[gs.trackNr].draw(gl, glu, glut, track, brick);
+        // The skeletons of all stick figures and the billboards of all distant
+        // robots are each drawn at once.
+        if (gs.showStick) {
+            renderQueue.addOpaque(stickFigureItem, RenderQueue.UNTEXTURED, FrameProfiler.STICK_FIGURES, 0, 0);
+        }
+        renderQueue.addOpaque(impostorItem, RenderQueue.TEXTURE_2D, FrameProfiler.IMPOSTORS, 0, 0);
+
+        // The track and terrain only draw their segments and tiles in view.
+        if (raceTracks[gs.trackNr].cullSegments(frustum) > 0) {
+            renderQueue.addOpaque(trackItem, RenderQueue.TEXTURE_2D, FrameProfiler.TRACK, 0, 0);
+        }
+
+        if (terrain.cullTiles(frustum) > 0) {
+            renderQueue.addOpaque(terrainItem, RenderQueue.TEXTURE_1D, FrameProfiler.TERRAIN, 0,
+                    terrain.getSurfaceDistance(eye));
+        }
+
+        // The terrain adds its trees in view and the transparent water.
+        terrain.addTreesAndWater(renderQueue, eye, frustum);
+
+        profiler.end(FrameProfiler.SCENE);
+
+        // Other code may have changed the color since the last frame.
+        materialState.invalidate();
+
+        renderQueue.render(gl, glu, glut, profiler);
+
+        profiler.endFrame(gl);
 
-        // Draw the terrain.
-        terrain.draw(gl, glu, glut);
+        profiler.drawOverlay(gl, glut, gs.w, gs.h, frustum);
+
+        if (standings != null) {
+            standings.draw(gl, glut, gs.w, gs.h, leaderboard);
+        }
+
+        if (printStats) {
+            printStats();
+        }
+    }
+
+    /**
+     * Counts the frame and prints the frame rate, the number of issued and
+     * skipped color and material calls, the number of state changes of the
+     * render queue and the throughput of the simulation once per second.
+     */
+    private void printStats() {
+        framesSinceStats++;
+
+        long now = System.nanoTime();
+        if (now - lastStatsTime < 1000000000L) {
+            return;
+        }
+
+        double seconds = (now - lastStatsTime) / 1e9;
+
+        long ticks = raceThread.getTicks();
+        long stepNanos = raceThread.getStepNanos();
+        long ticksSinceStats = ticks - ticksAtStats;
+
+        System.out.printf("%.1f fps, %.3f ms per frame, material calls per frame: %d issued, %d skipped, "
+                + "state changes per frame: %d, texture mode changes per frame: %d, "
+                + "%.1f ticks/s, %.3f ms per tick%n",
+                framesSinceStats / seconds,
+                seconds * 1000 / framesSinceStats,
+                materialState.getIssuedCalls() / framesSinceStats,
+                materialState.getSkippedCalls() / framesSinceStats,
+                renderQueue.getStateChanges() / framesSinceStats,
+                renderQueue.getModeChanges() / framesSinceStats,
+                ticksSinceStats / seconds,
+                ticksSinceStats == 0 ? 0 : (stepNanos - stepNanosAtStats) / 1e6 / ticksSinceStats);
+
+        materialState.resetCounters();
+        renderQueue.resetCounters();
+        framesSinceStats = 0;
+        lastStatsTime = now;
+        ticksAtStats = ticks;
+        stepNanosAtStats = stepNanos;
     }
 
     /**
@@ -383,8 +799,26 @@ public class RobotRace extends Base {
      * implementation.
      */
     public static void main(String args[]) {
-        RobotRace robotRace = new RobotRace();
+        LaunchOptions options = LaunchOptions.parse(args);
+
+        if (options.headlessSeconds > 0) {
+            HeadlessRace.run(options);
+            return;
+        }
+
+        if (options.benchmarkFrames > 0) {
+            RenderBenchmark.run(options);
+            return;
+        }
+
+        FrameRate.configure(options);
+
+        RobotRace robotRace = new RobotRace(options);
         robotRace.run();
+
+        if (FrameRate.isUncapped(options)) {
+            FrameRate.uncap();
+        }
     }
 
     /**
@@ -395,11 +829,10 @@ public class RobotRace extends Base {
      * positive X-axis.
      * @param phi The angle between the point and the positive Z-axis.
      * @param radius The distance of the origin to the point.
-     * @return Returns a vector containing the xyz coordinates.
+     * @param ret Set to the xyz coordinates.
+     * @return Returns ret.
      */
-    public static Vector sphericalToCoords(double theta, double phi, double radius) {
-        Vector ret = new Vector(0, 0, 0);
-
+    public static Vec3 sphericalToCoords(double theta, double phi, double radius, Vec3 ret) {
         ret.x = radius * (float) Math.cos(theta)
                 * (float) Math.sin(phi);
 
@@ -0,0 +1,101 @@
+package robotrace;
+
+import java.nio.charset.StandardCharsets;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GLException;
+
+/**
+ * A GLSL program linked from a vertex and a fragment shader given as source.
+ * The vertex attributes are bound to the locations of StaticMesh.
+ */
+class ShaderProgram {
+
+    /**
+     * The program object.
+     */
+    private final int program;
+
+    /**
+     * Compiles both shaders and links them. Throws a GLException with the
+     * info log if compiling or linking fails.
+     */
+    public ShaderProgram(GL2 gl, String vertexSource, String fragmentSource) {
+        int vertexShader = compile(gl, GL2.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader = compile(gl, GL2.GL_FRAGMENT_SHADER, fragmentSource);
+
+        program = gl.glCreateProgram();
+        gl.glAttachShader(program, vertexShader);
+        gl.glAttachShader(program, fragmentShader);
+
+        gl.glBindAttribLocation(program, StaticMesh.POSITION, "position");
+        gl.glBindAttribLocation(program, StaticMesh.NORMAL, "normal");
+        gl.glBindAttribLocation(program, StaticMesh.TEX_COORD, "texCoord");
+
+        gl.glLinkProgram(program);
+
+        // The shaders are no longer needed once the program is linked.
+        gl.glDetachShader(program, vertexShader);
+        gl.glDetachShader(program, fragmentShader);
+        gl.glDeleteShader(vertexShader);
+        gl.glDeleteShader(fragmentShader);
+
+        int[] status = new int[1];
+        gl.glGetProgramiv(program, GL2.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            String log = programInfoLog(gl, program);
+            gl.glDeleteProgram(program);
+            throw new GLException("Could not link shader program: " + log);
+        }
+    }
+
+    /**
+     * Makes this the current program.
+     */
+    public void use(GL2 gl) {
+        gl.glUseProgram(program);
+    }
+
+    /**
+     * Returns the location of the uniform, -1 if the program has no such
+     * uniform.
+     */
+    public int getUniform(GL2 gl, String name) {
+        return gl.glGetUniformLocation(program, name);
+    }
+
+    /**
+     * Compiles a shader of the given type, throwing a GLException with the
+     * info log if that fails.
+     */
+    private static int compile(GL2 gl, int type, String source) {
+        int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, 1, new String[]{source}, new int[]{source.length()}, 0);
+        gl.glCompileShader(shader);
+
+        int[] status = new int[1];
+        gl.glGetShaderiv(shader, GL2.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            int[] length = new int[1];
+            gl.glGetShaderiv(shader, GL2.GL_INFO_LOG_LENGTH, length, 0);
+            byte[] log = new byte[Math.max(1, length[0])];
+            gl.glGetShaderInfoLog(shader, log.length, length, 0, log, 0);
+            gl.glDeleteShader(shader);
+
+            throw new GLException("Could not compile "
+                    + (type == GL2.GL_VERTEX_SHADER ? "vertex" : "fragment") + " shader: "
+                    + new String(log, 0, length[0], StandardCharsets.UTF_8));
+        }
+        return shader;
+    }
+
+    /**
+     * Returns the info log of the program.
+     */
+    private static String programInfoLog(GL2 gl, int program) {
+        int[] length = new int[1];
+        gl.glGetProgramiv(program, GL2.GL_INFO_LOG_LENGTH, length, 0);
+        byte[] log = new byte[Math.max(1, length[0])];
+        gl.glGetProgramInfoLog(program, log.length, length, 0, log, 0);
+        return new String(log, 0, length[0], StandardCharsets.UTF_8);
+    }
+}
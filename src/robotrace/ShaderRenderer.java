@@ -0,0 +1,388 @@
+package robotrace;
+
+import com.jogamp.common.util.VersionNumber;
+import com.jogamp.opengl.util.texture.Texture;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GLContext;
+
+/**
+ * Renderer that draws the terrain surface and the race track with OpenGL 3.3
+ * style code: the geometry is uploaded once into vertex buffer objects with
+ * vertex array objects, and drawn with a GLSL 330 core shader, so no vertex
+ * is passed through Java or JNI per frame.
+ *
+ * The shader reproduces the fixed-function lighting the rest of the scene
+ * uses: per vertex lighting by GL_LIGHT0 as a directional light with the
+ * scene ambient light, a color material for the ambient and diffuse
+ * reflectance, a specular reflectance and shininess, and the texture
+ * modulating the lit color. The light, the matrices and the specular
+ * material are read from the fixed-function state before each draw and
+ * passed as uniforms, so both renderers can be mixed in one frame.
+ *
+ * The race track is drawn from a 2D texture array with the track texture in
+ * one layer and the brick texture in the other, and the layer of every
+ * vertex stored in its texture coordinates when the mesh is built. The whole
+ * track is thus drawn with a single texture binding, and every run of
+ * consecutive visible segments with a single draw call. Unlike an atlas,
+ * every layer repeats by itself, which the brick sides need.
+ *
+ * The robots, trees and water are still drawn with the fixed-function
+ * pipeline, which is why this runs in the compatibility context the window
+ * already has rather than in a core profile context.
+ */
+class ShaderRenderer {
+
+    /**
+     * Texture unit on which the 1D texture of the terrain is bound. A program
+     * may not use samplers of different types on the same unit, so it gets a
+     * unit of its own next to unit 0 used by the 2D textures.
+     */
+    private static final int TERRAIN_TEXTURE_UNIT = 1;
+
+    /**
+     * Texture unit on which the texture array of the track is bound.
+     */
+    private static final int TRACK_TEXTURE_UNIT = 2;
+
+    /**
+     * Layers of the track texture array, and the size of a layer.
+     */
+    private static final int TRACK_LAYER = 0;
+    private static final int BRICK_LAYER = 1;
+    private static final int TRACK_LAYER_SIZE = 256;
+
+    /**
+     * Number of strips of one segment in the track mesh: the top, the outer
+     * side and the inner side.
+     */
+    private static final int STRIPS_PER_SEGMENT = 3;
+
+    /**
+     * Values of the textureMode uniform, 0 means untextured.
+     */
+    private static final int TEXTURE_1D = 1;
+    private static final int TEXTURE_2D = 2;
+    private static final int TEXTURE_ARRAY = 3;
+
+    /**
+     * Vertex shader, lights every vertex in eye coordinates with the same
+     * equation as the fixed-function pipeline for a directional light and a
+     * viewer at infinity.
+     */
+    private static final String VERTEX_SHADER = ""
+            + "#version 330 core\n"
+            + "in vec3 position;\n"
+            + "in vec3 normal;\n"
+            + "in vec3 texCoord;\n"
+            + "uniform mat4 modelView;\n"
+            + "uniform mat4 projection;\n"
+            + "uniform vec4 lightPosition;\n"
+            + "uniform vec4 lightAmbient;\n"
+            + "uniform vec4 lightDiffuse;\n"
+            + "uniform vec4 lightSpecular;\n"
+            + "uniform vec4 sceneAmbient;\n"
+            + "uniform vec4 materialColor;\n"
+            + "uniform vec4 materialSpecular;\n"
+            + "uniform float materialShininess;\n"
+            + "out vec4 litColor;\n"
+            + "out vec3 surfaceTexCoord;\n"
+            + "void main() {\n"
+            + "    vec3 n = normalize(mat3(modelView) * normal);\n"
+            + "    vec3 l = normalize(lightPosition.xyz);\n"
+            + "    vec3 h = normalize(l + vec3(0.0, 0.0, 1.0));\n"
+            + "    float diffuse = max(dot(n, l), 0.0);\n"
+            + "    float specular = diffuse > 0.0 ? pow(max(dot(n, h), 0.0), materialShininess) : 0.0;\n"
+            + "    vec3 color = (sceneAmbient.rgb + lightAmbient.rgb) * materialColor.rgb\n"
+            + "            + diffuse * lightDiffuse.rgb * materialColor.rgb\n"
+            + "            + specular * lightSpecular.rgb * materialSpecular.rgb;\n"
+            + "    litColor = vec4(min(color, vec3(1.0)), materialColor.a);\n"
+            + "    surfaceTexCoord = texCoord;\n"
+            + "    gl_Position = projection * modelView * vec4(position, 1.0);\n"
+            + "}\n";
+
+    /**
+     * Fragment shader, modulates the lit color with the texture, if any.
+     */
+    private static final String FRAGMENT_SHADER = ""
+            + "#version 330 core\n"
+            + "uniform int textureMode;\n"
+            + "uniform sampler1D colorRamp;\n"
+            + "uniform sampler2D surfaceTexture;\n"
+            + "uniform sampler2DArray trackLayers;\n"
+            + "in vec4 litColor;\n"
+            + "in vec3 surfaceTexCoord;\n"
+            + "out vec4 fragmentColor;\n"
+            + "void main() {\n"
+            + "    vec4 texel = vec4(1.0);\n"
+            + "    if (textureMode == " + TEXTURE_1D + ") {\n"
+            + "        texel = texture(colorRamp, surfaceTexCoord.s);\n"
+            + "    } else if (textureMode == " + TEXTURE_2D + ") {\n"
+            + "        texel = texture(surfaceTexture, surfaceTexCoord.st);\n"
+            + "    } else if (textureMode == " + TEXTURE_ARRAY + ") {\n"
+            + "        texel = texture(trackLayers, surfaceTexCoord);\n"
+            + "    }\n"
+            + "    fragmentColor = litColor * texel;\n"
+            + "}\n";
+
+    /**
+     * Color of the terrain and the track, which are colored by their
+     * textures only.
+     */
+    private static final float[] WHITE = {1f, 1f, 1f, 1f};
+
+    /**
+     * The lighting program, created by initialize.
+     */
+    private ShaderProgram program;
+
+    /**
+     * Uniform locations of the program.
+     */
+    private int modelView, projection;
+    private int lightPosition, lightAmbient, lightDiffuse, lightSpecular, sceneAmbient;
+    private int materialColor, materialSpecular, materialShininess;
+    private int textureMode, colorRamp, surfaceTexture, trackLayers;
+
+    /**
+     * Texture array with the track and brick textures, 0 if it could not be
+     * built.
+     */
+    private int trackTextures;
+
+    /**
+     * Mesh of the terrain surface, created on first use.
+     */
+    private StaticMesh terrainMesh;
+
+    /**
+     * Mesh of every track drawn so far, the top and sides of each segment.
+     */
+    private final Map<RaceTrack, StaticMesh> trackMeshes = new IdentityHashMap<>();
+
+    /**
+     * Buffer into which the fixed-function state is read.
+     */
+    private final float[] state = new float[16];
+
+    /**
+     * Returns whether the context supports OpenGL 3.3 and GLSL 3.30.
+     */
+    static boolean isSupported(GL2 gl) {
+        GLContext context = gl.getContext();
+        VersionNumber required = new VersionNumber(3, 3, 0);
+
+        return context.getGLVersionNumber().compareTo(required) >= 0
+                && context.getGLSLVersionNumber().compareTo(required) >= 0;
+    }
+
+    /**
+     * Compiles the program, looks up its uniforms and builds the texture
+     * array of the track from the track and brick textures. Should be called
+     * from initialize, after the textures are loaded.
+     */
+    public void initialize(GL2 gl, Texture track, Texture brick) {
+        program = new ShaderProgram(gl, VERTEX_SHADER, FRAGMENT_SHADER);
+
+        modelView = program.getUniform(gl, "modelView");
+        projection = program.getUniform(gl, "projection");
+        lightPosition = program.getUniform(gl, "lightPosition");
+        lightAmbient = program.getUniform(gl, "lightAmbient");
+        lightDiffuse = program.getUniform(gl, "lightDiffuse");
+        lightSpecular = program.getUniform(gl, "lightSpecular");
+        sceneAmbient = program.getUniform(gl, "sceneAmbient");
+        materialColor = program.getUniform(gl, "materialColor");
+        materialSpecular = program.getUniform(gl, "materialSpecular");
+        materialShininess = program.getUniform(gl, "materialShininess");
+        textureMode = program.getUniform(gl, "textureMode");
+        colorRamp = program.getUniform(gl, "colorRamp");
+        surfaceTexture = program.getUniform(gl, "surfaceTexture");
+        trackLayers = program.getUniform(gl, "trackLayers");
+
+        program.use(gl);
+        gl.glUniform1i(colorRamp, TERRAIN_TEXTURE_UNIT);
+        gl.glUniform1i(surfaceTexture, 0);
+        gl.glUniform1i(trackLayers, TRACK_TEXTURE_UNIT);
+        gl.glUseProgram(0);
+
+        trackTextures = buildTrackTextures(gl, track, brick);
+    }
+
+    /**
+     * Copies the track and brick textures into the layers of a texture array,
+     * scaled to the layer size, and returns the array. Returns 0 if the
+     * textures could not be copied.
+     */
+    private static int buildTrackTextures(GL2 gl, Texture track, Texture brick) {
+        if (track == null || brick == null) {
+            return 0;
+        }
+
+        int[] ids = new int[2];
+        gl.glGenTextures(1, ids, 0);
+        int array = ids[0];
+
+        gl.glBindTexture(GL2.GL_TEXTURE_2D_ARRAY, array);
+        gl.glTexImage3D(GL2.GL_TEXTURE_2D_ARRAY, 0, GL2.GL_RGBA8, TRACK_LAYER_SIZE, TRACK_LAYER_SIZE, 2,
+                0, GL2.GL_RGBA, GL2.GL_UNSIGNED_BYTE, null);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D_ARRAY, GL2.GL_TEXTURE_MIN_FILTER, GL2.GL_LINEAR_MIPMAP_LINEAR);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D_ARRAY, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D_ARRAY, GL2.GL_TEXTURE_WRAP_S, GL2.GL_REPEAT);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D_ARRAY, GL2.GL_TEXTURE_WRAP_T, GL2.GL_REPEAT);
+
+        // Blit every texture from a read framebuffer into its layer.
+        gl.glGenFramebuffers(2, ids, 0);
+        gl.glBindFramebuffer(GL2.GL_READ_FRAMEBUFFER, ids[0]);
+        gl.glBindFramebuffer(GL2.GL_DRAW_FRAMEBUFFER, ids[1]);
+
+        boolean complete = true;
+        Texture[] layers = {track, brick};
+        int[] layerNumbers = {TRACK_LAYER, BRICK_LAYER};
+
+        for (int i = 0; i < layers.length && complete; i++) {
+            Texture source = layers[i];
+
+            gl.glFramebufferTexture2D(GL2.GL_READ_FRAMEBUFFER, GL2.GL_COLOR_ATTACHMENT0,
+                    GL2.GL_TEXTURE_2D, source.getTextureObject(gl), 0);
+            gl.glFramebufferTextureLayer(GL2.GL_DRAW_FRAMEBUFFER, GL2.GL_COLOR_ATTACHMENT0,
+                    array, 0, layerNumbers[i]);
+
+            complete = gl.glCheckFramebufferStatus(GL2.GL_READ_FRAMEBUFFER) == GL2.GL_FRAMEBUFFER_COMPLETE
+                    && gl.glCheckFramebufferStatus(GL2.GL_DRAW_FRAMEBUFFER) == GL2.GL_FRAMEBUFFER_COMPLETE;
+
+            if (complete) {
+                gl.glBlitFramebuffer(0, 0, source.getWidth(), source.getHeight(),
+                        0, 0, TRACK_LAYER_SIZE, TRACK_LAYER_SIZE, GL2.GL_COLOR_BUFFER_BIT, GL2.GL_LINEAR);
+            }
+        }
+
+        gl.glBindFramebuffer(GL2.GL_FRAMEBUFFER, 0);
+        gl.glDeleteFramebuffers(2, ids, 0);
+
+        if (complete) {
+            gl.glGenerateMipmap(GL2.GL_TEXTURE_2D_ARRAY);
+        } else {
+            System.err.println("Could not build the track texture array, the track is drawn with the fixed-function renderer");
+            ids[0] = array;
+            gl.glDeleteTextures(1, ids, 0);
+            array = 0;
+        }
+
+        gl.glBindTexture(GL2.GL_TEXTURE_2D_ARRAY, 0);
+        return array;
+    }
+
+    /**
+     * Draws the visible tiles of the terrain surface with its 1D texture.
+     * The mesh holds the strips of the tiles tile after tile.
+     */
+    public void drawTerrain(GL2 gl, Terrain terrain) {
+        if (terrainMesh == null) {
+            MeshBuilder builder = new MeshBuilder();
+            terrain.emitSurface(builder);
+            terrainMesh = new StaticMesh(gl, builder);
+        }
+
+        begin(gl, TEXTURE_1D);
+
+        gl.glActiveTexture(GL2.GL_TEXTURE0 + TERRAIN_TEXTURE_UNIT);
+        terrain.bindTexture(gl);
+        gl.glActiveTexture(GL2.GL_TEXTURE0);
+
+        for (int tile = 0; tile < Terrain.TILES; tile++) {
+            if (terrain.isTileVisible(tile)) {
+                terrainMesh.draw(gl, tile * Terrain.TILE_STEPS, Terrain.TILE_STEPS);
+            }
+        }
+
+        gl.glUseProgram(0);
+    }
+
+    /**
+     * Returns whether the track can be drawn by drawTrack.
+     */
+    public boolean canDrawTrack() {
+        return trackTextures != 0;
+    }
+
+    /**
+     * Draws the visible segments of the race track from the texture array,
+     * the top from the track layer and the sides from the brick layer. The
+     * mesh holds the top, outer side and inner side strips of the segments,
+     * segment after segment, so a run of visible segments is drawn at once.
+     */
+    public void drawTrack(GL2 gl, RaceTrack raceTrack) {
+        StaticMesh mesh = trackMeshes.get(raceTrack);
+
+        if (mesh == null) {
+            MeshBuilder builder = new MeshBuilder();
+
+            for (int segment = 0; segment < RaceTrack.SEGMENTS; segment++) {
+                builder.setLayer(TRACK_LAYER);
+                raceTrack.emitTop(builder, segment);
+                builder.setLayer(BRICK_LAYER);
+                raceTrack.emitSides(builder, segment);
+            }
+
+            mesh = new StaticMesh(gl, builder);
+            trackMeshes.put(raceTrack, mesh);
+        }
+
+        begin(gl, TEXTURE_ARRAY);
+
+        gl.glActiveTexture(GL2.GL_TEXTURE0 + TRACK_TEXTURE_UNIT);
+        gl.glBindTexture(GL2.GL_TEXTURE_2D_ARRAY, trackTextures);
+        gl.glActiveTexture(GL2.GL_TEXTURE0);
+
+        int segment = 0;
+        while (segment < RaceTrack.SEGMENTS) {
+            if (!raceTrack.isSegmentVisible(segment)) {
+                segment++;
+                continue;
+            }
+
+            int first = segment;
+            while (segment < RaceTrack.SEGMENTS && raceTrack.isSegmentVisible(segment)) {
+                segment++;
+            }
+
+            mesh.draw(gl, first * STRIPS_PER_SEGMENT, (segment - first) * STRIPS_PER_SEGMENT);
+        }
+
+        gl.glUseProgram(0);
+    }
+
+    /**
+     * Makes the program current and copies the current matrices, the state of
+     * GL_LIGHT0 and the specular material into its uniforms.
+     */
+    private void begin(GL2 gl, int mode) {
+        program.use(gl);
+
+        gl.glGetFloatv(GL2.GL_MODELVIEW_MATRIX, state, 0);
+        gl.glUniformMatrix4fv(modelView, 1, false, state, 0);
+        gl.glGetFloatv(GL2.GL_PROJECTION_MATRIX, state, 0);
+        gl.glUniformMatrix4fv(projection, 1, false, state, 0);
+
+        // The light position is stored in eye coordinates.
+        gl.glGetLightfv(GL2.GL_LIGHT0, GL2.GL_POSITION, state, 0);
+        gl.glUniform4fv(lightPosition, 1, state, 0);
+        gl.glGetLightfv(GL2.GL_LIGHT0, GL2.GL_AMBIENT, state, 0);
+        gl.glUniform4fv(lightAmbient, 1, state, 0);
+        gl.glGetLightfv(GL2.GL_LIGHT0, GL2.GL_DIFFUSE, state, 0);
+        gl.glUniform4fv(lightDiffuse, 1, state, 0);
+        gl.glGetLightfv(GL2.GL_LIGHT0, GL2.GL_SPECULAR, state, 0);
+        gl.glUniform4fv(lightSpecular, 1, state, 0);
+        gl.glGetFloatv(GL2.GL_LIGHT_MODEL_AMBIENT, state, 0);
+        gl.glUniform4fv(sceneAmbient, 1, state, 0);
+
+        gl.glUniform4fv(materialColor, 1, WHITE, 0);
+        gl.glGetMaterialfv(GL2.GL_FRONT, GL2.GL_SPECULAR, state, 0);
+        gl.glUniform4fv(materialSpecular, 1, state, 0);
+        gl.glGetMaterialfv(GL2.GL_FRONT, GL2.GL_SHININESS, state, 0);
+        gl.glUniform1f(materialShininess, state[0]);
+
+        gl.glUniform1i(textureMode, mode);
+    }
+}
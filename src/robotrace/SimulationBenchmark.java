@@ -0,0 +1,94 @@
+package robotrace;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how the simulation step scales with the number of threads. For 1,
+ * 2, 4, ... up to the number of available processors a race with the same
+ * seed is simulated for a fixed number of steps. The time per step, the
+ * speedup compared to a single thread and a checksum of the final state are
+ * reported. The checksums should be equal for every thread count.
+ *
+ * Usage: SimulationBenchmark [robots] [steps]
+ */
+class SimulationBenchmark {
+
+    /**
+     * Seed of the race, the same for every thread count.
+     */
+    private static final long SEED = 42;
+
+    /**
+     * Simulated time in ms per step, about 60 steps per second.
+     */
+    private static final int MS_PER_STEP = 16;
+
+    /**
+     * Number of steps before the measurement starts, to let the JIT compile
+     * the step.
+     */
+    private static final int WARMUP_STEPS = 200;
+
+    public static void main(String[] args) {
+        int robots = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int steps = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("Simulating %d robots for %d steps of %d ms%n", robots, steps, MS_PER_STEP);
+        System.out.printf("%8s %14s %10s %20s%n", "threads", "ms per step", "speedup", "checksum");
+
+        double singleThreadTime = 0;
+
+        for (int threads = 1; threads <= maxThreads; threads = nextThreadCount(threads, maxThreads)) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+
+            RaceSimulation simulation = new RaceSimulation(
+                    RaceSimulation.spreadOverLanes(robots, RaceTrack.NUMBER_OF_LANES), SEED);
+
+            for (int i = 0; i < WARMUP_STEPS; i++) {
+                simulation.step(MS_PER_STEP, pool);
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < steps; i++) {
+                simulation.step(MS_PER_STEP, pool);
+            }
+            double msPerStep = (System.nanoTime() - start) / 1e6 / steps;
+
+            pool.shutdown();
+
+            if (threads == 1) {
+                singleThreadTime = msPerStep;
+            }
+
+            System.out.printf("%8d %14.4f %10.2f %20x%n", threads, msPerStep,
+                    singleThreadTime / msPerStep, checksum(simulation));
+        }
+    }
+
+    /**
+     * Returns the next thread count to measure, doubling the current one but
+     * always ending with the maximum.
+     */
+    private static int nextThreadCount(int threads, int maxThreads) {
+        if (threads == maxThreads) {
+            return maxThreads + 1;
+        }
+        return Math.min(threads * 2, maxThreads);
+    }
+
+    /**
+     * Combines the exact bits of the state of all robots into one value.
+     */
+    private static long checksum(RaceSimulation simulation) {
+        long checksum = 17;
+
+        for (int i = 0; i < simulation.getRobotCount(); i++) {
+            checksum = 31 * checksum + Double.doubleToLongBits(simulation.getPosOnTrack(i));
+            checksum = 31 * checksum + Double.doubleToLongBits(simulation.getTAnim(i));
+            checksum = 31 * checksum + Double.doubleToLongBits(simulation.getTotalDistanceTravelled(i));
+        }
+
+        return checksum;
+    }
+}
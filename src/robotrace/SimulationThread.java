@@ -0,0 +1,79 @@
+package robotrace;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs the race simulation on its own thread at a fixed tick rate, separate
+ * from the rendering. Every tick advances the simulation by exactly TICK_MS,
+ * so the race only depends on the seed and not on the frame rate.
+ *
+ * If a replay writer is set, the state after every tick is also recorded, and
+ * if a telemetry sink is set it is also exported.
+ */
+class SimulationThread extends TickThread {
+
+    /**
+     * The simulation, only accessed by this thread once it is started.
+     */
+    private final RaceSimulation simulation;
+
+    /**
+     * Threads over which each tick is divided.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Writer to which every tick is recorded, or null.
+     */
+    private ReplayWriter recorder;
+
+    /**
+     * Sink to which every tick is exported, or null.
+     */
+    private TelemetrySink telemetry;
+
+    /**
+     * Creates the thread for the simulation, which publishes the state at the
+     * start of the race right away.
+     */
+    public SimulationThread(RaceSimulation simulation, ForkJoinPool pool) {
+        super("Race simulation", RaceSnapshot.lanesOf(simulation));
+
+        this.simulation = simulation;
+        this.pool = pool;
+
+        publish(freeSnapshot().start(simulation));
+    }
+
+    /**
+     * Records the race to the writer from now on, starting with the current
+     * state. Should be called before the thread is started.
+     */
+    public void setRecorder(ReplayWriter recorder) {
+        this.recorder = recorder;
+        recorder.record(simulation);
+    }
+
+    /**
+     * Exports the race to the sink from the next tick on. Should be called
+     * before the thread is started.
+     */
+    public void setTelemetry(TelemetrySink telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    @Override
+    protected RaceSnapshot nextSnapshot(RaceSnapshot snapshot, RaceSnapshot free) {
+        simulation.step(TICK_MS, pool);
+
+        if (recorder != null) {
+            recorder.record(simulation);
+        }
+
+        if (telemetry != null) {
+            telemetry.publish(simulation, snapshot.getTick() + 1);
+        }
+
+        return free.follow(snapshot, simulation);
+    }
+}
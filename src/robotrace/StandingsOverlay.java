@@ -0,0 +1,140 @@
+package robotrace;
+
+import com.jogamp.opengl.util.gl2.GLUT;
+import javax.media.opengl.GL2;
+
+/**
+ * Shows the standings of the race in the top right corner of the window: the
+ * leading robots with their rank, number, laps and gap to the leader, and the
+ * last robot if it is not among them. The standings are read from the
+ * leaderboard, so drawing them does not depend on the number of robots, and
+ * all text is formatted into a preallocated buffer, so drawing never
+ * allocates.
+ */
+class StandingsOverlay {
+
+    /**
+     * Number of leading robots that are shown.
+     */
+    private static final int SHOWN = 10;
+
+    /**
+     * Width and height of a character of overlay text in pixels.
+     */
+    private static final int CHAR_WIDTH = 8;
+    private static final int LINE_HEIGHT = 15;
+
+    /**
+     * Header above the columns, every line is as long as the header.
+     */
+    private static final String HEADER = "  rank   robot      laps       gap";
+
+    /**
+     * Buffer in which a line of overlay text is formatted.
+     */
+    private final char[] line = new char[HEADER.length()];
+
+    /**
+     * Draws the standings of the leaderboard. Should be called at the end of
+     * the frame, after the leaderboard was reordered.
+     */
+    public void draw(GL2 gl, GLUT glut, int width, int height, Leaderboard leaderboard) {
+        gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT | GL2.GL_TRANSFORM_BIT);
+        gl.glDisable(GL2.GL_LIGHTING);
+        gl.glDisable(GL2.GL_DEPTH_TEST);
+        gl.glDisable(GL2.GL_TEXTURE_1D);
+        gl.glDisable(GL2.GL_TEXTURE_2D);
+
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+        gl.glOrtho(0, width, 0, height, -1, 1);
+        gl.glMatrixMode(GL2.GL_MODELVIEW);
+        gl.glPushMatrix();
+        gl.glLoadIdentity();
+
+        gl.glColor3f(0f, 0f, 0f);
+
+        int x = width - 5 - line.length * CHAR_WIDTH;
+        int y = height - LINE_HEIGHT;
+        HEADER.getChars(0, line.length, line, 0);
+        drawLine(gl, glut, x, y);
+
+        int shown = Math.min(SHOWN, leaderboard.size());
+        for (int rank = 0; rank < shown; rank++) {
+            y -= LINE_HEIGHT;
+            formatRow(leaderboard, rank);
+            drawLine(gl, glut, x, y);
+        }
+
+        if (leaderboard.size() > shown) {
+            y -= LINE_HEIGHT;
+            formatRow(leaderboard, leaderboard.size() - 1);
+            drawLine(gl, glut, x, y);
+        }
+
+        gl.glPopMatrix();
+        gl.glMatrixMode(GL2.GL_PROJECTION);
+        gl.glPopMatrix();
+        gl.glPopAttrib();
+    }
+
+    /**
+     * Formats the rank, number, laps and gap of the robot at the rank into the
+     * line buffer, in the columns of the header.
+     */
+    private void formatRow(Leaderboard leaderboard, int rank) {
+        int robot = leaderboard.getRobotAt(rank);
+
+        appendInt(rank + 1, 0, 6);
+        appendInt(robot, 6, 8);
+        appendLaps(leaderboard.getDistance(robot), 14, 10);
+        appendLaps(leaderboard.getGapToLeader(robot), 24, 10);
+    }
+
+    /**
+     * Formats the non-negative number right aligned in the field of the line
+     * buffer.
+     */
+    private void appendInt(long value, int position, int width) {
+        for (int i = position + width - 1; i >= position; i--) {
+            if (value > 0 || i == position + width - 1) {
+                line[i] = (char) ('0' + value % 10);
+                value /= 10;
+            } else {
+                line[i] = ' ';
+            }
+        }
+    }
+
+    /**
+     * Formats the non-negative number of laps with three decimals right
+     * aligned in the field of the line buffer.
+     */
+    private void appendLaps(double laps, int position, int width) {
+        long thousandths = Math.min(Math.round(Math.max(0, laps) * 1000), 99999999L);
+        int end = position + width;
+
+        for (int i = end - 1; i >= position; i--) {
+            if (i == end - 4) {
+                line[i] = '.';
+            } else if (thousandths > 0 || i >= end - 5) {
+                line[i] = (char) ('0' + thousandths % 10);
+                thousandths /= 10;
+            } else {
+                line[i] = ' ';
+            }
+        }
+    }
+
+    /**
+     * Draws the line buffer at the given position.
+     */
+    private void drawLine(GL2 gl, GLUT glut, int x, int y) {
+        gl.glRasterPos2i(x, y);
+
+        for (int i = 0; i < line.length; i++) {
+            glut.glutBitmapCharacter(GLUT.BITMAP_8_BY_13, line[i]);
+        }
+    }
+}
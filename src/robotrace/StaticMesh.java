@@ -0,0 +1,73 @@
+package robotrace;
+
+import javax.media.opengl.GL2;
+
+/**
+ * Triangle strips stored in a vertex buffer object, with a vertex array
+ * object that binds the position, normal and texture coordinates to the
+ * generic vertex attributes POSITION, NORMAL and TEX_COORD. The geometry is
+ * uploaded once and drawn with a single call, without passing any vertex
+ * through Java again.
+ */
+class StaticMesh {
+
+    /**
+     * Generic vertex attribute locations used by the shaders.
+     */
+    static final int POSITION = 0;
+    static final int NORMAL = 1;
+    static final int TEX_COORD = 2;
+
+    /**
+     * The vertex array object and vertex buffer object.
+     */
+    private final int vertexArray;
+    private final int vertexBuffer;
+
+    /**
+     * First vertex and number of vertices of each strip.
+     */
+    private final int[] firsts;
+    private final int[] counts;
+
+    /**
+     * Uploads the vertices collected by the builder.
+     */
+    public StaticMesh(GL2 gl, MeshBuilder builder) {
+        int[] ids = new int[1];
+
+        gl.glGenVertexArrays(1, ids, 0);
+        vertexArray = ids[0];
+        gl.glGenBuffers(1, ids, 0);
+        vertexBuffer = ids[0];
+
+        gl.glBindVertexArray(vertexArray);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, vertexBuffer);
+        gl.glBufferData(GL2.GL_ARRAY_BUFFER, builder.getVertexCount() * MeshBuilder.FLOATS_PER_VERTEX * 4L,
+                builder.getVertices(), GL2.GL_STATIC_DRAW);
+
+        int stride = MeshBuilder.FLOATS_PER_VERTEX * 4;
+
+        gl.glEnableVertexAttribArray(POSITION);
+        gl.glVertexAttribPointer(POSITION, 3, GL2.GL_FLOAT, false, stride, 0);
+        gl.glEnableVertexAttribArray(NORMAL);
+        gl.glVertexAttribPointer(NORMAL, 3, GL2.GL_FLOAT, false, stride, 3 * 4);
+        gl.glEnableVertexAttribArray(TEX_COORD);
+        gl.glVertexAttribPointer(TEX_COORD, 3, GL2.GL_FLOAT, false, stride, 6 * 4);
+
+        gl.glBindVertexArray(0);
+        gl.glBindBuffer(GL2.GL_ARRAY_BUFFER, 0);
+
+        firsts = builder.getFirsts();
+        counts = builder.getCounts();
+    }
+
+    /**
+     * Draws the given range of strips of the mesh with the current program.
+     */
+    public void draw(GL2 gl, int firstStrip, int strips) {
+        gl.glBindVertexArray(vertexArray);
+        gl.glMultiDrawArrays(GL2.GL_TRIANGLE_STRIP, firsts, firstStrip, counts, firstStrip, strips);
+        gl.glBindVertexArray(0);
+    }
+}
@@ -0,0 +1,184 @@
+package robotrace;
+
+import java.nio.FloatBuffer;
+import javax.media.opengl.GL2;
+
+/**
+ * Collects the skeletons of all stick figure robots of one frame into a single
+ * line buffer and a single point buffer. The bones and joints are transformed
+ * on the CPU, so that the whole batch can be drawn with one draw call for the
+ * bones and one draw call for the joints, independent of the number of robots.
+ *
+ * The bones and joints are transformed by the matrix stack returned by
+ * getTransforms. A bone is always drawn from the origin of the current
+ * reference frame along its z axis, just like a GLUT cylinder.
+ */
+class StickFigureBatch {
+
+    /**
+     * Number of line vertices a single stick figure adds to the batch.
+     */
+    static final int LINE_VERTICES_PER_FIGURE = 30;
+
+    /**
+     * Number of joints a single stick figure adds to the batch.
+     */
+    static final int POINTS_PER_FIGURE = 15;
+
+    /**
+     * Maximum depth of the matrix stack, the stick figure needs three levels.
+     */
+    private static final int MAX_STACK_DEPTH = 8;
+
+    /**
+     * Width in pixels of the lines representing the bones.
+     */
+    private static final float BONE_WIDTH = 2f;
+
+    /**
+     * Size in pixels of the points representing the joints.
+     */
+    private static final float JOINT_SIZE = 5f;
+
+    /**
+     * Color of the stick figures, green.
+     */
+    private static final float[] STICK_FIGURE_COLOR = {0f, 1f, 0f};
+
+    /**
+     * Matrix stack with which the bones and joints are transformed.
+     */
+    private final MatrixStack transforms = new MatrixStack(MAX_STACK_DEPTH);
+
+    /**
+     * Vertices of the bones, two consecutive vertices form one line.
+     */
+    private FloatBuffer lines;
+
+    /**
+     * Vertices of the joints.
+     */
+    private FloatBuffer points;
+
+    /**
+     * Creates a batch that can hold the given number of stick figures before
+     * it has to grow its buffers.
+     */
+    public StickFigureBatch(int initialFigures) {
+        int figures = Math.max(1, initialFigures);
+
+        lines = DirectBuffers.allocate(figures * LINE_VERTICES_PER_FIGURE * 3);
+        points = DirectBuffers.allocate(figures * POINTS_PER_FIGURE * 3);
+    }
+
+    /**
+     * Empties the batch so that the figures of a new frame can be added.
+     */
+    public void clear() {
+        lines.clear();
+        points.clear();
+        transforms.loadIdentity();
+    }
+
+    /**
+     * Returns the number of bones currently in the batch.
+     */
+    public int getBoneCount() {
+        return lines.position() / 6;
+    }
+
+    /**
+     * Returns the number of joints currently in the batch.
+     */
+    public int getJointCount() {
+        return points.position() / 3;
+    }
+
+    /**
+     * Returns the matrix stack with which the bones and joints are
+     * transformed.
+     */
+    public MatrixStack getTransforms() {
+        return transforms;
+    }
+
+    /**
+     * Adds a bone from the origin of the current reference frame to the point
+     * at the given length on its z axis.
+     */
+    public void bone(double length) {
+        if (lines.remaining() < 6) {
+            lines = grow(lines);
+        }
+        transforms.transformPoint(0, 0, 0, lines);
+        transforms.transformPoint(0, 0, length, lines);
+    }
+
+    /**
+     * Adds a joint at the origin of the current reference frame.
+     */
+    public void joint() {
+        if (points.remaining() < 3) {
+            points = grow(points);
+        }
+        transforms.transformPoint(0, 0, 0, points);
+    }
+
+    /**
+     * Draws all bones with one call and all joints with a second call. The
+     * figures are drawn unlit and untextured in green, the previous lighting
+     * and texture state is restored afterwards.
+     */
+    public void draw(GL2 gl) {
+        int lineVertices = lines.position() / 3;
+        int pointVertices = points.position() / 3;
+
+        if (lineVertices == 0 && pointVertices == 0) {
+            return;
+        }
+
+        gl.glPushAttrib(GL2.GL_ENABLE_BIT | GL2.GL_CURRENT_BIT | GL2.GL_LINE_BIT | GL2.GL_POINT_BIT);
+
+        gl.glDisable(GL2.GL_LIGHTING);
+        gl.glDisable(GL2.GL_TEXTURE_2D);
+
+        gl.glColor3fv(STICK_FIGURE_COLOR, 0);
+        gl.glLineWidth(BONE_WIDTH);
+        gl.glPointSize(JOINT_SIZE);
+
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+
+        if (lineVertices > 0) {
+            lines.flip();
+            gl.glVertexPointer(3, GL2.GL_FLOAT, 0, lines);
+            gl.glDrawArrays(GL2.GL_LINES, 0, lineVertices);
+            lines.position(lines.limit());
+            lines.limit(lines.capacity());
+        }
+
+        if (pointVertices > 0) {
+            points.flip();
+            gl.glVertexPointer(3, GL2.GL_FLOAT, 0, points);
+            gl.glDrawArrays(GL2.GL_POINTS, 0, pointVertices);
+            points.position(points.limit());
+            points.limit(points.capacity());
+        }
+
+        gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+
+        gl.glPopAttrib();
+    }
+
+    /**
+     * Returns a new buffer with twice the capacity of the given buffer that
+     * contains all values written so far.
+     */
+    private static FloatBuffer grow(FloatBuffer buffer) {
+        FloatBuffer grown = DirectBuffers.allocate(buffer.capacity() * 2);
+
+        buffer.flip();
+        grown.put(buffer);
+
+        return grown;
+    }
+}
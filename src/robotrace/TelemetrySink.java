@@ -0,0 +1,324 @@
+package robotrace;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Exports the state of every robot after every tick of the simulation, for
+ * tools that follow the race live. The frames are sent as UDP datagrams to a
+ * port on the local machine, or appended to a file that is rotated when it
+ * gets large.
+ *
+ * The simulation thread encodes a frame straight into direct byte buffers
+ * that are allocated once and reused, and hands them to a sender thread of
+ * its own through a bounded ring. If the ring is full because the receiver
+ * or the disk cannot keep up, the whole frame is dropped and counted, so the
+ * simulation never waits for the telemetry. The UDP socket does not block
+ * either, a datagram the operating system has no room for is dropped too.
+ *
+ * A frame is one or more packets, each small enough for one datagram. All
+ * values are little endian. A packet starts with the magic number "RRTM",
+ * the tick number as a long, the number of robots in the race, the index of
+ * the first robot in the packet and the number of robots in the packet.
+ * Then follow, per robot, its position on the track as a float, its speed in
+ * laps per second as a float and the total distance it traveled in laps as
+ * a double.
+ */
+class TelemetrySink {
+
+    /**
+     * First four bytes of a packet, "RRTM".
+     */
+    static final int MAGIC = 0x5252544d;
+
+    /**
+     * Size of the header of a packet and of one robot in a packet.
+     */
+    static final int HEADER_BYTES = 4 + 8 + 4 + 4 + 4;
+    static final int ROBOT_BYTES = 4 + 4 + 8;
+
+    /**
+     * Largest size of a packet, below the largest UDP datagram.
+     */
+    static final int MAX_PACKET_BYTES = 65000;
+
+    /**
+     * Number of frames the ring can hold, and the largest size of the ring
+     * in bytes for races with many robots.
+     */
+    private static final int QUEUE_FRAMES = 16;
+    private static final int MAX_QUEUE_BYTES = 16 << 20;
+
+    /**
+     * Size after which the telemetry file is rotated. The previous file is
+     * kept with ".1" appended to its name.
+     */
+    private static final long ROTATE_BYTES = 256L << 20;
+
+    /**
+     * Channel the packets are written to.
+     */
+    private WritableByteChannel channel;
+
+    /**
+     * Path of the telemetry file, or null when sending over UDP.
+     */
+    private final Path file;
+
+    /**
+     * Number of bytes in the current telemetry file.
+     */
+    private long fileBytes;
+
+    /**
+     * Number of robots in the race, per packet and the number of packets of a
+     * frame.
+     */
+    private final int robotCount;
+    private final int robotsPerPacket;
+    private final int packetsPerFrame;
+
+    /**
+     * Buffers of the ring, each holding one packet.
+     */
+    private final ByteBuffer[] packets;
+
+    /**
+     * Total number of packets put into and taken from the ring.
+     */
+    private volatile long published;
+    private volatile long consumed;
+
+    /**
+     * Number of frames sent and dropped, and of datagrams the socket had no
+     * room for.
+     */
+    private volatile long sentFrames;
+    private volatile long droppedFrames;
+    private volatile long droppedPackets;
+
+    /**
+     * Whether the sink is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Thread that writes the packets to the channel.
+     */
+    private final Thread senderThread;
+
+    /**
+     * Creates a sink that writes the packets to the channel, as datagrams if
+     * file is null and otherwise to the file the channel writes to.
+     */
+    TelemetrySink(WritableByteChannel channel, Path file, int robotCount) {
+        this.channel = channel;
+        this.file = file;
+        this.robotCount = robotCount;
+
+        robotsPerPacket = (MAX_PACKET_BYTES - HEADER_BYTES) / ROBOT_BYTES;
+        packetsPerFrame = Math.max(1, (robotCount + robotsPerPacket - 1) / robotsPerPacket);
+
+        int packetBytes = HEADER_BYTES + Math.min(robotCount, robotsPerPacket) * ROBOT_BYTES;
+        int slots = Math.max(packetsPerFrame,
+                Math.min(QUEUE_FRAMES * packetsPerFrame, MAX_QUEUE_BYTES / packetBytes));
+
+        packets = new ByteBuffer[slots];
+        for (int i = 0; i < slots; i++) {
+            packets[i] = ByteBuffer.allocateDirect(packetBytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        senderThread = new Thread(this::sendLoop, "Telemetry sender");
+        senderThread.setDaemon(true);
+        senderThread.start();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "Telemetry close"));
+    }
+
+    /**
+     * Creates a sink for a race with the given number of robots from its
+     * destination: "udp:port" or "udp:host:port" for datagrams, or
+     * "file:path" for a file.
+     */
+    static TelemetrySink open(String destination, int robotCount) throws IOException {
+        if (destination.startsWith("file:")) {
+            Path path = Paths.get(destination.substring("file:".length()));
+            return new TelemetrySink(openFile(path), path, robotCount);
+        }
+
+        if (destination.startsWith("udp:")) {
+            String address = destination.substring("udp:".length());
+            int colon = address.lastIndexOf(':');
+            String host = colon < 0 ? "localhost" : address.substring(0, colon);
+
+            int port;
+            try {
+                port = Integer.parseInt(address.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid port in " + destination);
+            }
+
+            DatagramChannel socket = DatagramChannel.open();
+            socket.configureBlocking(false);
+            socket.connect(new InetSocketAddress(host, port));
+
+            return new TelemetrySink(socket, null, robotCount);
+        }
+
+        throw new IOException("Telemetry destination should be udp:port, udp:host:port or file:path");
+    }
+
+    private static FileChannel openFile(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Encodes the state of the simulation after the tick as a frame and hands
+     * it to the sender thread, or drops it if the ring has no room for it.
+     * Does not allocate or block.
+     */
+    public void publish(RaceSimulation simulation, long tick) {
+        if (closed) {
+            return;
+        }
+
+        if (packets.length - (published - consumed) < packetsPerFrame) {
+            droppedFrames++;
+            return;
+        }
+
+        for (int p = 0; p < packetsPerFrame; p++) {
+            ByteBuffer packet = packets[(int) ((published + p) % packets.length)];
+            int first = p * robotsPerPacket;
+            int count = Math.min(robotsPerPacket, robotCount - first);
+
+            packet.clear();
+            packet.putInt(MAGIC);
+            packet.putLong(tick);
+            packet.putInt(robotCount);
+            packet.putInt(first);
+            packet.putInt(count);
+
+            for (int i = first; i < first + count; i++) {
+                packet.putFloat((float) simulation.getPosOnTrack(i));
+                packet.putFloat((float) (simulation.getTrackRoundStep(i) * 1000));
+                packet.putDouble(simulation.getTotalDistanceTravelled(i));
+            }
+
+            packet.flip();
+        }
+
+        published += packetsPerFrame;
+        sentFrames++;
+        LockSupport.unpark(senderThread);
+    }
+
+    /**
+     * Body of the sender thread, writes the published packets to the channel
+     * until the sink is closed and the ring is empty.
+     */
+    private void sendLoop() {
+        try {
+            while (true) {
+                if (published == consumed) {
+                    if (closed) {
+                        return;
+                    }
+                    LockSupport.parkNanos(1000000);
+                    continue;
+                }
+
+                send(packets[(int) (consumed % packets.length)]);
+                consumed++;
+            }
+        } catch (IOException e) {
+            System.err.println("Telemetry stopped: " + e.getMessage());
+            closed = true;
+        }
+    }
+
+    /**
+     * Writes one packet, rotating the file first if it is full.
+     */
+    private void send(ByteBuffer packet) throws IOException {
+        if (file == null) {
+            try {
+                if (channel.write(packet) == 0) {
+                    droppedPackets++;
+                }
+            } catch (PortUnreachableException e) {
+                // Nobody listens yet, the datagram is lost like any other.
+                droppedPackets++;
+            }
+            return;
+        }
+
+        if (fileBytes + packet.remaining() > ROTATE_BYTES) {
+            channel.close();
+            Files.move(file, Paths.get(file + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            channel = openFile(file);
+            fileBytes = 0;
+        }
+
+        while (packet.hasRemaining()) {
+            fileBytes += channel.write(packet);
+        }
+    }
+
+    /**
+     * Stops the export once the published frames are written, closes the
+     * channel and prints the number of frames sent and dropped.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            LockSupport.unpark(senderThread);
+            senderThread.join();
+            channel.close();
+
+            System.out.printf("Telemetry: %d frames sent, %d frames and %d datagrams dropped%n",
+                    sentFrames, droppedFrames, droppedPackets);
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Could not close the telemetry: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of frames handed to the sender thread.
+     */
+    public long getSentFrames() {
+        return sentFrames;
+    }
+
+    /**
+     * Returns the number of frames dropped because the ring was full.
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Returns the number of datagrams dropped because the socket had no room
+     * for them.
+     */
+    public long getDroppedPackets() {
+        return droppedPackets;
+    }
+}
@@ -4,6 +4,7 @@ import com.jogamp.opengl.util.gl2.GLUT;
 import java.awt.Color;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 import java.util.Random;
 import javax.media.opengl.GL2;
 import javax.media.opengl.glu.GLU;
@@ -19,6 +20,21 @@ class Terrain {
      */
     private static final int TERRAIN_STEPS = 50;
 
+    /**
+     * The terrain is divided in TILES_PER_SIDE by TILES_PER_SIDE square tiles
+     * of TILE_STEPS by TILE_STEPS steps, which are culled separately.
+     */
+    static final int TILES_PER_SIDE = 5;
+    static final int TILES = TILES_PER_SIDE * TILES_PER_SIDE;
+    static final int TILE_STEPS = TERRAIN_STEPS / TILES_PER_SIDE;
+
+    /**
+     * Lowest and highest point of the terrain, heightAt is a sum of two
+     * cosines with amplitudes 0.6 and 0.4.
+     */
+    private static final double MIN_HEIGHT = -1;
+    private static final double MAX_HEIGHT = 1;
+
     /**
      * Color array used for the 1D texture mapping of the terrain. The amount of
      * colors in this array is a power of two. The first two colors are blue,
@@ -30,95 +46,268 @@ class Terrain {
     };
 
     /**
-     * Draws the terrain. Sets up 1D texturemapping, then starts with drawing
-     * the terrain. The terrain itself is drawn as a collection of triangles,
-     * where a strip of triangles is drawn iteration. Incrementing the step
-     * variable in the u direction and modifying the v variable each iteration,
-     * removing or adding one step value so that a strip in the u direction is
-     * drawn as a series of triangles.
-     *
-     * After each strip u is reset to zero and v is incremented by one so that
-     * the next strip is drawn. Finally it draws a transparent polygon
-     * representing the water.
+     * Positions and base heights of the trees. The first three trees are pine
+     * trees, the others round trees.
      */
-    public void draw(GL2 gl, GLU glu, GLUT glut) {
+    private static final double[] TREE_X = {-15.3, -18, 16, 16, 15.1, -16};
+    private static final double[] TREE_Y = {-18, 1, -17, 4, 16, 18};
+    private static final double[] TREE_SIZES = {0.8, 1.0, 1.5, 0.5, 1.3, 0.9};
+    private static final int PINE_TREES = 3;
 
-        double step = 1d / TERRAIN_STEPS;
+    /**
+     * Half the width and the height of the bounding box of a tree, relative
+     * to its base height. The widest part are the lower leaves with a radius
+     * of 0.6 and the round trees are the highest, reaching about 2.8.
+     */
+    private static final double TREE_HALF_WIDTH = 0.6;
+    private static final double TREE_HEIGHT = 2.8;
 
-        double u = 0, v = 0;
+    /**
+     * Half the width of the square the terrain covers, centered at the origin.
+     */
+    private static final double HALF_WIDTH = 20;
 
-        gl.glDisable(GL2.GL_TEXTURE_2D);
-        gl.glEnable(GL2.GL_TEXTURE_1D);
+    /**
+     * Width of a terrain tile.
+     */
+    private static final double TILE_WIDTH = 2 * HALF_WIDTH / TILES_PER_SIDE;
 
-        create1DTexture(gl, TEXTURE_COLORS);
+    /**
+     * Id of the 1D texture of the terrain, 0 until it is created.
+     */
+    private int textureId;
 
-        gl.glBegin(GL2.GL_TRIANGLE_STRIP);
+    /**
+     * Whether each tile was inside the frustum at the last cullTiles. All
+     * tiles are visible until the first cullTiles.
+     */
+    private final boolean[] visibleTiles = new boolean[TILES];
 
-        boolean vAheadOfU = false;
+    /**
+     * Sink through which the surface is drawn in immediate mode.
+     */
+    private final ImmediateSink immediate = new ImmediateSink();
 
-        double texCord = 0;
+    /**
+     * Point, tangents and normal reused while generating the surface.
+     */
+    private final Vec3 point = new Vec3();
+    private final Vec3 tangentU = new Vec3();
+    private final Vec3 tangentV = new Vec3();
+    private final Vec3 normal = new Vec3();
 
-        gl.glColor3d(1, 1, 1);
+    /**
+     * Draw items of each tree and of the water, created once and added to
+     * the render queue every frame.
+     */
+    private final RenderQueue.Item[] treeItems = new RenderQueue.Item[TREE_X.length];
+    private final RenderQueue.Item waterItem = (gl, glu, glut) -> drawTransparentPolygon(gl, glu, glut);
+
+    public Terrain() {
+        Arrays.fill(visibleTiles, true);
+
+        for (int i = 0; i < treeItems.length; i++) {
+            final int tree = i;
+            treeItems[i] = (gl, glu, glut) -> drawTree(gl, glu, glut, tree);
+        }
+    }
+
+    /**
+     * Adds the trees inside the frustum and the water to the render queue.
+     * The trees are drawn untextured and the water as a transparent item, so
+     * it is blended over everything behind it. The surface is added by the
+     * caller, which picks the renderer that draws it.
+     */
+    public void addTreesAndWater(RenderQueue queue, Vec3 eye, Frustum frustum) {
+        for (int i = 0; i < treeItems.length; i++) {
+            double ground = heightAt(TREE_X[i], TREE_Y[i]);
+            double halfWidth = TREE_HALF_WIDTH * TREE_SIZES[i];
+
+            if (!frustum.isBoxVisible(Frustum.TREES, TREE_X[i] - halfWidth, TREE_Y[i] - halfWidth, ground,
+                    TREE_X[i] + halfWidth, TREE_Y[i] + halfWidth, ground + TREE_HEIGHT * TREE_SIZES[i])) {
+                continue;
+            }
+
+            double dx = eye.x - TREE_X[i];
+            double dy = eye.y - TREE_Y[i];
+            double dz = eye.z - ground;
+
+            queue.addOpaque(treeItems[i], RenderQueue.UNTEXTURED, FrameProfiler.TREES, 0,
+                    Math.sqrt(dx * dx + dy * dy + dz * dz));
+        }
 
-        do {
+        queue.addTransparent(waterItem, RenderQueue.UNTEXTURED, FrameProfiler.WATER,
+                distanceToBox(eye, -1, 0));
+    }
+
+    /**
+     * Returns the distance from the eye to the closest point of the terrain
+     * surface, approximated by its bounding box.
+     */
+    public double getSurfaceDistance(Vec3 eye) {
+        return distanceToBox(eye, MIN_HEIGHT, MAX_HEIGHT);
+    }
+
+    /**
+     * Returns the distance from the eye to the closest point of the box that
+     * spans the terrain horizontally and the given heights vertically.
+     */
+    private static double distanceToBox(Vec3 eye, double bottom, double top) {
+        double dx = eye.x - Math.max(-HALF_WIDTH, Math.min(HALF_WIDTH, eye.x));
+        double dy = eye.y - Math.max(-HALF_WIDTH, Math.min(HALF_WIDTH, eye.y));
+        double dz = eye.z - Math.max(bottom, Math.min(top, eye.z));
+
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * Tests every terrain tile against the frustum and returns the number of
+     * visible tiles. Only those are drawn until the next call.
+     */
+    public int cullTiles(Frustum frustum) {
+        int visible = 0;
 
-            Vector normal = tangentInU(u, v).cross(tangentInV(u, v)).normalized();
+        for (int tile = 0; tile < TILES; tile++) {
+            double minX = tileColumn(tile) * TILE_WIDTH - HALF_WIDTH;
+            double minY = tileRow(tile) * TILE_WIDTH - HALF_WIDTH;
 
-            Vector position = pointAt(u, v);
+            visibleTiles[tile] = frustum.isBoxVisible(Frustum.TERRAIN_TILES,
+                    minX, minY, MIN_HEIGHT, minX + TILE_WIDTH, minY + TILE_WIDTH, MAX_HEIGHT);
 
-            if (position.z <= 0) {
-                texCord = .33d;
-            } else if (position.z <= .5d) {
-                texCord = .66d;
-            } else {
-                texCord = 1d;
+            if (visibleTiles[tile]) {
+                visible++;
             }
+        }
+        return visible;
+    }
 
-            gl.glNormal3d(normal.x, normal.y, normal.z);
+    /**
+     * Returns whether the tile was inside the frustum at the last cullTiles.
+     */
+    public boolean isTileVisible(int tile) {
+        return visibleTiles[tile];
+    }
 
-            gl.glTexCoord1d(texCord);
+    /**
+     * Draws the visible tiles of the terrain surface in immediate mode with
+     * the 1D texture. GL_TEXTURE_1D has to be enabled by the caller.
+     */
+    public void drawSurface(GL2 gl) {
+        bindTexture(gl);
 
-            gl.glVertex3d(position.x, position.y, position.z);
+        gl.glColor3d(1, 1, 1);
 
-            if (!vAheadOfU) {
-                v += step;
-                vAheadOfU = true;
-            } else {
-                v -= step;
-                u += step;
+        immediate.use(gl);
 
-                vAheadOfU = false;
+        for (int tile = 0; tile < TILES; tile++) {
+            if (visibleTiles[tile]) {
+                emitTile(immediate, tile);
             }
+        }
+    }
+
+    /**
+     * Binds the 1D texture of the terrain, which is created the first time.
+     */
+    public void bindTexture(GL2 gl) {
+        if (textureId == 0) {
+            textureId = create1DTexture(gl, TEXTURE_COLORS);
+        } else {
+            gl.glBindTexture(GL2.GL_TEXTURE_1D, textureId);
+        }
+    }
+
+    /**
+     * Generates all tiles of the terrain surface into the sink, tile after
+     * tile. Every tile consists of TILE_STEPS triangle strips.
+     */
+    public void emitSurface(VertexSink sink) {
+        for (int tile = 0; tile < TILES; tile++) {
+            emitTile(sink, tile);
+        }
+    }
+
+    /**
+     * Generates one tile of the terrain surface into the sink, with the
+     * coordinates of the 1D texture as s texture coordinate. The tile is a
+     * collection of triangles, one strip in the u direction per step in the
+     * v direction. Each strip alternates between a point on the current v and
+     * a point one step further in v, while moving one step in u after every
+     * second point.
+     */
+    public void emitTile(VertexSink sink, int tile) {
+        double step = 1d / TERRAIN_STEPS;
+
+        int firstU = tileColumn(tile) * TILE_STEPS;
+        int firstV = tileRow(tile) * TILE_STEPS;
 
-            if (u > 1) {
-                u = 0;
-                v += step;
-                gl.glEnd();
+        for (int j = firstV; j < firstV + TILE_STEPS; j++) {
+            sink.begin(GL2.GL_TRIANGLE_STRIP);
 
-                gl.glBegin(GL2.GL_TRIANGLE_STRIP);
+            for (int i = firstU; i <= firstU + TILE_STEPS; i++) {
+                emitPoint(sink, i * step, j * step);
+                emitPoint(sink, i * step, (j + 1) * step);
             }
 
-        } while (u <= 1 && v <= 1);
+            sink.end();
+        }
+    }
 
-        gl.glEnd();
+    /**
+     * Generates the vertex of the terrain at u and v with its normal and the
+     * coordinate of the 1D texture depending on its height.
+     */
+    private void emitPoint(VertexSink sink, double u, double v) {
+        Vec3 normal = this.normal.cross(tangentInU(u, v, tangentU), tangentInV(u, v, tangentV)).normalize();
+
+        Vec3 position = pointAt(u, v, point);
+
+        double texCord;
+
+        if (position.z <= 0) {
+            texCord = .33d;
+        } else if (position.z <= .5d) {
+            texCord = .66d;
+        } else {
+            texCord = 1d;
+        }
+
+        sink.normal(normal.x, normal.y, normal.z);
 
-        gl.glDisable(GL2.GL_TEXTURE_1D);
-        gl.glEnable(GL2.GL_TEXTURE_2D);
+        sink.texCoord(texCord, 0);
 
-        drawPinetree(gl, glu, glut, -15.3, -18, heightAt(-15.3, -18), 0.8);
-        drawPinetree(gl, glu, glut, -18, 1, heightAt(-18, 1), 1.0);
-        drawPinetree(gl, glu, glut, 16, -17, heightAt(16, -17), 1.5);
-        drawRoundTree(gl, glu, glut, 16, 4, heightAt(16, 4), 0.5);
-        drawRoundTree(gl, glu, glut, 15.1, 16, heightAt(15.1, 16), 1.3);
-        drawRoundTree(gl, glu, glut, -16, 18, heightAt(-16, 18), 0.9);
+        sink.vertex(position.x, position.y, position.z);
+    }
+
+    /**
+     * Returns the column and the row of a tile in the grid of tiles.
+     */
+    private static int tileColumn(int tile) {
+        return tile % TILES_PER_SIDE;
+    }
+
+    private static int tileRow(int tile) {
+        return tile / TILES_PER_SIDE;
+    }
 
-        drawTransparentPolygon(gl, glu, glut);
+    /**
+     * Draws the tree with the given index on the terrain.
+     */
+    private void drawTree(GL2 gl, GLU glu, GLUT glut, int tree) {
+        double x = TREE_X[tree];
+        double y = TREE_Y[tree];
+
+        if (tree < PINE_TREES) {
+            drawPinetree(gl, glu, glut, x, y, heightAt(x, y), TREE_SIZES[tree]);
+        } else {
+            drawRoundTree(gl, glu, glut, x, y, heightAt(x, y), TREE_SIZES[tree]);
+        }
     }
 
     /**
      * Draws a transparent polygon where the water is supposed to be. Draws the
-     * polygon from -20,-20,-1 to 20,20,0. Is drawn as the last part of the
-     * terrain because of the blending. To ensure normals are correctly defined
+     * polygon from -20,-20,-1 to 20,20,0. Is drawn after all opaque items
+     * because of the blending. To ensure normals are correctly defined
      * the polygon is drawn as a loose collection of GL_QUADS.
      */
     private void drawTransparentPolygon(GL2 gl, GLU glu, GLUT glut) {
@@ -185,9 +374,10 @@ class Terrain {
      *
      * @param u A value between and including 0 and 1
      * @param v A value between and including 0 and 1
-     * @return A point on the terrain at the specified u and v coordinates.
+     * @param out Set to the point on the terrain at the specified u and v
+     * coordinates.
      */
-    private Vector pointAt(double u, double v) {
+    private Vec3 pointAt(double u, double v, Vec3 out) {
 
         double x, y, z;
 
@@ -195,18 +385,16 @@ class Terrain {
         y = v * 40 - 20;
         z = heightAt(x, y);
 
-        return new Vector(x, y, z);
+        return out.set(x, y, z);
     }
 
     /**
      * Tangent w.r.t. to u of the heightAt function. u and v are input
      * variables, ranging from 0 to 1. In the function both u and v are
      * multiplied with 40 and then 20 is subtracted so that the range of x and y
-     * is -20 to 20.
-     *
-     * @return
+     * is -20 to 20. The tangent is stored in out.
      */
-    private Vector tangentInU(double u, double v) {
+    private Vec3 tangentInU(double u, double v, Vec3 out) {
 
         double x, y, z;
 
@@ -214,27 +402,23 @@ class Terrain {
         y = 0;
         z = -7.2d * Math.sin(0.3d * (-20d + 40d * u) + 0.2d * (-20d + 40d * v)) + 16 * Math.sin(20d - 40d * u + 0.5d * (-20d + 40 * v));
 
-        return new Vector(x, y, z);
+        return out.set(x, y, z);
     }
 
     /**
      * Tangent w.r.t. to v of the heightAt function. u and v are input
      * variables, ranging from 0 to 1. In the function both u and v are
      * multiplied with 40 and then 20 is subtracted so that the range of x and y
-     * is -20 to 20.
-     *
-     * @param u
-     * @param v
-     * @return
+     * is -20 to 20. The tangent is stored in out.
      */
-    private Vector tangentInV(double u, double v) {
+    private Vec3 tangentInV(double u, double v, Vec3 out) {
         double x, y, z;
 
         x = 0;
         y = 40;
         z = -4.8d * Math.sin(0.3d * (-20d + 40d * u) + 0.2d * (-20d + 40d * v)) - 8 * Math.sin(20d - 40d * u + 0.5d * (-20d + 40d * v));
 
-        return new Vector(x, y, z);
+        return out.set(x, y, z);
     }
 
     /**
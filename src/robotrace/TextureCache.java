@@ -0,0 +1,522 @@
+package robotrace;
+
+import com.jogamp.opengl.util.texture.Texture;
+import com.jogamp.opengl.util.texture.TextureData;
+import com.jogamp.opengl.util.texture.TextureIO;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import javax.media.opengl.GL2;
+import javax.media.opengl.GLProfile;
+
+/**
+ * Loads the textures of the race with a full chain of mipmaps, and keeps the
+ * result in a cache on disk so later startups do not decode the images
+ * again.
+ *
+ * Images that are not in the cache, or changed since they were cached, are
+ * decoded and their mipmaps are computed in parallel, after which they are
+ * uploaded on the GL thread and written to the cache. Cached textures are
+ * mapped into memory and uploaded straight from the mapping.
+ *
+ * If compression is asked for and the driver supports S3TC, the textures are
+ * compressed by the driver to DXT1, or DXT5 if they have alpha, when they are
+ * first uploaded. The compressed levels are read back and cached, so the
+ * compression only costs time once.
+ *
+ * The textures are uploaded as the decoder returns them, the same as
+ * Base.loadTexture does, so the texture coordinates of the scene do not
+ * change. Only minification now uses the mipmaps.
+ *
+ * A cache file holds the magic number "RRTX", the format version, the length
+ * and modification time of the image it was made from, the size, the number
+ * of levels, the internal and pixel formats and whether it is compressed,
+ * followed by the size and bytes of every level.
+ */
+class TextureCache {
+
+    /**
+     * First four bytes of a cache file, "RRTX".
+     */
+    private static final int MAGIC = 0x52525458;
+
+    /**
+     * Version of the cache file format.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Size of the header of a cache file, and of the header of a level.
+     */
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 4 + 4 + 4;
+    private static final int LEVEL_HEADER_BYTES = 4 + 4 + 4;
+
+    /**
+     * Extension of the cache files, after the name of the image.
+     */
+    private static final String EXTENSION = ".mip";
+
+    /**
+     * Directory of the cache files, or null if nothing is cached.
+     */
+    private final Path directory;
+
+    /**
+     * Whether the textures should be compressed.
+     */
+    private final boolean compress;
+
+    /**
+     * Creates a cache in the directory, null to load without a cache.
+     */
+    public TextureCache(String directory, boolean compress) {
+        this.directory = directory == null ? null : Paths.get(directory);
+        this.compress = compress;
+    }
+
+    /**
+     * Loads the images, which are looked for in the working directory and in
+     * src like Base.loadTexture does. Returns the textures in the order of the
+     * files, null for a file that could not be loaded. Should be called on
+     * the GL thread.
+     */
+    public Texture[] load(GL2 gl, String... files) {
+        boolean compressed = compress && gl.isExtensionAvailable("GL_EXT_texture_compression_s3tc");
+        if (compress && !compressed) {
+            System.err.println("S3TC texture compression not supported, textures are not compressed");
+        }
+
+        Texture[] textures = new Texture[files.length];
+        List<CompletableFuture<MipmapChain>> decoding = new ArrayList<>(files.length);
+        GLProfile profile = gl.getGLProfile();
+
+        // Map the cached images, and start decoding the others in parallel.
+        for (int i = 0; i < files.length; i++) {
+            decoding.add(null);
+
+            File source = find(files[i]);
+            if (source == null) {
+                System.err.println("Could not find " + files[i]);
+                continue;
+            }
+
+            MappedByteBuffer cached = readCache(source, compressed);
+            if (cached != null) {
+                textures[i] = upload(gl, cached);
+                System.out.println("Loaded " + files[i] + " from the texture cache");
+            } else {
+                decoding.set(i, CompletableFuture.supplyAsync(() -> MipmapChain.decode(profile, source)));
+            }
+        }
+
+        for (int i = 0; i < files.length; i++) {
+            if (decoding.get(i) == null) {
+                continue;
+            }
+
+            MipmapChain chain;
+            try {
+                chain = decoding.get(i).join();
+            } catch (RuntimeException e) {
+                System.err.println("Could not decode " + files[i] + " for the cache: " + e.getCause());
+                textures[i] = loadUncached(gl, find(files[i]));
+                continue;
+            }
+
+            ByteBuffer encoded = chain.encode(gl, compressed);
+            textures[i] = upload(gl, encoded);
+            writeCache(find(files[i]), encoded);
+            System.out.println("Loaded " + files[i]);
+        }
+
+        return textures;
+    }
+
+    /**
+     * Loads the image the way Base.loadTexture does, but with mipmaps, for
+     * images the cache cannot decode. Returns null if it cannot be loaded.
+     */
+    private static Texture loadUncached(GL2 gl, File source) {
+        try {
+            Texture texture = TextureIO.newTexture(source, true);
+            texture.enable(gl);
+            System.out.println("Loaded " + source.getName());
+            return texture;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Could not load " + source.getName() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the image in the working directory, or else in src, or null.
+     */
+    private static File find(String file) {
+        File local = new File(file);
+        if (local.isFile()) {
+            return local;
+        }
+
+        File src = new File("src", file);
+        return src.isFile() ? src : null;
+    }
+
+    /**
+     * Returns the cache file of the image.
+     */
+    private Path cacheFile(File source) {
+        return directory.resolve(source.getName() + EXTENSION);
+    }
+
+    /**
+     * Maps the cache file of the image, or returns null if there is none, it
+     * does not match the image or the compression, or its levels do not fit
+     * in the file.
+     */
+    private MappedByteBuffer readCache(File source, boolean compressed) {
+        if (directory == null) {
+            return null;
+        }
+
+        Path file = cacheFile(source);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            boolean valid = buffer.remaining() >= HEADER_BYTES
+                    && buffer.getInt(0) == MAGIC
+                    && buffer.getInt(4) == VERSION
+                    && buffer.getLong(8) == source.length()
+                    && buffer.getLong(16) == source.lastModified()
+                    && (buffer.getInt(44) != 0) == compressed;
+
+            if (valid && !hasAllLevels(buffer)) {
+                System.err.println("Texture cache of " + source.getName() + " is damaged, decoding it again");
+                return null;
+            }
+
+            return valid ? buffer : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether the headers and bytes of all levels of the cache file
+     * fit in the buffer, which is not the case if writing it was cut off.
+     */
+    private static boolean hasAllLevels(ByteBuffer buffer) {
+        int levels = buffer.getInt(32);
+        if (levels < 1) {
+            return false;
+        }
+
+        long offset = HEADER_BYTES;
+        for (int l = 0; l < levels; l++) {
+            if (offset + LEVEL_HEADER_BYTES > buffer.limit()) {
+                return false;
+            }
+
+            int bytes = buffer.getInt((int) offset + 8);
+            offset += LEVEL_HEADER_BYTES;
+
+            if (bytes < 0 || offset + bytes > buffer.limit()) {
+                return false;
+            }
+            offset += bytes;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the encoded texture to the cache file of the image, stamped with
+     * the length and modification time of the image. The file is written
+     * under a temporary name and then moved into place, so a cache file is
+     * never left half written if the application stops while writing.
+     */
+    private void writeCache(File source, ByteBuffer encoded) {
+        if (directory == null) {
+            return;
+        }
+
+        encoded.putLong(8, source.length());
+        encoded.putLong(16, source.lastModified());
+        encoded.position(0);
+
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, source.getName(), ".tmp");
+
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                while (encoded.hasRemaining()) {
+                    channel.write(encoded);
+                }
+                channel.force(false);
+            }
+
+            try {
+                Files.move(temporary, cacheFile(source), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, cacheFile(source), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write the texture cache: " + e.getMessage());
+
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                    // The next write of the cache uses another temporary file.
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a texture from an encoded mipmap chain, in the layout of a
+     * cache file, and enables it like Base.loadTexture does.
+     */
+    private static Texture upload(GL2 gl, ByteBuffer encoded) {
+        int width = encoded.getInt(24);
+        int height = encoded.getInt(28);
+        int levels = encoded.getInt(32);
+        int internalFormat = encoded.getInt(36);
+        int pixelFormat = encoded.getInt(40);
+        boolean compressed = encoded.getInt(44) != 0;
+
+        int[] id = new int[1];
+        gl.glGenTextures(1, id, 0);
+        gl.glBindTexture(GL2.GL_TEXTURE_2D, id[0]);
+        gl.glPixelStorei(GL2.GL_UNPACK_ALIGNMENT, 1);
+
+        ByteBuffer level = encoded.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int offset = HEADER_BYTES;
+
+        for (int l = 0; l < levels; l++) {
+            int levelWidth = encoded.getInt(offset);
+            int levelHeight = encoded.getInt(offset + 4);
+            int bytes = encoded.getInt(offset + 8);
+            offset += LEVEL_HEADER_BYTES;
+
+            level.limit(offset + bytes);
+            level.position(offset);
+
+            if (compressed) {
+                gl.glCompressedTexImage2D(GL2.GL_TEXTURE_2D, l, internalFormat,
+                        levelWidth, levelHeight, 0, bytes, level);
+            } else {
+                gl.glTexImage2D(GL2.GL_TEXTURE_2D, l, internalFormat,
+                        levelWidth, levelHeight, 0, pixelFormat, GL2.GL_UNSIGNED_BYTE, level);
+            }
+
+            offset += bytes;
+        }
+
+        gl.glPixelStorei(GL2.GL_UNPACK_ALIGNMENT, 4);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MIN_FILTER, GL2.GL_LINEAR_MIPMAP_LINEAR);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_S, GL2.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_WRAP_T, GL2.GL_CLAMP_TO_EDGE);
+
+        Texture texture = new Texture(id[0], GL2.GL_TEXTURE_2D, width, height, width, height, false);
+        texture.enable(gl);
+        return texture;
+    }
+
+    /**
+     * A decoded image with all its mipmap levels, tightly packed with one
+     * byte per component.
+     */
+    private static final class MipmapChain {
+
+        private final int pixelFormat;
+        private final int components;
+        private final int[] widths;
+        private final int[] heights;
+        private final byte[][] levels;
+
+        private MipmapChain(int pixelFormat, int components, int width, int height, byte[] pixels) {
+            this.pixelFormat = pixelFormat;
+            this.components = components;
+
+            int count = 1;
+            while (Math.max(width >> (count - 1), height >> (count - 1)) > 1) {
+                count++;
+            }
+
+            widths = new int[count];
+            heights = new int[count];
+            levels = new byte[count][];
+
+            widths[0] = width;
+            heights[0] = height;
+            levels[0] = pixels;
+
+            for (int l = 1; l < count; l++) {
+                widths[l] = Math.max(1, width >> l);
+                heights[l] = Math.max(1, height >> l);
+                levels[l] = downsample(levels[l - 1], widths[l - 1], heights[l - 1], widths[l], heights[l]);
+            }
+        }
+
+        /**
+         * Decodes the image with TextureIO and computes its mipmaps. Only 8 bit
+         * RGB and RGBA images are supported, which covers the JPEG decoder.
+         */
+        static MipmapChain decode(GLProfile profile, File source) {
+            TextureData data;
+            try {
+                data = TextureIO.newTextureData(profile, source, false, null);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+
+            int components;
+            if (data.getPixelFormat() == GL2.GL_RGB) {
+                components = 3;
+            } else if (data.getPixelFormat() == GL2.GL_RGBA) {
+                components = 4;
+            } else {
+                throw new IllegalStateException("Unsupported pixel format " + data.getPixelFormat());
+            }
+            if (data.getPixelType() != GL2.GL_UNSIGNED_BYTE) {
+                throw new IllegalStateException("Unsupported pixel type " + data.getPixelType());
+            }
+
+            int width = data.getWidth();
+            int height = data.getHeight();
+            int row = width * components;
+            int alignment = Math.max(1, data.getAlignment());
+            int stride = (row + alignment - 1) / alignment * alignment;
+
+            ByteBuffer buffer = (ByteBuffer) data.getBuffer();
+            byte[] pixels = new byte[row * height];
+            for (int y = 0; y < height; y++) {
+                buffer.position(y * stride);
+                buffer.get(pixels, y * row, row);
+            }
+
+            MipmapChain chain = new MipmapChain(data.getPixelFormat(), components, width, height, pixels);
+            data.destroy();
+            return chain;
+        }
+
+        /**
+         * Averages the texels of a level that fall into each texel of the
+         * next level, a box filter that also handles odd sizes.
+         */
+        private byte[] downsample(byte[] source, int sourceWidth, int sourceHeight, int width, int height) {
+            byte[] result = new byte[width * height * components];
+
+            for (int y = 0; y < height; y++) {
+                int y0 = y * sourceHeight / height;
+                int y1 = Math.max(y0 + 1, (y + 1) * sourceHeight / height);
+
+                for (int x = 0; x < width; x++) {
+                    int x0 = x * sourceWidth / width;
+                    int x1 = Math.max(x0 + 1, (x + 1) * sourceWidth / width);
+
+                    for (int c = 0; c < components; c++) {
+                        int sum = 0;
+                        for (int sy = y0; sy < y1; sy++) {
+                            for (int sx = x0; sx < x1; sx++) {
+                                sum += source[(sy * sourceWidth + sx) * components + c] & 0xff;
+                            }
+                        }
+                        int count = (y1 - y0) * (x1 - x0);
+                        result[(y * width + x) * components + c] = (byte) ((sum + count / 2) / count);
+                    }
+                }
+            }
+
+            return result;
+        }
+
+        /**
+         * Encodes the chain in the layout of a cache file. If compressed, the
+         * levels are compressed by the driver and read back, which uses a
+         * temporary texture.
+         */
+        ByteBuffer encode(GL2 gl, boolean compressed) {
+            int internalFormat = compressed
+                    ? (components == 3 ? GL2.GL_COMPRESSED_RGB_S3TC_DXT1_EXT : GL2.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT)
+                    : (components == 3 ? GL2.GL_RGB8 : GL2.GL_RGBA8);
+
+            byte[][] data = compressed ? compressLevels(gl, internalFormat) : levels;
+
+            int size = HEADER_BYTES;
+            for (byte[] level : data) {
+                size += LEVEL_HEADER_BYTES + level.length;
+            }
+
+            ByteBuffer encoded = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+            encoded.putInt(MAGIC);
+            encoded.putInt(VERSION);
+            encoded.putLong(0);
+            encoded.putLong(0);
+            encoded.putInt(widths[0]);
+            encoded.putInt(heights[0]);
+            encoded.putInt(levels.length);
+            encoded.putInt(internalFormat);
+            encoded.putInt(pixelFormat);
+            encoded.putInt(compressed ? 1 : 0);
+
+            for (int l = 0; l < levels.length; l++) {
+                encoded.putInt(widths[l]);
+                encoded.putInt(heights[l]);
+                encoded.putInt(data[l].length);
+                encoded.put(data[l]);
+            }
+
+            encoded.flip();
+            return encoded;
+        }
+
+        /**
+         * Uploads the levels with a compressed internal format, which makes
+         * the driver compress them, and reads the compressed levels back.
+         */
+        private byte[][] compressLevels(GL2 gl, int internalFormat) {
+            byte[][] result = new byte[levels.length][];
+            int[] id = new int[1];
+            int[] size = new int[1];
+
+            gl.glGenTextures(1, id, 0);
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, id[0]);
+            gl.glPixelStorei(GL2.GL_UNPACK_ALIGNMENT, 1);
+
+            for (int l = 0; l < levels.length; l++) {
+                gl.glTexImage2D(GL2.GL_TEXTURE_2D, l, internalFormat, widths[l], heights[l], 0,
+                        pixelFormat, GL2.GL_UNSIGNED_BYTE, ByteBuffer.wrap(levels[l]));
+                gl.glGetTexLevelParameteriv(GL2.GL_TEXTURE_2D, l, GL2.GL_TEXTURE_COMPRESSED_IMAGE_SIZE, size, 0);
+
+                ByteBuffer compressed = ByteBuffer.allocateDirect(size[0]);
+                gl.glGetCompressedTexImage(GL2.GL_TEXTURE_2D, l, compressed);
+                result[l] = new byte[size[0]];
+                compressed.get(result[l]);
+            }
+
+            gl.glPixelStorei(GL2.GL_UNPACK_ALIGNMENT, 4);
+            gl.glDeleteTextures(1, id, 0);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package robotrace;
+
+/**
+ * Thread that produces the state of the race at a fixed tick rate, separate
+ * from the rendering. After every tick a snapshot of the race is published,
+ * which the renderer reads without locking. Subclasses decide how the next
+ * snapshot is made, by simulating the race or by reading it from a replay.
+ *
+ * The snapshots come from a fixed pool, so ticks do not allocate. The next
+ * snapshot is written into a snapshot of the pool that is not used by the
+ * published snapshot nor by the snapshot the reader is holding, and is only
+ * published through the volatile field once it is completely written. A
+ * reader holds a snapshot from getSnapshot until its next call of
+ * getSnapshot, so only one thread at a time should read the snapshots.
+ *
+ * Every tick advances the race by exactly TICK_MS. If a tick is late,
+ * because the machine was busy, the missed ticks are run back to back to
+ * catch up, up to MAX_CATCH_UP_TICKS after which the missed time is dropped.
+ */
+abstract class TickThread extends Thread {
+
+    /**
+     * Race time in ms per tick, 100 ticks per second.
+     */
+    static final int TICK_MS = 10;
+
+    /**
+     * Duration of a tick in ns.
+     */
+    static final long TICK_NANOS = TICK_MS * 1000000L;
+
+    /**
+     * Maximum number of ticks that are run back to back to catch up after the
+     * thread fell behind.
+     */
+    private static final int MAX_CATCH_UP_TICKS = 10;
+
+    /**
+     * Number of snapshots in the pool. The published snapshot and the
+     * snapshot held by the reader each use at most two snapshots, so one is
+     * always free to write the next tick into.
+     */
+    private static final int POOL_SIZE = 5;
+
+    /**
+     * Snapshots that are rotated between the ticks.
+     */
+    private final RaceSnapshot[] pool = new RaceSnapshot[POOL_SIZE];
+
+    /**
+     * The latest published snapshot.
+     */
+    private volatile RaceSnapshot snapshot;
+
+    /**
+     * Snapshot last returned by getSnapshot, which is not overwritten until
+     * the reader asks for the next one.
+     */
+    private volatile RaceSnapshot reading;
+
+    /**
+     * Number of the tick of the latest published snapshot.
+     */
+    private volatile long tick;
+
+    /**
+     * Total time in ns spent making snapshots, and the number of ticks in
+     * that time. Written by this thread only.
+     */
+    private volatile long stepNanos;
+    private volatile long ticks;
+
+    /**
+     * Creates the thread with a pool of snapshots of robots in the given
+     * lanes. The subclass should publish the initial snapshot right away.
+     */
+    protected TickThread(String name, int[] lane) {
+        super(name);
+        setDaemon(true);
+
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = new RaceSnapshot(lane);
+        }
+    }
+
+    /**
+     * Makes the snapshot of the tick after the given snapshot by overwriting
+     * the free snapshot, and returns it. May also return the given snapshot
+     * if the race does not move on.
+     */
+    protected abstract RaceSnapshot nextSnapshot(RaceSnapshot snapshot, RaceSnapshot free);
+
+    /**
+     * Returns the latest published snapshot of the race. The snapshot is not
+     * overwritten until the next call.
+     */
+    public RaceSnapshot getSnapshot() {
+        RaceSnapshot current;
+
+        // Pin the snapshot, and check that it was not replaced in the
+        // meantime, because then the tick thread may not have seen the pin
+        // and may already be overwriting its previous state.
+        do {
+            current = snapshot;
+            reading = current;
+        } while (snapshot != current);
+
+        return current;
+    }
+
+    /**
+     * Returns the number of the tick of the latest published snapshot.
+     */
+    public long getTick() {
+        return tick;
+    }
+
+    /**
+     * Returns a snapshot of the pool that neither the published snapshot nor
+     * the snapshot held by the reader uses, into which the next snapshot can
+     * be written. Should only be called from this thread, or before it is
+     * started.
+     */
+    protected RaceSnapshot freeSnapshot() {
+        RaceSnapshot current = snapshot;
+        RaceSnapshot held = reading;
+
+        for (RaceSnapshot candidate : pool) {
+            if ((current == null || !current.uses(candidate))
+                    && (held == null || !held.uses(candidate))) {
+                return candidate;
+            }
+        }
+
+        throw new IllegalStateException("No free snapshot");
+    }
+
+    /**
+     * Publishes a completely written snapshot. Should only be called from
+     * this thread, or before it is started.
+     */
+    protected void publish(RaceSnapshot snapshot) {
+        this.tick = snapshot.getTick();
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Returns the number of ticks run since the thread was created.
+     */
+    public long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Returns the total time in ns spent running the ticks, excluding the time
+     * spent waiting for the next tick.
+     */
+    public long getStepNanos() {
+        return stepNanos;
+    }
+
+    /**
+     * Runs one tick on the calling thread and publishes the snapshot. Used to
+     * drive the race in lockstep with the frames, only allowed while the
+     * thread is not started.
+     */
+    public void advance() {
+        if (getState() != State.NEW) {
+            throw new IllegalStateException(getName() + " is already started");
+        }
+
+        publish(nextSnapshot(snapshot, freeSnapshot()));
+        ticks++;
+    }
+
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime() + TICK_NANOS;
+
+        while (!isInterrupted()) {
+            long wait = nextTick - System.nanoTime();
+
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+
+            if (-wait > MAX_CATCH_UP_TICKS * TICK_NANOS) {
+                nextTick = System.nanoTime();
+            }
+
+            long start = System.nanoTime();
+            RaceSnapshot next = nextSnapshot(snapshot, freeSnapshot());
+            stepNanos += System.nanoTime() - start;
+            ticks++;
+
+            publish(next);
+            nextTick += TICK_NANOS;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package robotrace;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import javax.media.opengl.GL2;
+
+/**
+ * Geometry of the torso of a robot, generated once and shared by all robots.
+ *
+ * The torso is a cylinder whose radius decreases from the hips to the
+ * shoulders, closed at the top and the bottom. The outside of the cylinder is
+ * stored as a quad strip, the two caps as triangle strips, all in one vertex
+ * and normal buffer. The torso texture is a strip of four liveries, for each
+ * livery a separate set of texture coordinates for the outside is stored,
+ * both into the torso texture and into the livery's cell of the RobotAtlas.
+ */
+class TorsoMesh {
+
+    /**
+     * Number of liveries in the torso texture strip.
+     */
+    static final int LIVERIES = 4;
+
+    /**
+     * Number of subdivisions around the torso.
+     */
+    private static final int SUBDIVISIONS = 20;
+
+    /**
+     * Number of vertices in each of the three strips.
+     */
+    private static final int STRIP_VERTICES = (SUBDIVISIONS + 1) * 2;
+
+    /**
+     * Radius on the x axis at the bottom of the torso.
+     */
+    private final double lowerRadius;
+
+    /**
+     * Radius on the x axis at the top of the torso.
+     */
+    private final double upperRadius;
+
+    /**
+     * Height of the torso.
+     */
+    private final double height;
+
+    /**
+     * Vertices of the outside, the top cap and the bottom cap, in that order.
+     */
+    private final FloatBuffer vertices;
+
+    /**
+     * Normals matching the vertices.
+     */
+    private final FloatBuffer normals;
+
+    /**
+     * Texture coordinates of the outside for each livery.
+     */
+    private final FloatBuffer[] texCoords = new FloatBuffer[LIVERIES];
+
+    /**
+     * Texture coordinates of the outside in the robot atlas for each livery.
+     */
+    private final FloatBuffer[] atlasTexCoords = new FloatBuffer[LIVERIES];
+
+    /**
+     * First vertex of the top and the bottom cap, used to draw both caps with
+     * a single call.
+     */
+    private final IntBuffer capFirsts;
+
+    /**
+     * Number of vertices of the top and the bottom cap.
+     */
+    private final IntBuffer capCounts;
+
+    /**
+     * Generates the geometry of a torso with the given radius at the bottom
+     * and top, and the given height.
+     */
+    public TorsoMesh(double lowerRadius, double upperRadius, double height) {
+        this.lowerRadius = lowerRadius;
+        this.upperRadius = upperRadius;
+        this.height = height;
+
+        vertices = DirectBuffers.allocate(STRIP_VERTICES * 3 * 3);
+        normals = DirectBuffers.allocate(STRIP_VERTICES * 3 * 3);
+
+        double steps = 1d / SUBDIVISIONS;
+
+        // The outside of the torso.
+        for (int i = 0; i <= SUBDIVISIONS; i++) {
+            Vector lower = torsoPoint(i * steps, 0);
+            Vector upper = torsoPoint(i * steps, 1);
+
+            Vector lowerNormal = torsoTangentInUDirection(i * steps, 0).cross(torsoTangentInVDirection(i * steps, 0)).normalized();
+            Vector upperNormal = torsoTangentInUDirection(i * steps, 1).cross(torsoTangentInVDirection(i * steps, 1)).normalized();
+
+            put(normals, lowerNormal.x, lowerNormal.y, lowerNormal.z);
+            put(vertices, lower.x, lower.y, lower.z);
+
+            put(normals, upperNormal.x, upperNormal.y, upperNormal.z);
+            put(vertices, upper.x, upper.y, upper.z);
+        }
+
+        // The top of the torso.
+        for (int i = 0; i <= SUBDIVISIONS; i++) {
+            Vector edgePoint = torsoPoint(i * steps, 1);
+
+            put(normals, 0, 0, 1);
+            put(vertices, edgePoint.x, edgePoint.y, edgePoint.z);
+
+            put(normals, 0, 0, 1);
+            put(vertices, 0, 0, height);
+        }
+
+        // The bottom of the torso.
+        for (int i = 0; i <= SUBDIVISIONS; i++) {
+            Vector edgePoint = torsoPoint(i * steps, 0);
+
+            put(normals, 0, 0, -1);
+            put(vertices, edgePoint.x, edgePoint.y, edgePoint.z);
+
+            put(normals, 0, 0, -1);
+            put(vertices, 0, 0, 0);
+        }
+
+        vertices.flip();
+        normals.flip();
+
+        /**
+         * Based on the livery (1 to 4) 1/4 of the texture strip is mapped
+         * onto both the front and back of the torso.
+         */
+        for (int livery = 1; livery <= LIVERIES; livery++) {
+            FloatBuffer coords = DirectBuffers.allocate(STRIP_VERTICES * 2);
+            FloatBuffer atlasCoords = DirectBuffers.allocate(STRIP_VERTICES * 2);
+            int cell = RobotAtlas.FIRST_LIVERY + livery - 1;
+
+            for (int i = 0; i <= SUBDIVISIONS; i++) {
+                double t = i;
+
+                if (t > 10) {
+                    t -= 10;
+                }
+
+                double s = ((t / 10d) / 4d) + ((livery - 1d) / 4);
+
+                coords.put((float) s).put(0f);
+                coords.put((float) s).put(1f);
+
+                float atlasS = (float) RobotAtlas.s(cell, t / 10d);
+                atlasCoords.put(atlasS).put((float) RobotAtlas.t(cell, 0));
+                atlasCoords.put(atlasS).put((float) RobotAtlas.t(cell, 1));
+            }
+
+            coords.flip();
+            texCoords[livery - 1] = coords;
+            atlasCoords.flip();
+            atlasTexCoords[livery - 1] = atlasCoords;
+        }
+
+        capFirsts = ByteBuffer.allocateDirect(2 * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        capFirsts.put(STRIP_VERTICES).put(STRIP_VERTICES * 2).flip();
+
+        capCounts = ByteBuffer.allocateDirect(2 * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+        capCounts.put(STRIP_VERTICES).put(STRIP_VERTICES).flip();
+    }
+
+    /**
+     * Draws the torso with its origin at the bottom center. The outside is
+     * drawn with the currently bound texture using the texture coordinates of
+     * the livery (1 to 4), after which both caps are drawn with one call.
+     *
+     * If atlas is true the bound texture is the robot atlas, and the caps are
+     * drawn with the white cell of the atlas. Otherwise the bound texture is
+     * the torso texture, which is unbound for the caps.
+     */
+    public void draw(GL2 gl, int livery, boolean atlas) {
+        gl.glEnableClientState(GL2.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL2.GL_NORMAL_ARRAY);
+        gl.glEnableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+
+        FloatBuffer[] coords = atlas ? atlasTexCoords : texCoords;
+
+        gl.glVertexPointer(3, GL2.GL_FLOAT, 0, vertices);
+        gl.glNormalPointer(GL2.GL_FLOAT, 0, normals);
+        gl.glTexCoordPointer(2, GL2.GL_FLOAT, 0, coords[(livery - 1) % LIVERIES]);
+
+        gl.glDrawArrays(GL2.GL_QUAD_STRIP, 0, STRIP_VERTICES);
+
+        gl.glDisableClientState(GL2.GL_TEXTURE_COORD_ARRAY);
+
+        /**
+         * Prevent the caps and the rest of the robot from being impacted by
+         * the texture.
+         */
+        if (atlas) {
+            gl.glTexCoord2d(RobotAtlas.WHITE_S, RobotAtlas.WHITE_T);
+        } else {
+            gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+        }
+
+        gl.glMultiDrawArrays(GL2.GL_TRIANGLE_STRIP, capFirsts, capCounts, 2);
+
+        gl.glDisableClientState(GL2.GL_NORMAL_ARRAY);
+        gl.glDisableClientState(GL2.GL_VERTEX_ARRAY);
+    }
+
+    /**
+     * Calculates a point on the cylinder surface of the torso of the robot. A
+     * standard parametric cylinder function is used. However, the radius of the
+     * drawn eclipse is decreased as v increases. This way, the effect of a body
+     * that is wider at the hips is mimicked.
+     *
+     * A is the maximum radius on the X axis at V is 0. D is how much A
+     * decreases as V increases. Until at V is 1 the radius of the torso on the
+     * X axis is the upper radius.
+     *
+     * @param u A value from 0 to 1
+     * @param v A value from 0 to 1
+     * @return A point on the torso.
+     */
+    private Vector torsoPoint(double u, double v) {
+        double a = lowerRadius;
+
+        double d = lowerRadius - upperRadius;
+
+        return new Vector((a - d * v) * Math.cos(2 * Math.PI * u), .6666 * (a - d * v) * Math.sin(2 * Math.PI * u), height * v);
+    }
+
+    /**
+     * Derivative of the torsoPoint function w.r.t to the U parameter.
+     */
+    private Vector torsoTangentInUDirection(double u, double v) {
+        double a = lowerRadius;
+        double d = lowerRadius - upperRadius;
+
+        return new Vector(-2 * Math.PI * (a - d * v) * Math.sin(2 * Math.PI * u), .666 * 2 * Math.PI * (a - d * v) * Math.cos(2 * Math.PI * u), 0);
+    }
+
+    /**
+     * Derivative of the torsoPoint function w.r.t. to the V parameter.
+     */
+    private Vector torsoTangentInVDirection(double u, double v) {
+        double d = lowerRadius - upperRadius;
+
+        return new Vector(-d * Math.cos(2 * Math.PI * u), -.666 * d * Math.sin(2 * Math.PI * u), height);
+    }
+
+    /**
+     * Puts three values in the buffer as floats.
+     */
+    private static void put(FloatBuffer buffer, double x, double y, double z) {
+        buffer.put((float) x).put((float) y).put((float) z);
+    }
+}
@@ -0,0 +1,118 @@
+package robotrace;
+
+/**
+ * A mutable vector of three doubles, used instead of Vector in code that runs
+ * every frame. Vector returns a new object from every operation, a Vec3 is
+ * changed in place and returned, so operations can still be chained without
+ * allocating. Classes keep the Vec3s they need as fields and reuse them.
+ *
+ * Vector is still used where the library expects one; set and toVector
+ * convert between the two.
+ */
+class Vec3 {
+
+    double x;
+    double y;
+    double z;
+
+    /**
+     * Creates the zero vector.
+     */
+    Vec3() {
+    }
+
+    /**
+     * Creates the vector (x, y, z).
+     */
+    Vec3(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    /**
+     * Sets this vector to (x, y, z).
+     */
+    Vec3 set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    /**
+     * Sets this vector to the other vector.
+     */
+    Vec3 set(Vec3 other) {
+        return set(other.x, other.y, other.z);
+    }
+
+    /**
+     * Sets this vector to the library vector.
+     */
+    Vec3 set(Vector other) {
+        return set(other.x, other.y, other.z);
+    }
+
+    /**
+     * Adds (x, y, z) to this vector.
+     */
+    Vec3 add(double x, double y, double z) {
+        this.x += x;
+        this.y += y;
+        this.z += z;
+        return this;
+    }
+
+    /**
+     * Adds the other vector times the factor to this vector.
+     */
+    Vec3 addScaled(Vec3 other, double factor) {
+        return add(other.x * factor, other.y * factor, other.z * factor);
+    }
+
+    /**
+     * Multiplies this vector by the factor.
+     */
+    Vec3 scale(double factor) {
+        x *= factor;
+        y *= factor;
+        z *= factor;
+        return this;
+    }
+
+    /**
+     * Sets this vector to the cross product of a and b, either of which may
+     * be this vector.
+     */
+    Vec3 cross(Vec3 a, Vec3 b) {
+        return set(a.y * b.z - a.z * b.y, a.z * b.x - a.x * b.z, a.x * b.y - a.y * b.x);
+    }
+
+    /**
+     * Returns the length of this vector.
+     */
+    double length() {
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * Scales this vector to length 1. Like Vector.normalized, the zero vector
+     * becomes NaN.
+     */
+    Vec3 normalize() {
+        return scale(1 / length());
+    }
+
+    /**
+     * Returns a new library vector equal to this vector.
+     */
+    Vector toVector() {
+        return new Vector(x, y, z);
+    }
+
+    @Override
+    public String toString() {
+        return "(" + x + ", " + y + ", " + z + ")";
+    }
+}
@@ -0,0 +1,65 @@
+package robotrace;
+
+/**
+ * Static vector math on points stored as consecutive x, y and z in a double
+ * array, for geometry that is evaluated every frame from fixed data, such as
+ * the control points of a track. The results are written into a Vec3, so
+ * nothing is allocated.
+ */
+final class VecMath {
+
+    private VecMath() {
+    }
+
+    /**
+     * Returns the coordinates of the library vectors as one array, x, y and z
+     * of every vector after each other.
+     */
+    static double[] flatten(Vector[] vectors) {
+        double[] coordinates = new double[vectors.length * 3];
+        for (int i = 0; i < vectors.length; i++) {
+            coordinates[i * 3] = vectors[i].x;
+            coordinates[i * 3 + 1] = vectors[i].y;
+            coordinates[i * 3 + 2] = vectors[i].z;
+        }
+        return coordinates;
+    }
+
+    /**
+     * Sets out to the point at t of the cubic Bezier curve with the four
+     * control points starting at the given point index in the array.
+     */
+    static Vec3 cubicBezier(double[] points, int first, double t, Vec3 out) {
+        double s = 1 - t;
+        double w0 = s * s * s;
+        double w1 = 3 * s * s * t;
+        double w2 = 3 * s * t * t;
+        double w3 = t * t * t;
+
+        int p = first * 3;
+        return out.set(
+                w0 * points[p] + w1 * points[p + 3] + w2 * points[p + 6] + w3 * points[p + 9],
+                w0 * points[p + 1] + w1 * points[p + 4] + w2 * points[p + 7] + w3 * points[p + 10],
+                w0 * points[p + 2] + w1 * points[p + 5] + w2 * points[p + 8] + w3 * points[p + 11]);
+    }
+
+    /**
+     * Sets out to the derivative at t of the cubic Bezier curve with the four
+     * control points starting at the given point index in the array.
+     */
+    static Vec3 cubicBezierTangent(double[] points, int first, double t, Vec3 out) {
+        double s = 1 - t;
+        double w0 = 3 * s * s;
+        double w1 = 6 * t * s;
+        double w2 = 3 * t * t;
+
+        int p = first * 3;
+        return out.set(
+                w0 * (points[p + 3] - points[p]) + w1 * (points[p + 6] - points[p + 3])
+                + w2 * (points[p + 9] - points[p + 6]),
+                w0 * (points[p + 4] - points[p + 1]) + w1 * (points[p + 7] - points[p + 4])
+                + w2 * (points[p + 10] - points[p + 7]),
+                w0 * (points[p + 5] - points[p + 2]) + w1 * (points[p + 8] - points[p + 5])
+                + w2 * (points[p + 11] - points[p + 8]));
+    }
+}
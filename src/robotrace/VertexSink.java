@@ -0,0 +1,36 @@
+package robotrace;
+
+/**
+ * Receives the vertices of a piece of geometry in the same way immediate mode
+ * does: begin, then per vertex its normal and texture coordinates followed
+ * by the vertex itself, then end. This lets the same code that generates the
+ * geometry either draw it in immediate mode or collect it into a mesh.
+ */
+interface VertexSink {
+
+    /**
+     * Starts a primitive of the given GL primitive type.
+     */
+    void begin(int mode);
+
+    /**
+     * Sets the normal of the following vertices.
+     */
+    void normal(double x, double y, double z);
+
+    /**
+     * Sets the texture coordinates of the following vertices. For a 1D
+     * texture only s is used.
+     */
+    void texCoord(double s, double t);
+
+    /**
+     * Adds a vertex with the current normal and texture coordinates.
+     */
+    void vertex(double x, double y, double z);
+
+    /**
+     * Ends the primitive.
+     */
+    void end();
+}
@@ -0,0 +1,217 @@
+package robotrace;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Measures the bytes allocated by the calling thread over thousands of frames
+ * of the per-frame simulation path and asserts a fixed budget per frame, so
+ * that garbage does not creep back into paths that run every frame. Every
+ * measured frame is first run for a number of warm up frames, so lazily
+ * created state and code that is not yet compiled do not count.
+ */
+public class AllocationTest {
+
+    /**
+     * Number of robots in the race.
+     */
+    private static final int ROBOTS = 100;
+
+    /**
+     * Number of frames run before and during the measurement.
+     */
+    private static final int WARMUP_FRAMES = 10000;
+    private static final int FRAMES = 5000;
+
+    /**
+     * Simulated time in ms per frame.
+     */
+    private static final int MS_PER_FRAME = 16;
+
+    /**
+     * Bytes allowed over all measured frames on top of the budget, for the
+     * accounting of the measurement itself.
+     */
+    private static final long SLACK = 1024;
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    private final RaceSimulation simulation = new RaceSimulation(
+            RaceSimulation.spreadOverLanes(ROBOTS, RaceTrack.NUMBER_OF_LANES), 42);
+    private final RaceTrack raceTrack = RobotRace.createRaceTracks()[1];
+    private final Robot[] robots = new Robot[ROBOTS];
+    private final List<Robot> robotList = Arrays.asList(robots);
+    private final Leaderboard leaderboard = new Leaderboard(ROBOTS);
+    private final RaceSnapshot snapshot = RaceSnapshot.initial(simulation);
+
+    public AllocationTest() {
+        MaterialState materialState = new MaterialState();
+        for (int i = 0; i < ROBOTS; i++) {
+            robots[i] = new Robot(Material.values()[i % Material.values().length],
+                    new Vector(0, 0, 0), (i % 4) + 1, i, materialState);
+        }
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Runs the frame for the warm up frames, then measures the bytes the
+     * frame allocates over FRAMES frames and asserts that they are within
+     * the budget per frame.
+     */
+    private static void assertAllocatesAtMost(String name, long budgetPerFrame, Runnable frame) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            frame.run();
+        }
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < FRAMES; i++) {
+            frame.run();
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        Assert.assertTrue(name + " allocated " + allocated / FRAMES + " bytes per frame, budget "
+                + budgetPerFrame, allocated <= budgetPerFrame * FRAMES + SLACK);
+    }
+
+    /**
+     * Places every robot on the track at its position in the last snapshot.
+     */
+    private void placeRobots() {
+        for (Robot rob : robots) {
+            raceTrack.getLanePoint(rob.getLane(), rob.getPosOnTrack(), rob.position);
+            raceTrack.getLaneTangent(rob.getLane(), rob.getPosOnTrack(), rob.direction);
+        }
+    }
+
+    @Test
+    public void testSimulationStep() {
+        assertAllocatesAtMost("step", 0, () -> simulation.step(MS_PER_FRAME));
+    }
+
+    @Test
+    public void testTick() {
+        ForkJoinPool pool = new ForkJoinPool(1);
+        SimulationThread thread = new SimulationThread(new RaceSimulation(
+                RaceSimulation.spreadOverLanes(ROBOTS, RaceTrack.NUMBER_OF_LANES), 42), pool);
+
+        try {
+            assertAllocatesAtMost("tick", 0, () -> {
+                thread.advance();
+                RaceSnapshot current = thread.getSnapshot();
+                for (Robot rob : robots) {
+                    rob.present(current, 0.5);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPresent() {
+        assertAllocatesAtMost("present", 0, () -> {
+            for (Robot rob : robots) {
+                rob.present(snapshot, 0.5);
+            }
+        });
+    }
+
+    @Test
+    public void testLeaderboard() {
+        assertAllocatesAtMost("leaderboard", 0, () -> {
+            simulation.step(MS_PER_FRAME);
+            for (int i = 0; i < ROBOTS; i++) {
+                leaderboard.set(i, simulation.getTotalDistanceTravelled(i));
+            }
+            leaderboard.reorder();
+        });
+    }
+
+    @Test
+    public void testStickFigures() {
+        StickFigureBatch batch = new StickFigureBatch(ROBOTS);
+        placeRobots();
+
+        assertAllocatesAtMost("stick figures", 0, () -> {
+            batch.clear();
+            for (Robot rob : robots) {
+                rob.addStickFigure(batch, rob.getTAnim());
+            }
+        });
+    }
+
+    @Test
+    public void testTrackQueries() {
+        assertAllocatesAtMost("track queries", 0, () -> {
+            simulation.step(MS_PER_FRAME);
+            for (int i = 0; i < ROBOTS; i++) {
+                raceTrack.getLanePoint(simulation.getLane(i), simulation.getPosOnTrack(i), robots[i].position);
+                raceTrack.getLaneTangent(simulation.getLane(i), simulation.getPosOnTrack(i), robots[i].direction);
+            }
+        });
+    }
+
+    @Test
+    public void testTrackAndTerrainGeometry() {
+        Terrain terrain = new Terrain();
+        VertexSink sink = new VertexSink() {
+            @Override
+            public void begin(int mode) {
+            }
+
+            @Override
+            public void normal(double x, double y, double z) {
+            }
+
+            @Override
+            public void texCoord(double s, double t) {
+            }
+
+            @Override
+            public void vertex(double x, double y, double z) {
+            }
+
+            @Override
+            public void end() {
+            }
+        };
+
+        // The fixed-function renderer generates the visible geometry every frame.
+        assertAllocatesAtMost("geometry", 0, () -> {
+            for (int segment = 0; segment < RaceTrack.SEGMENTS; segment++) {
+                raceTrack.emitTop(sink, segment);
+                raceTrack.emitSides(sink, segment);
+            }
+            terrain.emitTile(sink, 0);
+        });
+    }
+
+    @Test
+    public void testCameraUpdate() {
+        GlobalState gs = new GlobalState();
+        Camera camera = new Camera();
+
+        for (int mode = 1; mode <= 3; mode++) {
+            gs.camMode = mode;
+            placeRobots();
+            leaderboard.reorder();
+
+            assertAllocatesAtMost("camera mode " + mode, 0,
+                    () -> camera.update(gs, robotList, leaderboard));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package robotrace;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the percentiles of the histogram on known distributions against the
+ * exact percentiles of the recorded values: a percentile is never below the
+ * exact value, and above it by at most the width of its bucket. Durations
+ * beyond the last bucket are reported as the largest recorded value.
+ */
+public class HistogramTest {
+
+    /**
+     * Relative accuracy of a percentile, 1 / SUB_BUCKETS.
+     */
+    private static final double ACCURACY = 1 / 8d;
+
+    /**
+     * Smallest duration that does not fall in the first bucket.
+     */
+    private static final long FIRST_BUCKET_BOUND = 1024;
+
+    /**
+     * Smallest duration that falls in the last bucket, about 8.6 s.
+     */
+    private static final long LAST_BUCKET_START = 1L << 33;
+
+    private static final double[] PERCENTILES = {0, 1, 10, 25, 50, 75, 90, 99, 99.9, 100};
+
+    @Test
+    public void testEmpty() {
+        Histogram histogram = new Histogram();
+
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMean());
+        Assert.assertEquals(0, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void testBuckets() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 100000; i++) {
+            long nanos = (long) Math.pow(2, random.nextDouble() * 40);
+            int bucket = Histogram.bucketOf(nanos);
+
+            Assert.assertTrue(nanos + " above its bucket", nanos < Histogram.upperBoundOf(bucket));
+            if (bucket > 0) {
+                Assert.assertTrue(nanos + " below its bucket", nanos >= Histogram.upperBoundOf(bucket - 1));
+            }
+        }
+
+        for (int bucket = 1; bucket < Histogram.BUCKETS; bucket++) {
+            Assert.assertTrue(Histogram.upperBoundOf(bucket) > Histogram.upperBoundOf(bucket - 1));
+        }
+
+        Assert.assertEquals(Histogram.BUCKETS - 1, Histogram.bucketOf(LAST_BUCKET_START));
+        Assert.assertEquals(Histogram.BUCKETS - 2, Histogram.bucketOf(LAST_BUCKET_START - 1));
+        Assert.assertEquals(Histogram.BUCKETS - 1, Histogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testConstant() {
+        Histogram histogram = new Histogram();
+        for (int i = 0; i < 1000; i++) {
+            histogram.record(16000000);
+        }
+
+        for (double percentile : PERCENTILES) {
+            Assert.assertEquals(16000000, histogram.getPercentile(percentile));
+        }
+        Assert.assertEquals(16000000, histogram.getMean());
+        Assert.assertEquals(16000000, histogram.getMax());
+    }
+
+    @Test
+    public void testUniform() {
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (i + 1) * 1000L;
+        }
+
+        assertPercentiles(values);
+    }
+
+    @Test
+    public void testExponential() {
+        Random random = new Random(42);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) (-Math.log(1 - random.nextDouble()) * 5000000);
+        }
+
+        assertPercentiles(values);
+    }
+
+    @Test
+    public void testOverflow() {
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i < 990 ? 1000000 : LAST_BUCKET_START + i * 1000000000L;
+        }
+
+        Histogram histogram = assertPercentiles(values);
+
+        // The last bucket has no upper bound, the largest value stands in.
+        long max = LAST_BUCKET_START + 999 * 1000000000L;
+        Assert.assertEquals(max, histogram.getMax());
+        Assert.assertEquals(max, histogram.getPercentile(99.5));
+        Assert.assertEquals(max, histogram.getPercentile(100));
+        Assert.assertTrue(histogram.getPercentile(99) <= 1000000 * (1 + ACCURACY));
+    }
+
+    @Test
+    public void testReset() {
+        Histogram histogram = new Histogram();
+        histogram.record(5000);
+        histogram.record(LAST_BUCKET_START * 2);
+        histogram.reset();
+
+        Assert.assertEquals(0, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getPercentile(100));
+
+        histogram.record(5000);
+        Assert.assertEquals(5000, histogram.getPercentile(100));
+    }
+
+    /**
+     * Records the values and asserts that every percentile lies between the
+     * exact percentile and the upper bound of its bucket, and never above the
+     * largest value. Returns the histogram.
+     */
+    private static Histogram assertPercentiles(long[] values) {
+        Histogram histogram = new Histogram();
+        long sum = 0;
+        for (long value : values) {
+            histogram.record(value);
+            sum += value;
+        }
+
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        long max = sorted[sorted.length - 1];
+
+        Assert.assertEquals(values.length, histogram.getCount());
+        Assert.assertEquals(sum / values.length, histogram.getMean());
+        Assert.assertEquals(max, histogram.getMax());
+
+        for (double percentile : PERCENTILES) {
+            int rank = (int) Math.max(1, Math.ceil(percentile / 100 * values.length));
+            long exact = sorted[rank - 1];
+            long reported = histogram.getPercentile(percentile);
+
+            String message = "p" + percentile + " of exact " + exact;
+            Assert.assertTrue(message + " reported below it as " + reported, reported >= exact);
+            Assert.assertTrue(message + " reported above the max as " + reported, reported <= max);
+            if (exact < LAST_BUCKET_START) {
+                long bound = Math.max(FIRST_BUCKET_BOUND, (long) Math.ceil(exact * (1 + ACCURACY)));
+                Assert.assertTrue(message + " reported as " + reported, reported <= bound);
+            }
+        }
+
+        return histogram;
+    }
+}
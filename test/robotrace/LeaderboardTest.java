@@ -0,0 +1,134 @@
+package robotrace;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the ranking of the leaderboard against a full sort of the robots by
+ * distance, both when robots only overtake a few others between reorders and
+ * when the order changes so much that the merge sort takes over.
+ */
+public class LeaderboardTest {
+
+    private static final int ROBOTS = 500;
+
+    @Test
+    public void testInitialOrder() {
+        Leaderboard leaderboard = new Leaderboard(ROBOTS);
+
+        for (int i = 0; i < ROBOTS; i++) {
+            Assert.assertEquals(i, leaderboard.getRobotAt(i));
+            Assert.assertEquals(i, leaderboard.getRank(i));
+        }
+        Assert.assertEquals(0, leaderboard.getLeader());
+        Assert.assertEquals(ROBOTS - 1, leaderboard.getLast());
+        Assert.assertEquals(-1, leaderboard.getAhead(0));
+    }
+
+    @Test
+    public void testSmallSteps() {
+        Leaderboard leaderboard = new Leaderboard(ROBOTS);
+        double[] distances = new double[ROBOTS];
+        Random random = new Random(42);
+
+        // Start in order of index, a short distance apart, after which every
+        // frame robots only gain a little on each other.
+        for (int i = 0; i < ROBOTS; i++) {
+            distances[i] = (ROBOTS - i) * 0.001;
+        }
+
+        for (int frame = 0; frame < 1000; frame++) {
+            for (int i = 0; i < ROBOTS; i++) {
+                distances[i] += random.nextDouble() * 0.0001;
+                leaderboard.set(i, distances[i]);
+            }
+            leaderboard.reorder();
+
+            assertRanking(leaderboard, distances);
+        }
+
+        Assert.assertTrue("No robot overtook another", leaderboard.getMoves() > 0);
+        Assert.assertEquals(0, leaderboard.getFullSorts());
+    }
+
+    @Test
+    public void testShuffle() {
+        Leaderboard leaderboard = new Leaderboard(ROBOTS);
+        double[] distances = new double[ROBOTS];
+        Random random = new Random(42);
+
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < ROBOTS; i++) {
+                distances[i] = random.nextDouble() * 10;
+                leaderboard.set(i, distances[i]);
+            }
+            leaderboard.reorder();
+
+            assertRanking(leaderboard, distances);
+        }
+
+        Assert.assertEquals(20, leaderboard.getFullSorts());
+    }
+
+    @Test
+    public void testReversed() {
+        Leaderboard leaderboard = new Leaderboard(ROBOTS);
+        double[] distances = new double[ROBOTS];
+
+        for (int i = 0; i < ROBOTS; i++) {
+            distances[i] = i;
+            leaderboard.set(i, distances[i]);
+        }
+        leaderboard.reorder();
+
+        Assert.assertEquals(1, leaderboard.getFullSorts());
+        assertRanking(leaderboard, distances);
+        Assert.assertEquals(ROBOTS - 1, leaderboard.getLeader());
+        Assert.assertEquals(0, leaderboard.getLast());
+    }
+
+    @Test
+    public void testTies() {
+        Leaderboard leaderboard = new Leaderboard(ROBOTS);
+        double[] distances = new double[ROBOTS];
+        Random random = new Random(42);
+
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < ROBOTS; i++) {
+                distances[i] = random.nextInt(5);
+                leaderboard.set(i, distances[i]);
+            }
+            leaderboard.reorder();
+
+            assertRanking(leaderboard, distances);
+        }
+    }
+
+    /**
+     * Asserts that the leaderboard ranks the robots like a full sort by
+     * descending distance, ties in order of index, and that all lookups agree
+     * with that ranking.
+     */
+    private static void assertRanking(Leaderboard leaderboard, double[] distances) {
+        Integer[] expected = new Integer[distances.length];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = i;
+        }
+        Arrays.sort(expected, (a, b) -> distances[a] != distances[b]
+                ? Double.compare(distances[b], distances[a]) : Integer.compare(a, b));
+
+        for (int rank = 0; rank < expected.length; rank++) {
+            int robot = expected[rank];
+
+            Assert.assertEquals("robot at rank " + rank, robot, leaderboard.getRobotAt(rank));
+            Assert.assertEquals("rank of robot " + robot, rank, leaderboard.getRank(robot));
+            Assert.assertEquals(rank == 0 ? -1 : (int) expected[rank - 1], leaderboard.getAhead(robot));
+            Assert.assertEquals(distances[expected[0]] - distances[robot], leaderboard.getGapToLeader(robot), 0);
+        }
+
+        Assert.assertEquals((int) expected[0], leaderboard.getLeader());
+        Assert.assertEquals((int) expected[expected.length - 1], leaderboard.getLast());
+    }
+}
@@ -0,0 +1,76 @@
+package robotrace;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that multiplyTrackBasis gives the same matrix as the translation and
+ * the rotation by the heading angle that Robot used to compute with atan, for
+ * tangents in every quadrant and along the x axis.
+ */
+public class MatrixStackTest {
+
+    private static final float EPSILON = 1e-5f;
+
+    private static final Vec3 POSITION = new Vec3(3, -2, 0.5);
+
+    @Test
+    public void testQuadrants() {
+        assertSameAsRotation(new Vec3(1, 2, 0));
+        assertSameAsRotation(new Vec3(-1, 2, 0));
+        assertSameAsRotation(new Vec3(-1, -2, 0.3));
+        assertSameAsRotation(new Vec3(1, -2, -0.3));
+    }
+
+    @Test
+    public void testAxes() {
+        assertSameAsRotation(new Vec3(1, 0, 0));
+        assertSameAsRotation(new Vec3(-1, 0, 0));
+        assertSameAsRotation(new Vec3(0, 1, 0));
+        assertSameAsRotation(new Vec3(0, -1, 0));
+    }
+
+    @Test
+    public void testLength() {
+        assertSameAsRotation(new Vec3(0.001, 0.002, 0));
+        assertSameAsRotation(new Vec3(300, -40, 0));
+    }
+
+    @Test
+    public void testZeroTangent() {
+        MatrixStack expected = new MatrixStack(1);
+        expected.translate(POSITION.x, POSITION.y, POSITION.z);
+
+        MatrixStack actual = new MatrixStack(1);
+        actual.multiplyTrackBasis(POSITION, new Vec3(0, 0, 1));
+
+        assertSameMatrix(expected, actual);
+    }
+
+    /**
+     * Asserts that multiplyTrackBasis of the tangent matches a translation
+     * followed by the rotation that Robot used to apply with glRotated.
+     */
+    private static void assertSameAsRotation(Vec3 tangent) {
+        MatrixStack expected = new MatrixStack(1);
+        expected.scale(2, 2, 2);
+        expected.translate(POSITION.x, POSITION.y, POSITION.z);
+        int additonalAngle = tangent.y < 0 ? 180 : 0;
+        expected.rotate((-Math.toDegrees(Math.atan(tangent.x / tangent.y))) + additonalAngle, 0, 0, 1);
+
+        MatrixStack actual = new MatrixStack(1);
+        actual.scale(2, 2, 2);
+        actual.multiplyTrackBasis(POSITION, tangent);
+
+        assertSameMatrix(expected, actual);
+    }
+
+    private static void assertSameMatrix(MatrixStack expected, MatrixStack actual) {
+        float[] e = new float[16];
+        float[] a = new float[16];
+        expected.get(e, 0);
+        actual.get(a, 0);
+
+        Assert.assertArrayEquals(e, a, EPSILON);
+    }
+}
@@ -0,0 +1,83 @@
+package robotrace;
+
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks that a race only depends on its seed: stepping the robots on a pool
+ * of threads gives exactly the same race as stepping them on one thread, and
+ * a robot runs the same race whatever the number of robots after it.
+ */
+public class RaceSimulationTest {
+
+    private static final long SEED = 42;
+
+    /**
+     * Number of robots in the large race, spread over several chunks, and the
+     * number of ticks that are compared, long enough for every robot to have
+     * changed its speed several times.
+     */
+    private static final int ROBOTS = 10000;
+    private static final int TICKS = 3000;
+
+    private static ForkJoinPool pool;
+
+    @BeforeClass
+    public static void setUpClass() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testIndependentOfThreads() {
+        RaceSimulation serial = createRace(ROBOTS);
+        RaceSimulation parallel = createRace(ROBOTS);
+
+        for (int tick = 0; tick < TICKS; tick++) {
+            serial.step(TickThread.TICK_MS);
+            parallel.step(TickThread.TICK_MS, pool);
+        }
+
+        assertSameRobots(serial, parallel, ROBOTS);
+    }
+
+    @Test
+    public void testIndependentOfRobotCount() {
+        RaceSimulation small = createRace(10);
+        RaceSimulation large = createRace(ROBOTS);
+
+        for (int tick = 0; tick < TICKS; tick++) {
+            small.step(TickThread.TICK_MS);
+            large.step(TickThread.TICK_MS, pool);
+        }
+
+        assertSameRobots(small, large, 10);
+    }
+
+    private static RaceSimulation createRace(int robots) {
+        return new RaceSimulation(RaceSimulation.spreadOverLanes(robots, RaceTrack.NUMBER_OF_LANES), SEED);
+    }
+
+    /**
+     * Asserts that the first robots of both races are in exactly the same
+     * state.
+     */
+    private static void assertSameRobots(RaceSimulation expected, RaceSimulation actual, int robots) {
+        for (int i = 0; i < robots; i++) {
+            String robot = "robot " + i;
+
+            Assert.assertEquals(robot, expected.getLane(i), actual.getLane(i));
+            Assert.assertEquals(robot, expected.getPosOnTrack(i), actual.getPosOnTrack(i), 0);
+            Assert.assertEquals(robot, expected.getTAnim(i), actual.getTAnim(i), 0);
+            Assert.assertEquals(robot, expected.getTotalDistanceTravelled(i), actual.getTotalDistanceTravelled(i), 0);
+            Assert.assertEquals(robot, expected.getTrackRoundStep(i), actual.getTrackRoundStep(i), 0);
+        }
+    }
+}
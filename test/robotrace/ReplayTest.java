@@ -0,0 +1,152 @@
+package robotrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Records a seeded race with ReplayWriter and checks that ReplayReader plays
+ * back the state of every tick, within the quantization of the format, both
+ * tick by tick and after jumping to random ticks.
+ */
+public class ReplayTest {
+
+    /**
+     * Number of robots in the race, and number of ticks recorded after the
+     * start, which span several blocks.
+     */
+    private static final int ROBOTS = 50;
+    private static final int TICKS = 1000;
+
+    private static final long SEED = 42;
+
+    /**
+     * Largest difference allowed between a recorded and a played back value,
+     * one step of the quantization.
+     */
+    private static final double POSITION_TOLERANCE = 1 / ReplayFormat.POSITION_SCALE;
+    private static final double ANIMATION_TOLERANCE = 1 / ReplayFormat.ANIMATION_SCALE;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final RaceSimulation simulation = new RaceSimulation(
+            RaceSimulation.spreadOverLanes(ROBOTS, RaceTrack.NUMBER_OF_LANES), SEED);
+
+    /**
+     * State of every robot at every tick, as simulated.
+     */
+    private final double[][] posOnTrack = new double[TICKS + 1][ROBOTS];
+    private final double[][] tAnim = new double[TICKS + 1][ROBOTS];
+    private final double[][] distance = new double[TICKS + 1][ROBOTS];
+
+    private String path;
+
+    @Before
+    public void setUp() throws IOException {
+        path = new File(folder.getRoot(), "race.replay").getPath();
+
+        ReplayWriter writer = ReplayWriter.create(path, simulation, SEED);
+        for (int tick = 0; tick <= TICKS; tick++) {
+            if (tick > 0) {
+                simulation.step(TickThread.TICK_MS);
+            }
+            writer.record(simulation);
+
+            for (int i = 0; i < ROBOTS; i++) {
+                posOnTrack[tick][i] = simulation.getPosOnTrack(i);
+                tAnim[tick][i] = simulation.getTAnim(i);
+                distance[tick][i] = simulation.getTotalDistanceTravelled(i);
+            }
+        }
+        writer.finish();
+
+        Assert.assertEquals(TICKS + 1, writer.getTicks());
+    }
+
+    @Test
+    public void testHeader() throws IOException {
+        ReplayReader replay = new ReplayReader(path);
+
+        Assert.assertEquals(ROBOTS, replay.getRobotCount());
+        Assert.assertEquals(SEED, replay.getSeed());
+        Assert.assertEquals(0, replay.getFirstTick());
+        Assert.assertEquals(TICKS, replay.getLastTick());
+        for (int i = 0; i < ROBOTS; i++) {
+            Assert.assertEquals(simulation.getLane(i), replay.getLane(i));
+        }
+    }
+
+    @Test
+    public void testNext() throws IOException {
+        ReplayReader replay = new ReplayReader(path);
+
+        Assert.assertEquals(0, replay.getTick());
+        assertTick(replay, 0);
+
+        for (int tick = 1; tick <= TICKS; tick++) {
+            Assert.assertTrue(replay.hasNext());
+            replay.next();
+            Assert.assertEquals(tick, replay.getTick());
+            assertTick(replay, tick);
+        }
+
+        Assert.assertFalse(replay.hasNext());
+    }
+
+    @Test
+    public void testSeek() throws IOException {
+        ReplayReader replay = new ReplayReader(path);
+        Random random = new Random(SEED);
+
+        for (int i = 0; i < 200; i++) {
+            int tick = random.nextInt(TICKS + 1);
+            replay.seek(tick);
+            Assert.assertEquals(tick, replay.getTick());
+            assertTick(replay, tick);
+
+            // Playback continues from the tick jumped to.
+            if (replay.hasNext()) {
+                replay.next();
+                assertTick(replay, tick + 1);
+            }
+        }
+
+        replay.seek(TICKS + 100);
+        Assert.assertEquals(TICKS, replay.getTick());
+
+        replay.seek(-100);
+        Assert.assertEquals(0, replay.getTick());
+    }
+
+    /**
+     * Asserts that the replay, which is at the given tick, plays back the
+     * simulated state of that tick.
+     */
+    private void assertTick(ReplayReader replay, int tick) {
+        for (int i = 0; i < ROBOTS; i++) {
+            String robot = "robot " + i + " at tick " + tick;
+
+            Assert.assertEquals(robot, 0, wrappedDifference(posOnTrack[tick][i], replay.getPosOnTrack(i), 1),
+                    POSITION_TOLERANCE);
+            Assert.assertEquals(robot, 0, wrappedDifference(tAnim[tick][i], replay.getTAnim(i), 10),
+                    ANIMATION_TOLERANCE);
+            Assert.assertEquals(robot, distance[tick][i], replay.getTotalDistanceTravelled(i),
+                    POSITION_TOLERANCE);
+        }
+    }
+
+    /**
+     * Returns the difference between two values of a quantity that wraps
+     * around at period, the quantization may round a value up to period.
+     */
+    private static double wrappedDifference(double a, double b, double period) {
+        double difference = Math.abs(a - b) % period;
+        return Math.min(difference, period - difference);
+    }
+}
@@ -0,0 +1,187 @@
+package robotrace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Exports seeded races to telemetry files in a temporary folder and decodes
+ * the packets against the simulation: the magic number, the header and the
+ * values of every robot, frames that are split over several packets, and
+ * the counting of frames dropped when the sender cannot keep up.
+ */
+public class TelemetrySinkTest {
+
+    /**
+     * Number of robots that fit in one packet.
+     */
+    private static final int ROBOTS_PER_PACKET
+            = (TelemetrySink.MAX_PACKET_BYTES - TelemetrySink.HEADER_BYTES) / TelemetrySink.ROBOT_BYTES;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSmallRace() throws IOException {
+        assertExportedRace(10, 200);
+    }
+
+    @Test
+    public void testFrameSplitOverPackets() throws IOException {
+        int frames = assertExportedRace(2 * ROBOTS_PER_PACKET + 1, 5);
+
+        Assert.assertTrue("No frame was written", frames > 0);
+    }
+
+    @Test
+    public void testDroppedFrames() throws IOException, InterruptedException {
+        int robots = 10;
+        RaceSimulation simulation = new RaceSimulation(
+                RaceSimulation.spreadOverLanes(robots, RaceTrack.NUMBER_OF_LANES), 42);
+
+        // The sender blocks on the first packet until the latch is released,
+        // so every frame published after the ring filled up is dropped.
+        CountDownLatch release = new CountDownLatch(1);
+        Path path = new File(folder.getRoot(), "blocked.telemetry").toPath();
+        FileChannel file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        WritableByteChannel blocking = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer source) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return file.write(source);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return file.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                file.close();
+            }
+        };
+
+        TelemetrySink sink = new TelemetrySink(blocking, null, robots);
+
+        int published = 100;
+        for (int tick = 1; tick <= published; tick++) {
+            simulation.step(TickThread.TICK_MS);
+            sink.publish(simulation, tick);
+        }
+
+        long sent = sink.getSentFrames();
+        long dropped = sink.getDroppedFrames();
+
+        release.countDown();
+        sink.close();
+
+        Assert.assertEquals(published, sent + dropped);
+        Assert.assertTrue("No frame was dropped", dropped > 0);
+        Assert.assertTrue("No frame was sent", sent > 0);
+
+        // The frames that were not dropped are the first ones, all complete.
+        ByteBuffer data = read(path);
+        for (int frame = 1; frame <= sent; frame++) {
+            Assert.assertEquals(TelemetrySink.MAGIC, data.getInt());
+            Assert.assertEquals(frame, data.getLong());
+            data.position(data.position() + 4 + 4 + 4 + robots * TelemetrySink.ROBOT_BYTES);
+        }
+        Assert.assertFalse(data.hasRemaining());
+    }
+
+    /**
+     * Exports the given number of ticks of a seeded race to a telemetry file,
+     * decodes the file and asserts that every written frame matches the
+     * simulation at its tick. Returns the number of frames in the file.
+     */
+    private int assertExportedRace(int robots, int ticks) throws IOException {
+        RaceSimulation simulation = new RaceSimulation(
+                RaceSimulation.spreadOverLanes(robots, RaceTrack.NUMBER_OF_LANES), 42);
+        Path path = new File(folder.getRoot(), "race.telemetry").toPath();
+
+        float[][] posOnTrack = new float[ticks + 1][robots];
+        float[][] speed = new float[ticks + 1][robots];
+        double[][] distance = new double[ticks + 1][robots];
+
+        TelemetrySink sink = TelemetrySink.open("file:" + path, robots);
+        for (int tick = 1; tick <= ticks; tick++) {
+            simulation.step(TickThread.TICK_MS);
+
+            for (int i = 0; i < robots; i++) {
+                posOnTrack[tick][i] = (float) simulation.getPosOnTrack(i);
+                speed[tick][i] = (float) (simulation.getTrackRoundStep(i) * 1000);
+                distance[tick][i] = simulation.getTotalDistanceTravelled(i);
+            }
+
+            sink.publish(simulation, tick);
+        }
+        sink.close();
+
+        Assert.assertEquals(ticks, sink.getSentFrames() + sink.getDroppedFrames());
+
+        int packetsPerFrame = (robots + ROBOTS_PER_PACKET - 1) / ROBOTS_PER_PACKET;
+        ByteBuffer data = read(path);
+        int frames = 0;
+        long lastTick = 0;
+
+        while (data.hasRemaining()) {
+            long tick = -1;
+
+            for (int p = 0; p < packetsPerFrame; p++) {
+                int start = data.position();
+
+                Assert.assertEquals(TelemetrySink.MAGIC, data.getInt());
+                long packetTick = data.getLong();
+                Assert.assertEquals(robots, data.getInt());
+                int first = data.getInt();
+                int count = data.getInt();
+
+                if (p == 0) {
+                    tick = packetTick;
+                    Assert.assertTrue("Frames out of order", tick > lastTick && tick <= ticks);
+                } else {
+                    Assert.assertEquals(tick, packetTick);
+                }
+                Assert.assertEquals(p * ROBOTS_PER_PACKET, first);
+                Assert.assertEquals(Math.min(ROBOTS_PER_PACKET, robots - first), count);
+
+                for (int i = first; i < first + count; i++) {
+                    int t = (int) tick;
+                    Assert.assertEquals(posOnTrack[t][i], data.getFloat(), 0);
+                    Assert.assertEquals(speed[t][i], data.getFloat(), 0);
+                    Assert.assertEquals(distance[t][i], data.getDouble(), 0);
+                }
+
+                Assert.assertTrue("Packet too large", data.position() - start <= TelemetrySink.MAX_PACKET_BYTES);
+                Assert.assertEquals(TelemetrySink.HEADER_BYTES + count * TelemetrySink.ROBOT_BYTES,
+                        data.position() - start);
+            }
+
+            lastTick = tick;
+            frames++;
+        }
+
+        Assert.assertEquals(sink.getSentFrames(), frames);
+        return frames;
+    }
+
+    private static ByteBuffer read(Path path) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}